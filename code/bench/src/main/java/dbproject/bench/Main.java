@@ -0,0 +1,37 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+package dbproject.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of benchmarks.jar: the usual JMH command line, with the GC
+ * profiler always on so every result comes with its allocation rate.
+ *
+ * Example, from code/bench: java -jar target/benchmarks.jar -p scale=1,100
+ *
+ */
+
+public class Main {
+	public static void main(String[] args) throws Exception {
+		Options options = new OptionsBuilder()
+			.parent(new CommandLineOptions(args))
+			.addProfiler(GCProfiler.class)
+			.build();
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,175 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+package dbproject.bench;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the eight DBproject menu operations, each measured as
+ * throughput and as sampled latency (which reports p50, p99 and so on),
+ * at 1x, 100x and 10,000x the shipped data.  Main adds the GC profiler,
+ * which reports the allocation rate per operation.
+ *
+ * The add and book benchmarks write to the database, so it grows over a
+ * trial; every addition gets a name or slot not used before, so none is
+ * rejected as a duplicate.  Each trial starts from a fresh copy of the
+ * seeded database (see Seeder), so the writes of one do not reach the
+ * next.  A booking is for an appointment that
+ * was available when the trial started, with the doctor it belongs to.
+ *
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MenuOperationsBenchmark {
+	//sampled keys the operations pick from
+	private static final int SAMPLE = 1000;
+	//added appointments go after every seeded date
+	private static final LocalDate NEW_SLOTS_FROM = LocalDate.of(2100, 1, 1);
+	private static final String[] STATUSES = { "AV", "AC", "WL", "PA" };
+
+	@Param({ "1", "100", "10000" })
+	public int scale;
+
+	private Scheduling db;
+	private int[] doctors;
+	private int[] patients;
+	//available appointments, booked with the doctor they belong to
+	private int[] openAppointments;
+	private int[] openDoctors;
+	private String[] departments;
+	private LocalDate firstDay;
+	private int days;
+	//names and the first day added rows use, unique to this trial
+	private String run;
+	private int department;
+	private LocalDate newSlotsFrom;
+	private final AtomicInteger added = new AtomicInteger();
+
+	@State(Scope.Thread)
+	public static class Picks {
+		final SplittableRandom random = new SplittableRandom(166);
+
+		int of(int[] keys) { return keys[random.nextInt(keys.length)]; }
+		String of(String[] keys) { return keys[random.nextInt(keys.length)]; }
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		db = Seeder.open(scale);
+		doctors = ints(db.query("SELECT doctor_ID FROM Doctor ORDER BY random() LIMIT " + SAMPLE));
+		patients = ints(db.query("SELECT patient_ID FROM Patient ORDER BY random() LIMIT " + SAMPLE));
+		List<List<String>> open = db.query("SELECT H.appt_id, H.doctor_id FROM has_appointment H, Appointment A "
+			+ "WHERE A.appnt_ID = H.appt_id AND A.status = 'AV' AND A.adate < ? ORDER BY random() LIMIT " + SAMPLE, NEW_SLOTS_FROM);
+		openAppointments = new int[open.size()];
+		openDoctors = new int[open.size()];
+		for (int i = 0; i < openAppointments.length; ++i) {
+			openAppointments[i] = Integer.parseInt(open.get(i).get(0));
+			openDoctors[i] = Integer.parseInt(open.get(i).get(1));
+		}
+		List<List<String>> names = db.query("SELECT DISTINCT name FROM Department");
+		departments = new String[names.size()];
+		for (int i = 0; i < departments.length; ++i)
+			departments[i] = names.get(i).get(0);
+		List<List<String>> range = db.query("SELECT MIN(adate), MAX(adate) - MIN(adate) + 1 FROM Appointment WHERE adate < ?", NEW_SLOTS_FROM);
+		firstDay = LocalDate.parse(range.get(0).get(0));
+		days = Integer.parseInt(range.get(0).get(1));
+		run = Long.toString(System.currentTimeMillis(), 36);
+		department = Integer.parseInt(db.query("SELECT MIN(dept_ID) FROM Department").get(0).get(0));
+		newSlotsFrom = LocalDate.parse(db.query("SELECT COALESCE(MAX(adate) + 1, ?) FROM Appointment WHERE adate >= ?",
+			NEW_SLOTS_FROM, NEW_SLOTS_FROM).get(0).get(0));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		db.close();
+	}
+
+	@Benchmark
+	public int addDoctor() {
+		int n = added.incrementAndGet();
+		return db.addDoctor("Bench Doctor " + run + " " + n, "Bench", department);
+	}
+
+	@Benchmark
+	public int addPatient() {
+		int n = added.incrementAndGet();
+		return db.addPatient("Bench Patient " + run + " " + n, (n & 1) == 0 ? "F" : "M", 20 + n % 60, n + " Bench St");
+	}
+
+	@Benchmark
+	public int addAppointment() {
+		// every (doctor, day, hour) is used once
+		int n = added.getAndIncrement();
+		int doctor = doctors[n % doctors.length];
+		int slot = n / doctors.length;
+		int hour = 8 + slot % 9;
+		return db.addAppointment(doctor, newSlotsFrom.plusDays(slot / 9), hour, hour + 1);
+	}
+
+	@Benchmark
+	public String makeAppointment(Picks picks) {
+		int i = picks.random.nextInt(openAppointments.length);
+		return db.bookAppointment(picks.of(patients), openDoctors[i], openAppointments[i]);
+	}
+
+	@Benchmark
+	public int listAppointmentsOfDoctor(Picks picks) {
+		LocalDate from = firstDay.plusDays(picks.random.nextInt(days));
+		return db.listAppointmentsOfDoctor(picks.of(doctors), from, from.plusMonths(1));
+	}
+
+	@Benchmark
+	public int listAvailableAppointmentsOfDepartment(Picks picks) {
+		return db.listAvailableAppointmentsOfDepartment(picks.of(departments), firstDay.plusDays(picks.random.nextInt(days)));
+	}
+
+	@Benchmark
+	public int reportStatusPerDoctor() {
+		return db.reportStatusPerDoctor();
+	}
+
+	@Benchmark
+	public int reportPatientsWithStatus(Picks picks) {
+		return db.reportPatientsWithStatus(STATUSES[picks.random.nextInt(STATUSES.length)]);
+	}
+
+	private static int[] ints(List<List<String>> rows) {
+		int[] values = new int[rows.size()];
+		for (int i = 0; i < values.length; ++i)
+			values[i] = Integer.parseInt(rows.get(i).get(0));
+		return values;
+	}
+}
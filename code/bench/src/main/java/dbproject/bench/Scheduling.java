@@ -0,0 +1,137 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+package dbproject.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * This class gives the benchmarks typed access to DBproject.  DBproject and
+ * its helper classes live in the default package, which a named package
+ * cannot import, so every operation is bound once to a method handle.
+ *
+ */
+
+final class Scheduling implements AutoCloseable {
+	private static final Class<?> DB = load("DBproject");
+	private static final Class<?> SINK = load("ResultSink");
+	private static final Class<?> STATUS = load("AppointmentStatus");
+	private static final Class<?> CURSOR = load("PageCursor");
+	//rows per page of the appointment listings, the same property DBproject reads
+	static final int PAGE_SIZE = Integer.getInteger("dbproject.list.pageSize", 50);
+
+	private static final MethodHandle CONNECT = constructor(String.class, String.class, String.class, String.class);
+	private static final MethodHandle RUN_COMMAND = method(true, "runCommand", void.class, DB, String.class, String[].class);
+	private static final MethodHandle DISCARD = staticOf(SINK, "discard", SINK);
+	private static final MethodHandle ROW_COUNT = virtualOf(SINK, "getRowCount", long.class);
+	private static final MethodHandle CLEANUP = method(false, "cleanup", void.class);
+	private static final MethodHandle QUERY = method(false, "executeQueryAndReturnResult", List.class, String.class, Object[].class);
+	private static final MethodHandle UPDATE = method(false, "executeUpdate", int.class, String.class, Object[].class);
+	private static final MethodHandle ADD_DOCTOR = method(false, "addDoctor", int.class, String.class, String.class, int.class);
+	private static final MethodHandle ADD_PATIENT = method(false, "addPatient", int.class, String.class, String.class, int.class, String.class);
+	private static final MethodHandle ADD_APPOINTMENT = method(false, "addAppointment", int.class, int.class, LocalDate.class, int.class, int.class);
+	private static final MethodHandle BOOK = method(false, "bookAppointment", String.class, int.class, int.class, int.class);
+	private static final MethodHandle LIST_OF_DOCTOR = method(false, "listAppointmentsOfDoctor", CURSOR,
+		int.class, LocalDate.class, LocalDate.class, CURSOR, int.class, SINK);
+	private static final MethodHandle LIST_OF_DEPARTMENT = method(false, "listAvailableAppointmentsOfDepartment", CURSOR,
+		String.class, LocalDate.class, CURSOR, int.class, SINK);
+	private static final MethodHandle STATUS_PER_DOCTOR = method(false, "reportStatusPerDoctor", int.class, SINK);
+	private static final MethodHandle PATIENTS_WITH_STATUS = method(false, "reportPatientsWithStatus", int.class, STATUS, SINK);
+
+	private final Object _db;
+
+	Scheduling(String dbname, String port, String user) {
+		this._db = call(CONNECT, dbname, port, user, "");
+	}
+
+	void runCommand(String command, String... args) { call(RUN_COMMAND, _db, command, args); }
+
+	@SuppressWarnings("unchecked")
+	List<List<String>> query(String sql, Object... params) { return (List<List<String>>) call(QUERY, _db, sql, params); }
+	int update(String sql, Object... params) { return (Integer) call(UPDATE, _db, sql, params); }
+
+	int addDoctor(String name, String specialty, int did) { return (Integer) call(ADD_DOCTOR, _db, name, specialty, did); }
+	int addPatient(String name, String gender, int age, String address) { return (Integer) call(ADD_PATIENT, _db, name, gender, age, address); }
+	int addAppointment(int docId, LocalDate date, int start, int end) { return (Integer) call(ADD_APPOINTMENT, _db, docId, date, start, end); }
+	String bookAppointment(int pid, int docId, int apptId) { return (String) call(BOOK, _db, pid, docId, apptId); }
+	//the listings read their first page, and return its number of rows
+	int listAppointmentsOfDoctor(int docId, LocalDate from, LocalDate to) {
+		Object sink = call(DISCARD);
+		call(LIST_OF_DOCTOR, _db, docId, from, to, null, PAGE_SIZE, sink);
+		return (int) (long) (Long) call(ROW_COUNT, sink);
+	}
+	int listAvailableAppointmentsOfDepartment(String dept, LocalDate date) {
+		Object sink = call(DISCARD);
+		call(LIST_OF_DEPARTMENT, _db, dept, date, null, PAGE_SIZE, sink);
+		return (int) (long) (Long) call(ROW_COUNT, sink);
+	}
+	int reportStatusPerDoctor() { return (Integer) call(STATUS_PER_DOCTOR, _db, call(DISCARD)); }
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	int reportPatientsWithStatus(String status) {
+		return (Integer) call(PATIENTS_WITH_STATUS, _db, Enum.valueOf((Class) STATUS, status), call(DISCARD));
+	}
+
+	public void close() { call(CLEANUP, _db); }
+
+	//the operations throw SQLException, which a benchmark can only pass on unchecked
+	private static Object call(MethodHandle handle, Object... args) {
+		try {
+			return handle.invokeWithArguments(args);
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new IllegalStateException(e.getMessage(), e);
+		}
+	}
+
+	private static Class<?> load(String name) {
+		try {
+			return Class.forName(name);
+		} catch (ClassNotFoundException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private static MethodHandle constructor(Class<?>... params) {
+		try {
+			return MethodHandles.publicLookup().findConstructor(DB, MethodType.methodType(void.class, params));
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private static MethodHandle method(boolean isStatic, String name, Class<?> returns, Class<?>... params) {
+		return isStatic ? staticOf(DB, name, returns, params) : virtualOf(DB, name, returns, params);
+	}
+
+	private static MethodHandle staticOf(Class<?> owner, String name, Class<?> returns, Class<?>... params) {
+		try {
+			return MethodHandles.publicLookup().findStatic(owner, name, MethodType.methodType(returns, params));
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private static MethodHandle virtualOf(Class<?> owner, String name, Class<?> returns, Class<?>... params) {
+		try {
+			// varargs methods are called with their array built by the caller
+			return MethodHandles.publicLookup().findVirtual(owner, name, MethodType.methodType(returns, params)).asFixedArity();
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+}
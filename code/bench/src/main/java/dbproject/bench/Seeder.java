@@ -0,0 +1,148 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+package dbproject.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+
+/**
+ * This class prepares one database per scale factor on the local
+ * PostgreSQL server: the schema of create.sql and the migrations, the
+ * shipped CSV files loaded through DBproject, and then scale - 1 copies of
+ * every patient, doctor and appointment made on the server with
+ * generate_series, under fresh keys and spread over later dates.  A
+ * database that is already seeded is reused, so the seeding cost is paid
+ * once per scale rather than once per benchmark.
+ *
+ * The seeded database is only a template: every trial gets a fresh copy
+ * of it, made with CREATE DATABASE ... TEMPLATE, so what the add and book
+ * benchmarks write is gone by the next trial and every run measures the
+ * same data.
+ *
+ * Connection settings come from the system properties bench.port (default
+ * $PGPORT, then 5432), bench.user (default the login name), bench.sqlDir
+ * (default ../sql) and bench.dataDir (default ../data).
+ *
+ */
+
+final class Seeder {
+	static final String PORT = System.getProperty("bench.port",
+		System.getenv("PGPORT") != null ? System.getenv("PGPORT") : "5432");
+	static final String USER = System.getProperty("bench.user", System.getProperty("user.name"));
+	static final File SQL_DIR = new File(System.getProperty("bench.sqlDir", "../sql"));
+	static final File DATA_DIR = new File(System.getProperty("bench.dataDir", "../data"));
+
+	private Seeder() {
+	}
+
+	/**
+	 * Method to open a fresh copy of the database of a scale factor,
+	 * seeding the database first if needed.  The copy of the last trial is
+	 * dropped.
+	 *
+	 * @param scale how many copies of code/data the database holds
+	 * @return the open copy
+	 */
+	static Scheduling open(int scale) throws SQLException, IOException {
+		String dbname = "dbproject_bench_x" + scale;
+		String trial = dbname + "_trial";
+		boolean seeded;
+		try (Connection c = connect("postgres"); Statement stmt = c.createStatement()) {
+			ResultSet rs = stmt.executeQuery("SELECT 1 FROM pg_database WHERE datname = '" + dbname + "'");
+			if (!rs.next()) stmt.execute("CREATE DATABASE " + dbname);
+		}
+		try (Connection c = connect(dbname); Statement stmt = c.createStatement()) {
+			ResultSet rs = stmt.executeQuery("SELECT to_regclass('bench_seed') IS NOT NULL");
+			rs.next();
+			seeded = rs.getBoolean(1);
+			if (!seeded) {
+				System.out.println("Seeding " + dbname + " ...");
+				// the schema without the COPY statements, which read files on the server
+				String create = new String(Files.readAllBytes(new File(SQL_DIR, "create.sql").toPath()), StandardCharsets.UTF_8);
+				stmt.execute(create.replaceAll("(?s)COPY\\s+\\w+\\s*\\([^)]*\\)\\s*FROM\\s+'[^']*'\\s*WITH DELIMITER ',';", ""));
+			}
+		}
+		if (!seeded) {
+			Scheduling db = new Scheduling(dbname, PORT, USER);
+			try {
+				long start = System.nanoTime();
+				db.runCommand("migrate", new File(SQL_DIR, "migrations").getPath());
+				db.runCommand("load", DATA_DIR.getPath());
+				if (scale > 1) replicate(db, scale);
+				db.update("CREATE TABLE bench_seed AS SELECT " + scale + " AS scale");
+				System.out.println(String.format("Seeded %s in %.1f s", dbname, (System.nanoTime() - start) / 1e9));
+			} finally {
+				// a template cannot be copied while connected to
+				db.close();
+			}
+		}
+		try (Connection c = connect("postgres"); Statement stmt = c.createStatement()) {
+			stmt.execute("DROP DATABASE IF EXISTS " + trial);
+			stmt.execute("CREATE DATABASE " + trial + " TEMPLATE " + dbname);
+		}
+		return new Scheduling(trial, PORT, USER);
+	}
+
+	//adds scale - 1 copies of the loaded rows, keys offset past the originals
+	private static void replicate(Scheduling db, int scale) {
+		long doctors = offset(db, "doctor_ID", "Doctor");
+		long patients = offset(db, "patient_ID", "Patient");
+		long appointments = offset(db, "appnt_ID", "Appointment");
+		String copies = "generate_series(1, " + (scale - 1) + ") AS G(n)";
+		String shifted = "A.adate + G.n % 3650";
+
+		// the counters are rebuilt once at the end rather than row by row
+		db.update("ALTER TABLE has_appointment DISABLE TRIGGER USER");
+		db.update("INSERT INTO Doctor (doctor_ID, name, specialty, did) "
+			+ "SELECT D.doctor_ID + G.n * " + doctors + ", D.name || ' ' || G.n, D.specialty, D.did FROM Doctor D, " + copies);
+		db.update("INSERT INTO Patient (patient_ID, name, gtype, age, address, number_of_appts) "
+			+ "SELECT P.patient_ID + G.n * " + patients + ", P.name || ' ' || G.n, P.gtype, P.age, P.address, P.number_of_appts "
+			+ "FROM Patient P, " + copies);
+		// the copies fall in later months, which have no partition until asked for (V003)
+		db.query("SELECT ensure_appointment_month(M.first) FROM (SELECT DISTINCT date_trunc('month', " + shifted + ")::date AS first "
+			+ "FROM Appointment A, " + copies + " WHERE A.status IS DISTINCT FROM 'PA') M");
+		db.update("INSERT INTO Appointment (appnt_ID, adate, time_slot, status) "
+			+ "SELECT A.appnt_ID + G.n * " + appointments + ", " + shifted + ", A.time_slot, A.status FROM Appointment A, " + copies);
+		db.update("INSERT INTO has_appointment (appt_id, doctor_id) "
+			+ "SELECT H.appt_id + G.n * " + appointments + ", H.doctor_id + G.n * " + doctors + " FROM has_appointment H, " + copies);
+		db.update("INSERT INTO searches (hid, pid, aid) "
+			+ "SELECT S.hid, S.pid + G.n * " + patients + ", S.aid + G.n * " + appointments + " FROM searches S, " + copies);
+		db.update("ALTER TABLE has_appointment ENABLE TRIGGER USER");
+
+		db.runCommand("verify-counters");
+		db.query("SELECT setval('doctor_id_seq', (SELECT MAX(doctor_ID) + 1 FROM Doctor), false)");
+		db.query("SELECT setval('patient_id_seq', (SELECT MAX(patient_ID) + 1 FROM Patient), false)");
+		db.query("SELECT setval('appointment_id_seq', (SELECT MAX(appnt_ID) + 1 FROM Appointment), false)");
+		for (String table : new String[] { "Doctor", "Patient", "Appointment", "has_appointment", "searches", "doctor_status_count" })
+			db.update("ANALYZE " + table);
+	}
+
+	private static long offset(Scheduling db, String column, String table) {
+		return Long.parseLong(db.query("SELECT COALESCE(MAX(" + column + ") + 1, 1) FROM " + table).get(0).get(0));
+	}
+
+	private static Connection connect(String dbname) throws SQLException {
+		Properties props = new Properties();
+		props.setProperty("user", USER);
+		props.setProperty("password", "");
+		return DriverManager.getConnection("jdbc:postgresql://localhost:" + PORT + "/" + dbname, props);
+	}
+}
@@ -0,0 +1,194 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.Collection;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class looks after the partitions of Appointment made by migration
+ * V003: a partition per month of adate for the appointments still to come,
+ * and an archive for the past (PA) ones.
+ *
+ * Before an appointment is inserted, ensure creates the partition of its
+ * month if this process has not seen it yet; a month seen once is not
+ * asked about again.  Another process archiving may drop a month this
+ * one has seen, so inserts go through insert, which creates the months
+ * again and retries when a row finds no partition.
+ *
+ * Past appointments leave the months in two explicit steps (migration
+ * V006).  expire marks the booked (AC, WL) appointments before a day as
+ * PA, which moves them to the archive; AV slots nobody booked are left as
+ * they are.  archive drops the months before a day that hold nothing any
+ * more, so the partitions the listings read hold only the appointments
+ * still to come.  Both can run periodically on a background thread.
+ *
+ * On a schema without the migration every method does nothing.
+ *
+ */
+
+public class AppointmentPartitions {
+	//months ahead of the current one created by every archive run
+	static final int MONTHS_AHEAD = 2;
+	//SQLState of a row that fits no partition, e.g. of a month dropped since it was seen
+	static final String NO_PARTITION = "23514";
+
+	private final DBproject _db;
+	private final Set<YearMonth> _months = ConcurrentHashMap.newKeySet();
+	private volatile Boolean _partitioned = null;
+	private ScheduledExecutorService _archiver = null;
+
+	public AppointmentPartitions(DBproject db) {
+		this._db = db;
+	}
+
+	/**
+	 * @return whether Appointment is partitioned, asked once
+	 * @throws java.sql.SQLException when the catalog could not be read
+	 */
+	public boolean isPartitioned() throws SQLException {
+		if (_partitioned == null)
+			_partitioned = _db.exists("SELECT 1 WHERE to_regproc('ensure_appointment_month') IS NOT NULL");
+		return _partitioned;
+	}
+
+	/**
+	 * Method to make sure the partition of a day's month exists.  Inside a
+	 * transaction the partition is created as part of it and the month is
+	 * not remembered, since a rollback would take the partition back.
+	 *
+	 * @param day a day of the month
+	 * @throws java.sql.SQLException when the partition could not be created
+	 */
+	public void ensure(LocalDate day) throws SQLException {
+		YearMonth month = YearMonth.from(day);
+		if (_months.contains(month) || !isPartitioned()) return;
+		_db.executeQueryAndReturnResult("SELECT ensure_appointment_month(?)", month.atDay(1));
+		if (!_db.inTransaction()) _months.add(month);
+	}//end ensure
+
+	/**
+	 * Method to make sure the partitions of several days exist, one call
+	 * per month.
+	 */
+	public void ensure(Collection<LocalDate> days) throws SQLException {
+		Set<YearMonth> months = new TreeSet<YearMonth>();
+		for (LocalDate day : days)
+			months.add(YearMonth.from(day));
+		for (YearMonth month : months)
+			ensure(month.atDay(1));
+	}//end ensure
+
+	/**
+	 * Method to run an insert into the months of the given days, creating
+	 * them first.  When a row finds no partition because a month seen
+	 * before has been dropped since, the months are forgotten and created
+	 * again, and the insert runs once more.  Inside a transaction, which
+	 * the failure has aborted, the error is passed on instead; the next
+	 * insert into those months creates them.
+	 *
+	 * @param days the days of the rows inserted
+	 * @param work the insert, run as its own transaction
+	 * @return whatever the insert returns
+	 * @throws java.sql.SQLException when the insert failed
+	 */
+	public <T> T insert(Collection<LocalDate> days, DBproject.Work<T> work) throws SQLException {
+		ensure(days);
+		try {
+			return work.run();
+		} catch (SQLException e) {
+			if (!isPartitioned() || !hasState(e, NO_PARTITION)) throw e;
+			for (LocalDate day : days)
+				_months.remove(YearMonth.from(day));
+			if (_db.inTransaction()) throw e;
+			ensure(days);
+			return work.run();
+		}
+	}//end insert
+
+	//whether the error or one chained to it, e.g. by a batch, has the SQLState
+	private static boolean hasState(SQLException e, String state) {
+		for (SQLException s = e; s != null; s = s.getNextException())
+			if (state.equals(s.getSQLState())) return true;
+		return e.getCause() instanceof SQLException && state.equals(((SQLException) e.getCause()).getSQLState());
+	}
+
+	/**
+	 * Method to mark the booked (AC, WL) appointments before a day as past
+	 * (PA) ones, which moves them to the archive along with the doctors'
+	 * status counters.  Nobody waits for them afterwards.  Available slots
+	 * are not touched.
+	 *
+	 * @param before the first day not expired
+	 * @return the number of appointments marked PA
+	 * @throws java.sql.SQLException when the move failed and was rolled back
+	 */
+	public int expire(final LocalDate before) throws SQLException {
+		if (!isPartitioned()) return 0;
+		return _db.getMetrics().operation("expire",
+			() -> (int) _db.queryForLong("SELECT expire_appointments(?)", before));
+	}//end expire
+
+	/**
+	 * Method to drop the months ending by a day that hold no appointment
+	 * any more, and create the months ahead.
+	 *
+	 * @param before the first day whose month is kept
+	 * @return the number of months dropped
+	 * @throws java.sql.SQLException when dropping failed
+	 */
+	public int archive(final LocalDate before) throws SQLException {
+		if (!isPartitioned()) return 0;
+		int dropped = _db.getMetrics().operation("archive",
+			() -> (int) _db.queryForLong("SELECT drop_empty_appointment_months(?)", before));
+		// the months dropped must be created again if an appointment is added to them
+		_months.clear();
+		YearMonth now = YearMonth.now();
+		for (int i = 0; i <= MONTHS_AHEAD; ++i)
+			ensure(now.plusMonths(i).atDay(1));
+		return dropped;
+	}//end archive
+
+	/**
+	 * Method to drop, every periodMs, the empty months more than retainDays
+	 * in the past, expiring their booked appointments first if asked to.
+	 */
+	public synchronized void archiveEvery(long periodMs, final int retainDays, final boolean expire) {
+		if (_archiver != null) return;
+		_archiver = Executors.newSingleThreadScheduledExecutor(work -> {
+			Thread t = new Thread(work, "appointment-archiver");
+			t.setDaemon(true);
+			return t;
+		});
+		_archiver.scheduleWithFixedDelay(() -> {
+			try {
+				LocalDate before = LocalDate.now().minusDays(retainDays);
+				if (expire) expire(before);
+				archive(before);
+			} catch (SQLException e) {
+				System.err.println("Archiving appointments failed: " + e.getMessage());
+			}
+		}, 0, periodMs, TimeUnit.MILLISECONDS);
+	}//end archiveEvery
+
+	public synchronized void close() {
+		if (_archiver != null) _archiver.shutdownNow();
+	}
+}//end AppointmentPartitions
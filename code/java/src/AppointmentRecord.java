@@ -0,0 +1,48 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.time.LocalDate;
+
+/**
+ * This class holds one new appointment of a doctor for the batch insert API
+ * of DBproject.  The primary key is allocated when the record is inserted.
+ *
+ */
+
+public class AppointmentRecord {
+	public final int doctorId;
+	public final LocalDate date;
+	public final int startHour;
+	public final int endHour;
+
+	/**
+	 * @param doctorId the doctor the appointment is with
+	 * @param date the day of the appointment
+	 * @param startHour the hour it starts, 8 to 16
+	 * @param endHour the hour it ends, after startHour and at most 17
+	 */
+	public AppointmentRecord(int doctorId, LocalDate date, int startHour, int endHour) {
+		SlotBitmapCache.mask(startHour, endHour);
+		this.doctorId = doctorId;
+		this.date = date;
+		this.startHour = startHour;
+		this.endHour = endHour;
+	}
+
+	/**
+	 * @return the time slot as stored, e.g. 8:00-10:00
+	 */
+	public String getTimeSlot() {
+		return SlotBitmapCache.timeSlot(startHour, endHour);
+	}
+}//end AppointmentRecord
@@ -0,0 +1,48 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+/**
+ * This enum lists the values of the _STATUS domain of create.sql.
+ *
+ */
+
+public enum AppointmentStatus {
+	PA("Past"),
+	AC("Active"),
+	AV("Available"),
+	WL("Waitlisted");
+
+	private final String _description;
+
+	AppointmentStatus(String description) {
+		this._description = description;
+	}
+
+	public String getDescription() { return _description; }
+
+	/**
+	 * Method to read a status code as stored in the database or typed by a
+	 * user, ignoring case and surrounding blanks.
+	 *
+	 * @param code the two letter status code
+	 * @return the status, or null if code is null or not a status
+	 */
+	public static AppointmentStatus parse(String code) {
+		if (code == null) return null;
+		try {
+			return valueOf(code.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}//end parse
+}//end AppointmentStatus
@@ -0,0 +1,258 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+
+/**
+ * This class loads the CSV files of code/data (or files of the same names
+ * and layout) by streaming them to the DBMS through the driver's COPY API.
+ * Tables that do not depend on each other load in parallel on separate
+ * pooled connections; a table starts once every table it references has
+ * finished.  Secondary indexes are dropped for the load and rebuilt after
+ * it, and user triggers are disabled while the rows go in, the counters
+ * they maintain are rebuilt at the end.  The appointment IDs the trigger
+ * of V008 would have recorded are copied to appointment_key right after
+ * Appointment loads, where a repeated ID fails the load.  Files are read a buffer at a
+ * time, so their size does not matter.
+ *
+ * The loader is meant for an empty database, e.g. one created by
+ * create.sql without its COPY statements.
+ *
+ */
+
+public class BulkLoader {
+
+	/**
+	 * A table to load: its CSV file, the column order of the file and the
+	 * tables its foreign keys reference.
+	 */
+	static final class Table {
+		final String name;
+		final String file;
+		final String columns;
+		final String[] dependsOn;
+
+		Table(String name, String file, String columns, String... dependsOn) {
+			this.name = name;
+			this.file = file;
+			this.columns = columns;
+			this.dependsOn = dependsOn;
+		}
+	}//end Table
+
+	//in an order where every table comes after the tables it depends on
+	static final Table[] TABLES = {
+		new Table("Hospital", "hospital.csv", "hospital_ID, name"),
+		new Table("Patient", "patient.csv", "patient_ID, name, gtype, age, address, number_of_appts"),
+		new Table("Appointment", "appointment.csv", "appnt_ID, adate, time_slot, status"),
+		new Table("Department", "department.csv", "dept_ID, name, hid", "Hospital"),
+		new Table("Staff", "staff.csv", "staff_ID, name, hid", "Hospital"),
+		new Table("Doctor", "doctor.csv", "doctor_ID, name, specialty, did", "Department"),
+		new Table("searches", "searches.csv", "hid, pid, aid", "Hospital", "Patient", "Appointment"),
+		new Table("schedules", "schedules.csv", "appt_id, staff_id", "Appointment", "Staff"),
+		new Table("has_appointment", "has_appointment.csv", "appt_id, doctor_id", "Appointment", "Doctor"),
+		new Table("request_maintenance", "request_maintenance.csv",
+			"patient_per_hour, dept_name, time_slot, did, sid", "Doctor", "Staff"),
+	};
+
+	//key sequences to move past the loaded keys, see KeyAllocator
+	static final String[][] SEQUENCES = {
+		{ "doctor_id_seq", "Doctor", "doctor_ID" },
+		{ "patient_id_seq", "Patient", "patient_ID" },
+		{ "appointment_id_seq", "Appointment", "appnt_ID" },
+	};
+
+	private final DBproject _db;
+	private final File _dir;
+	private final int _threads;
+
+	/**
+	 * @param db the database to load into
+	 * @param dir the directory holding the CSV files
+	 * @param threads number of tables loaded at the same time
+	 */
+	public BulkLoader(DBproject db, File dir, int threads) {
+		this._db = db;
+		this._dir = dir;
+		this._threads = threads;
+	}
+
+	/**
+	 * Method to load every table whose CSV file exists in the directory.
+	 *
+	 * @return the total number of rows loaded
+	 * @throws java.sql.SQLException when a table failed to load
+	 */
+	public long load() throws SQLException {
+		long start = System.nanoTime();
+		ensurePartitions();
+		List<String[]> indexes = dropSecondaryIndexes();
+		setUserTriggers(false);
+		ExecutorService executor = Executors.newFixedThreadPool(_threads);
+		Map<String, CompletableFuture<Long>> loads = new LinkedHashMap<String, CompletableFuture<Long>>();
+		long total = 0;
+		boolean loaded = false;
+		try {
+			for (final Table table : TABLES) {
+				CompletableFuture<?>[] deps = new CompletableFuture<?>[table.dependsOn.length];
+				for (int i = 0; i < deps.length; ++i)
+					deps[i] = loads.get(table.dependsOn[i]);
+				loads.put(table.name, CompletableFuture.allOf(deps).thenApplyAsync(v -> {
+					try {
+						return copy(table);
+					} catch (SQLException e) {
+						throw new CompletionException(e);
+					}
+				}, executor));
+			}//end for
+			for (CompletableFuture<Long> load : loads.values())
+				total += load.join();
+			loaded = true;
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof SQLException) throw (SQLException) e.getCause();
+			throw e;
+		} finally {
+			// a COPY in flight cannot be interrupted, so every table has to be done before the triggers and indexes come back
+			for (CompletableFuture<Long> load : loads.values()) {
+				try {
+					load.join();
+				} catch (CompletionException | CancellationException e) {
+					// reported by the join above
+				}
+			}//end for
+			executor.shutdown();
+			setUserTriggers(true);
+			recreateIndexes(indexes);
+			// the tables that did load went in without their triggers, whether or not the others failed
+			restoreDerivedState(!loaded);
+		}
+
+		for (Table table : TABLES)
+			_db.executeUpdate("ANALYZE " + table.name);
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.println(String.format("Loaded %d rows in %.2f s (%.0f rows/s)", total, seconds, total / seconds));
+		return total;
+	}//end load
+
+	//rebuilds what the disabled triggers maintain and moves the key sequences past the loaded keys
+	private void restoreDerivedState(boolean partial) throws SQLException {
+		_db.rebuildStatusCounters();
+		// after a failed load the number_of_appts of the patient file may count searches that did not load
+		if (partial) _db.reconcileAppointmentCounts();
+		for (String[] seq : SEQUENCES) {
+			if (_db.exists("SELECT 1 FROM pg_class WHERE oid = to_regclass(?)", seq[0]))
+				_db.queryForLong("SELECT setval(?::regclass, COALESCE(MAX(" + seq[2] + ") + 1, 0), false) FROM " + seq[1], seq[0]);
+		}//end for
+	}//end restoreDerivedState
+
+	//streams one CSV file into its table, in its own transaction
+	private long copy(final Table table) throws SQLException {
+		final File file = new File(_dir, table.file);
+		if (!file.exists()) {
+			System.out.println(table.name + ": " + file + " not found, skipped");
+			return 0;
+		}//end if
+		long start = System.nanoTime();
+		long rows = _db.executeTransaction(() -> _db.executeWithConnection(connection -> {
+			// the shipped files write dates as M/D/YYYY
+			_db.executeUpdate("SET LOCAL DateStyle TO 'ISO, MDY'");
+			CopyManager copy = connection.unwrap(PGConnection.class).getCopyAPI();
+			String sql = "COPY " + table.name + " (" + table.columns + ") FROM STDIN WITH (FORMAT csv)";
+			try (Reader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8), 1 << 16)) {
+				long copied = copy.copyIn(sql, in);
+				// the trigger keeping appointment_key (V008) is disabled, and the links loaded next reference it
+				if (table.name.equals("Appointment") && _db.exists("SELECT 1 FROM pg_class WHERE oid = to_regclass('appointment_key')"))
+					_db.executeUpdate("INSERT INTO appointment_key (appnt_ID) SELECT appnt_ID FROM Appointment");
+				return copied;
+			} catch (IOException e) {
+				throw new SQLException("Unable to read " + file + ": " + e.getMessage(), e);
+			}
+		}));
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.println(String.format("%s: %d rows in %.2f s (%.0f rows/s)", table.name, rows, seconds, rows / seconds));
+		return rows;
+	}//end copy
+
+	//creates the monthly Appointment partitions the rows of appointment.csv go to
+	private void ensurePartitions() throws SQLException {
+		File file = new File(_dir, "appointment.csv");
+		if (!file.exists() || !_db.getPartitions().isPartitioned()) return;
+		Set<LocalDate> months = new HashSet<LocalDate>();
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8), 1 << 16)) {
+			for (String line; (line = in.readLine()) != null; ) {
+				String[] f = line.split(",", 3);
+				if (f.length > 1 && !f[1].trim().isEmpty())
+					months.add(LocalDate.parse(f[1].trim(), DBproject.DATE_FORMAT).withDayOfMonth(1));
+			}//end for
+		} catch (IOException e) {
+			throw new SQLException("Unable to read " + file + ": " + e.getMessage(), e);
+		}
+		_db.getPartitions().ensure(months);
+	}//end ensurePartitions
+
+	//drops every index of the loaded tables that does not back a constraint
+	private List<String[]> dropSecondaryIndexes() throws SQLException {
+		StringBuilder names = new StringBuilder();
+		for (Table table : TABLES)
+			names.append(names.length() == 0 ? "'" : ", '").append(table.name.toLowerCase()).append("'");
+		final List<String[]> indexes = new ArrayList<String[]>();
+		_db.executeQueryForEach("SELECT I.indexname, I.indexdef FROM pg_indexes I "
+			+ "WHERE I.schemaname = current_schema() AND I.tablename IN (" + names + ") "
+			+ "AND NOT EXISTS (SELECT 1 FROM pg_constraint C WHERE C.conname = I.indexname AND C.contype IN ('p', 'u', 'x'))",
+			new DBproject.RowHandler() {
+				public void handle(Row row) throws SQLException {
+					indexes.add(new String[] { row.getString(1), row.getString(2) });
+				}
+			});
+		for (String[] index : indexes)
+			_db.executeUpdate("DROP INDEX " + index[0]);
+		return indexes;
+	}//end dropSecondaryIndexes
+
+	private void recreateIndexes(List<String[]> indexes) throws SQLException {
+		for (String[] index : indexes) {
+			long start = System.nanoTime();
+			// an index of the partitioned Appointment is listed as ON ONLY, which would leave it invalid
+			_db.executeUpdate(index[1].replace(" ON ONLY ", " ON "));
+			System.out.println(String.format("Rebuilt index %s in %.2f s", index[0], (System.nanoTime() - start) / 1e9));
+		}//end for
+	}//end recreateIndexes
+
+	private void setUserTriggers(boolean enabled) throws SQLException {
+		for (Table table : TABLES)
+			_db.executeUpdate("ALTER TABLE " + table.name + (enabled ? " ENABLE" : " DISABLE") + " TRIGGER USER");
+	}//end setUserTriggers
+}//end BulkLoader
@@ -0,0 +1,465 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class defines a bounded pool of physical connections to one
+ * database.  Every pooled connection carries its own statement cache.
+ * Idle connections above the minimum are closed after idleTimeoutMs,
+ * connections idle for longer than validationIdleMs are validated before
+ * they are handed out, and connections held for longer than
+ * leakThresholdMs are reported together with the code that borrowed them.
+ *
+ */
+
+public class ConnectionPool {
+	//SQLState of the error thrown when no connection became free in time
+	public static final String POOL_EXHAUSTED = "08004";
+
+	/**
+	 * A physical connection owned by the pool, together with its
+	 * statement cache and bookkeeping.
+	 */
+	public static class PooledConnection {
+		final Connection connection;
+		final StatementCache statements;
+		long lastUsed;
+		long borrowedAt;
+		Throwable borrowSite;
+		boolean leakReported;
+
+		PooledConnection(Connection connection, StatementCache statements) {
+			this.connection = connection;
+			this.statements = statements;
+			this.lastUsed = System.currentTimeMillis();
+		}
+
+		public Connection getConnection() { return connection; }
+		public StatementCache getStatements() { return statements; }
+	}//end PooledConnection
+
+	private final String _url;
+	private final Properties _properties;
+	private final int _minSize;
+	private final int _maxSize;
+	private final long _idleTimeoutMs;
+	private final long _validationIdleMs;
+	private final long _leakThresholdMs;
+	private final long _borrowTimeoutMs;
+	private final int _statementCacheSize;
+	private final int _prepareThreshold;
+
+	private final ReentrantLock _lock = new ReentrantLock();
+	private final Condition _available = _lock.newCondition();
+	//most recently returned connection first, so its statement cache stays warm
+	private final ArrayDeque<PooledConnection> _idle = new ArrayDeque<PooledConnection>();
+	private final Set<PooledConnection> _active = new HashSet<PooledConnection>();
+	//open connections plus connections being opened
+	private int _total = 0;
+	private boolean _closed = false;
+	private final Thread _housekeeper;
+
+	//statistics
+	private long _borrows = 0;
+	private long _waits = 0;
+	private long _timeouts = 0;
+	private long _totalWaitNanos = 0;
+	private long _maxWaitNanos = 0;
+	private long _created = 0;
+	private long _evicted = 0;
+	private long _invalid = 0;
+	private long _leaks = 0;
+	private int _peakActive = 0;
+	private final long _startedAt = System.nanoTime();
+	private long _activeSince = System.nanoTime();
+	private double _activeNanos = 0;
+	//statement cache counters of connections that have been closed
+	private long _retiredHits = 0;
+	private long _retiredMisses = 0;
+	private long _retiredEvictions = 0;
+
+	public ConnectionPool(String url, Properties properties, int minSize, int maxSize,
+			long idleTimeoutMs, long validationIdleMs, long leakThresholdMs, long borrowTimeoutMs,
+			int statementCacheSize, int prepareThreshold) throws SQLException {
+		if (minSize < 0 || maxSize < 1 || minSize > maxSize)
+			throw new IllegalArgumentException("Invalid pool size: min " + minSize + ", max " + maxSize);
+		this._url = url;
+		this._properties = properties;
+		this._minSize = minSize;
+		this._maxSize = maxSize;
+		this._idleTimeoutMs = idleTimeoutMs;
+		this._validationIdleMs = validationIdleMs;
+		this._leakThresholdMs = leakThresholdMs;
+		this._borrowTimeoutMs = borrowTimeoutMs;
+		this._statementCacheSize = statementCacheSize;
+		this._prepareThreshold = prepareThreshold;
+
+		// open the minimum number of connections up front so a bad URL fails here
+		for (int i = 0; i < minSize; ++i) {
+			PooledConnection pc = open();
+			_lock.lock();
+			try {
+				++_total;
+				_idle.push(pc);
+			} finally {
+				_lock.unlock();
+			}
+		}//end for
+
+		_housekeeper = new Thread(new Runnable() {
+			public void run() { housekeep(); }
+		}, "connection-pool-housekeeper");
+		_housekeeper.setDaemon(true);
+		_housekeeper.start();
+	}
+
+	/**
+	 * Method to borrow a connection from the pool, waiting up to
+	 * borrowTimeoutMs for one to be returned when the pool is exhausted.
+	 *
+	 * @return a validated connection, which must be given back with release
+	 * @throws java.sql.SQLException when no connection became available in time
+	 */
+	public PooledConnection borrow() throws SQLException {
+		return borrow(_borrowTimeoutMs);
+	}
+
+	/**
+	 * Method to borrow a connection from the pool, waiting up to timeoutMs
+	 * for one to be returned when the pool is exhausted, e.g. what is left
+	 * of a request's deadline.
+	 *
+	 * @return a validated connection, which must be given back with release
+	 * @throws java.sql.SQLException when no connection became available in time
+	 */
+	public PooledConnection borrow(long timeoutMs) throws SQLException {
+		long start = System.nanoTime();
+		long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+		boolean waited = false;
+		while (true) {
+			PooledConnection pc = null;
+			boolean create = false;
+			_lock.lock();
+			try {
+				while (pc == null && !create) {
+					if (_closed) throw new SQLException("Connection pool is closed");
+					if (!_idle.isEmpty()) {
+						pc = _idle.pop();
+					} else if (_total < _maxSize) {
+						++_total;
+						create = true;
+					} else {
+						long remaining = deadline - System.nanoTime();
+						if (remaining <= 0) {
+							++_timeouts;
+							recordWait(start, true);
+							throw new SQLException("Timed out after " + timeoutMs
+								+ " ms waiting for a database connection (" + _maxSize + " in use)", POOL_EXHAUSTED);
+						}//end if
+						waited = true;
+						try {
+							_available.awaitNanos(remaining);
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+							throw new SQLException("Interrupted while waiting for a database connection");
+						}
+					}//end if
+				}//end while
+			} finally {
+				_lock.unlock();
+			}
+
+			if (create) {
+				try {
+					pc = open();
+				} catch (SQLException e) {
+					discard(null);
+					throw e;
+				}
+			} else if (!validate(pc)) {
+				discard(pc);
+				continue;
+			}//end if
+
+			_lock.lock();
+			try {
+				recordWait(start, waited);
+				++_borrows;
+				accumulateActive();
+				_active.add(pc);
+				if (_active.size() > _peakActive) _peakActive = _active.size();
+			} finally {
+				_lock.unlock();
+			}
+			pc.borrowedAt = System.currentTimeMillis();
+			pc.borrowSite = _leakThresholdMs > 0 ? new Throwable("Connection borrowed here") : null;
+			pc.leakReported = false;
+			return pc;
+		}//end while
+	}//end borrow
+
+	/**
+	 * Method to give a borrowed connection back to the pool.  Connections
+	 * that were closed or left inside a transaction are discarded.
+	 *
+	 * @param pc the connection returned by borrow
+	 */
+	public void release(PooledConnection pc) {
+		if (pc == null) return;
+		boolean reusable;
+		try {
+			reusable = !pc.connection.isClosed() && pc.connection.getAutoCommit();
+		} catch (SQLException e) {
+			reusable = false;
+		}
+		pc.lastUsed = System.currentTimeMillis();
+		pc.borrowSite = null;
+		_lock.lock();
+		try {
+			if (!_active.remove(pc)) return;
+			accumulateActive();
+			if (reusable && !_closed) {
+				_idle.push(pc);
+				_available.signal();
+				return;
+			}//end if
+		} finally {
+			_lock.unlock();
+		}
+		discard(pc);
+	}//end release
+
+	/**
+	 * Method to close every connection and stop the housekeeping thread.
+	 * Connections still borrowed are closed when they are released.
+	 */
+	public void close() {
+		List<PooledConnection> toClose = new ArrayList<PooledConnection>();
+		_lock.lock();
+		try {
+			_closed = true;
+			toClose.addAll(_idle);
+			_idle.clear();
+			_available.signalAll();
+		} finally {
+			_lock.unlock();
+		}
+		_housekeeper.interrupt();
+		for (PooledConnection pc : toClose)
+			discard(pc);
+	}//end close
+
+	/**
+	 * Method to open a connection outside the pool, for work that holds one
+	 * for the life of the process, e.g. listening for notifications.  The
+	 * caller closes it.
+	 *
+	 * @return a new connection to the pool's database
+	 * @throws java.sql.SQLException when the connection could not be opened
+	 */
+	public Connection openUnpooled() throws SQLException {
+		return DriverManager.getConnection(_url, _properties);
+	}
+
+	private PooledConnection open() throws SQLException {
+		Connection connection = DriverManager.getConnection(_url, _properties);
+		_lock.lock();
+		try {
+			++_created;
+		} finally {
+			_lock.unlock();
+		}
+		return new PooledConnection(connection, new StatementCache(connection, _statementCacheSize, _prepareThreshold));
+	}
+
+	private boolean validate(PooledConnection pc) {
+		if (System.currentTimeMillis() - pc.lastUsed < _validationIdleMs) return true;
+		try {
+			if (pc.connection.isValid(5)) return true;
+		} catch (SQLException e) {
+			// treated as invalid.
+		}
+		_lock.lock();
+		try {
+			++_invalid;
+		} finally {
+			_lock.unlock();
+		}
+		return false;
+	}
+
+	//closes pc (if any) and frees its slot in the pool
+	private void discard(PooledConnection pc) {
+		if (pc != null) {
+			pc.statements.close();
+			try {
+				pc.connection.close();
+			} catch (SQLException e) {
+				// ignored.
+			}
+		}//end if
+		_lock.lock();
+		try {
+			--_total;
+			if (pc != null) {
+				_retiredHits += pc.statements.getHits();
+				_retiredMisses += pc.statements.getMisses();
+				_retiredEvictions += pc.statements.getEvictions();
+			}//end if
+			_available.signal();
+		} finally {
+			_lock.unlock();
+		}
+	}//end discard
+
+	//evicts idle connections, reports leaks and refills the pool to its minimum
+	private void housekeep() {
+		long period = Math.max(1000, Math.min(_idleTimeoutMs, _leakThresholdMs > 0 ? _leakThresholdMs : Long.MAX_VALUE) / 2);
+		while (!Thread.currentThread().isInterrupted()) {
+			try {
+				Thread.sleep(period);
+			} catch (InterruptedException e) {
+				return;
+			}
+			long now = System.currentTimeMillis();
+			List<PooledConnection> expired = new ArrayList<PooledConnection>();
+			List<PooledConnection> leaked = new ArrayList<PooledConnection>();
+			int missing;
+			_lock.lock();
+			try {
+				if (_closed) return;
+				Iterator<PooledConnection> it = _idle.descendingIterator();
+				while (it.hasNext() && _total - expired.size() > _minSize) {
+					PooledConnection pc = it.next();
+					if (now - pc.lastUsed >= _idleTimeoutMs) {
+						it.remove();
+						expired.add(pc);
+					}//end if
+				}//end while
+				_evicted += expired.size();
+				if (_leakThresholdMs > 0) {
+					for (PooledConnection pc : _active) {
+						if (!pc.leakReported && now - pc.borrowedAt >= _leakThresholdMs) {
+							pc.leakReported = true;
+							++_leaks;
+							leaked.add(pc);
+						}//end if
+					}//end for
+				}//end if
+				missing = _minSize - (_total - expired.size());
+				_total += Math.max(0, missing);
+			} finally {
+				_lock.unlock();
+			}
+			for (PooledConnection pc : expired)
+				discard(pc);
+			for (PooledConnection pc : leaked) {
+				Throwable site = pc.borrowSite;
+				System.err.println("Warning - connection held for more than " + _leakThresholdMs + " ms, possible leak");
+				if (site != null) site.printStackTrace();
+			}//end for
+			for (int i = 0; i < missing; ++i) {
+				try {
+					PooledConnection pc = open();
+					_lock.lock();
+					try {
+						_idle.addLast(pc);
+						_available.signal();
+					} finally {
+						_lock.unlock();
+					}
+				} catch (SQLException e) {
+					discard(null);
+				}
+			}//end for
+		}//end while
+	}//end housekeep
+
+	//caller holds _lock
+	private void recordWait(long start, boolean waited) {
+		if (!waited) return;
+		long nanos = System.nanoTime() - start;
+		++_waits;
+		_totalWaitNanos += nanos;
+		if (nanos > _maxWaitNanos) _maxWaitNanos = nanos;
+	}
+
+	//caller holds _lock; integrates the number of active connections over time
+	private void accumulateActive() {
+		long now = System.nanoTime();
+		_activeNanos += (double) _active.size() * (now - _activeSince);
+		_activeSince = now;
+	}
+
+	public int getMaxSize() { return _maxSize; }
+
+	/**
+	 * Method to report how busy the pool has been, for sizing it.
+	 *
+	 * @return a summary of pool size, utilization and borrow wait times
+	 */
+	public String getStats() {
+		_lock.lock();
+		try {
+			accumulateActive();
+			double elapsed = System.nanoTime() - _startedAt;
+			double avgActive = elapsed > 0 ? _activeNanos / elapsed : 0;
+			return String.format("Connection pool: %d open (%d active, %d idle, peak %d active), min %d, max %d%n"
+				+ "  utilization %.1f%% (average %.2f active), %d borrows, %d waited, %d timed out%n"
+				+ "  wait time avg %.3f ms, max %.3f ms%n"
+				+ "  %d opened, %d evicted idle, %d failed validation, %d suspected leaks",
+				_total, _active.size(), _idle.size(), _peakActive, _minSize, _maxSize,
+				100.0 * avgActive / _maxSize, avgActive, _borrows, _waits, _timeouts,
+				_waits == 0 ? 0.0 : _totalWaitNanos / 1e6 / _waits, _maxWaitNanos / 1e6,
+				_created, _evicted, _invalid, _leaks);
+		} finally {
+			_lock.unlock();
+		}
+	}//end getStats
+
+	/**
+	 * Method to add up the statement caches of every connection the pool
+	 * has opened.
+	 *
+	 * @return hits, misses and evictions, in that order
+	 */
+	public long[] getStatementCacheTotals() {
+		_lock.lock();
+		try {
+			long[] totals = { _retiredHits, _retiredMisses, _retiredEvictions };
+			List<PooledConnection> all = new ArrayList<PooledConnection>(_idle);
+			all.addAll(_active);
+			for (PooledConnection pc : all) {
+				totals[0] += pc.statements.getHits();
+				totals[1] += pc.statements.getMisses();
+				totals[2] += pc.statements.getEvictions();
+			}//end for
+			return totals;
+		} finally {
+			_lock.unlock();
+		}
+	}//end getStatementCacheTotals
+}//end ConnectionPool
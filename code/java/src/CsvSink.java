@@ -0,0 +1,51 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * This class writes a result as CSV with a header line.  Fields holding a
+ * comma, a quote or a line break are quoted, and NULL is an empty field.
+ *
+ */
+
+public class CsvSink extends ResultSink {
+
+	public CsvSink(Writer out, boolean closeOut) {
+		super(out, closeOut);
+	}
+
+	public void begin(String[] columns) throws IOException {
+		super.begin(columns);
+		row(columns);
+		--_rows;
+	}
+
+	public void row(Object[] values) throws IOException {
+		for (int i = 0; i < values.length; ++i) {
+			if (i > 0) _out.write(',');
+			if (values[i] == null) continue;
+			String field = values[i].toString();
+			if (field.indexOf(',') < 0 && field.indexOf('"') < 0 && field.indexOf('\n') < 0 && field.indexOf('\r') < 0) {
+				_out.write(field);
+			} else {
+				_out.write('"');
+				_out.write(field.replace("\"", "\"\""));
+				_out.write('"');
+			}//end if
+		}//end for
+		_out.write("\r\n");
+		++_rows;
+	}//end row
+}//end CsvSink
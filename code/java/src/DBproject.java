@@ -11,22 +11,34 @@
  */
 
 
-import java.sql.DriverManager;
 import java.sql.Connection;
-import java.sql.Statement;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.io.File;
+import java.io.IOException;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
 import java.util.*;
 import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.Date;
-import java.text.SimpleDateFormat;
-import java.text.ParseException; 
+import java.sql.Array;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.format.ResolverStyle;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.management.JMException;
 
 /**
  * This class defines a simple embedded SQL utility class that is designed to
@@ -35,8 +47,111 @@ import java.text.ParseException;
  */
 
 public class DBproject{
-	//reference to physical database connection
-	private Connection _connection = null;
+	//number of prepared statements kept per connection
+	static final int STATEMENT_CACHE_SIZE = Integer.getInteger("dbproject.statementCacheSize", 64);
+	//executions of a statement before the driver switches to a server-side prepare
+	static final int PREPARE_THRESHOLD = Integer.getInteger("dbproject.prepareThreshold", 5);
+	//connection pool sizing, see ConnectionPool
+	static final int POOL_MIN_SIZE = Integer.getInteger("dbproject.pool.minSize", 1);
+	static final int POOL_MAX_SIZE = Integer.getInteger("dbproject.pool.maxSize", 10);
+	static final long POOL_IDLE_TIMEOUT_MS = Long.getLong("dbproject.pool.idleTimeoutMs", 600000L);
+	static final long POOL_VALIDATION_IDLE_MS = Long.getLong("dbproject.pool.validationIdleMs", 1000L);
+	static final long POOL_LEAK_THRESHOLD_MS = Long.getLong("dbproject.pool.leakThresholdMs", 60000L);
+	static final long POOL_BORROW_TIMEOUT_MS = Long.getLong("dbproject.pool.borrowTimeoutMs", 30000L);
+	//rows fetched per round trip by executeQueryForEach
+	static final int STREAM_FETCH_SIZE = Integer.getInteger("dbproject.fetchSize", 1000);
+	//records per transaction when importing a file
+	static final int IMPORT_BATCH_SIZE = Integer.getInteger("dbproject.importBatchSize", 5000);
+	//dates as written in the CSV files and typed at the prompts, e.g. 1/13/2020
+	static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("M/d/uuuu").withResolverStyle(ResolverStyle.STRICT);
+	//times of day as typed at the prompts, e.g. 8:00
+	static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("H:mm").withResolverStyle(ResolverStyle.STRICT);
+	//primary keys reserved per sequence round trip, see KeyAllocator
+	static final int ID_BLOCK_SIZE = Integer.getInteger("dbproject.idBlockSize", 50);
+	//(doctor, day) hour bitmaps cached for conflict checks, see SlotBitmapCache
+	static final int SLOT_CACHE_SIZE = Integer.getInteger("dbproject.slotCache.size", 10000);
+	static final long SLOT_CACHE_TTL_MS = Long.getLong("dbproject.slotCache.ttlMs", 60000L);
+	//doctors, departments and hospitals cached per map, see ReferenceCache, and how often its listener polls
+	static final int REFERENCE_CACHE_SIZE = Integer.getInteger("dbproject.referenceCache.size", 10000);
+	static final long REFERENCE_CACHE_TTL_MS = Long.getLong("dbproject.referenceCache.ttlMs", 600000L);
+	static final long REFERENCE_CACHE_POLL_MS = Long.getLong("dbproject.referenceCache.pollMs", 500L);
+	//appointments whose waitlist is mirrored in memory, see WaitlistQueue
+	static final int WAITLIST_CACHE_SIZE = Integer.getInteger("dbproject.waitlistCache.size", 10000);
+	static final long WAITLIST_CACHE_TTL_MS = Long.getLong("dbproject.waitlistCache.ttlMs", 60000L);
+	//statements slower than this go to the slow-query log (stderr unless a file is given), -1 for none
+	static final long SLOW_QUERY_MS = Long.getLong("dbproject.slowQueryMs", 500L);
+	static final String SLOW_QUERY_LOG = System.getProperty("dbproject.slowQueryLog");
+	//how often the metrics report is rewritten to its file, 0 for never
+	static final long METRICS_DUMP_MS = Long.getLong("dbproject.metrics.dumpMs", 0L);
+	static final String METRICS_DUMP_FILE = System.getProperty("dbproject.metrics.dumpFile", "dbproject-metrics.txt");
+	//how often the empty past months of Appointment are dropped, 0 for never, and how many days back they are kept
+	static final long ARCHIVE_INTERVAL_MS = Long.getLong("dbproject.archive.intervalMs", 0L);
+	static final int ARCHIVE_RETAIN_DAYS = Integer.getInteger("dbproject.archive.retainDays", 0);
+	//whether the archiver marks the booked appointments it passes as past (PA) first
+	static final boolean ARCHIVE_EXPIRE = Boolean.getBoolean("dbproject.archive.expire");
+	//threads running the statements of the async API, each on its own pooled connection
+	static final int ASYNC_THREADS = Integer.getInteger("dbproject.asyncThreads", POOL_MAX_SIZE);
+	//requests the HTTP service runs at once, one per pooled connection unless set, how long one may wait to start
+	//and how long it may take once started, its wait for a connection included
+	static final int HTTP_MAX_IN_FLIGHT = Integer.getInteger("dbproject.http.maxInFlight", POOL_MAX_SIZE);
+	static final long HTTP_QUEUE_WAIT_MS = Long.getLong("dbproject.http.queueWaitMs", 1000L);
+	static final long HTTP_REQUEST_TIMEOUT_MS = Long.getLong("dbproject.http.requestTimeoutMs", 5000L);
+	//rows per page of the appointment listings unless asked otherwise, and the most a page may hold
+	static final int LIST_PAGE_SIZE = Integer.getInteger("dbproject.list.pageSize", 50);
+	static final int LIST_MAX_PAGE_SIZE = Integer.getInteger("dbproject.list.maxPageSize", 1000);
+
+	//the main query of each menu option, the plans of which QueryPlanCheck verifies
+	static final String SQL_DOCTOR_DUPLICATE = "SELECT 1 FROM Doctor WHERE name = ? AND specialty = ?";
+	static final String SQL_PATIENT_DUPLICATE = "SELECT 1 FROM Patient WHERE name = ? AND gtype = ? AND age = ? AND address = ?";
+	static final String SQL_SLOT_OVERLAP = "SELECT 1 FROM has_appointment H, Appointment A WHERE H.doctor_id = ? "
+		+ "AND H.appt_id = A.appnt_ID AND A.adate = ? AND A.slot && tsrange(?::timestamp, ?::timestamp)";
+	static final String SQL_PATIENT_BY_NAME = "SELECT 1 FROM Patient WHERE name = ?";
+	//options 5 and 6 list a page at a time, after the (adate, appnt_ID) of the last row of the page before
+	static final String SQL_APPOINTMENTS_OF_DOCTOR = "SELECT A.adate, A.appnt_ID, A.status FROM Appointment A, has_appointment H "
+		+ "WHERE H.doctor_id = ? AND A.adate >= ? AND A.adate <= ? AND H.appt_id = A.appnt_ID "
+		+ "AND A.status IN ('AC', 'AV') AND (A.adate, A.appnt_ID) > (?, ?) ORDER BY A.adate, A.appnt_ID LIMIT ?";
+	//the department's doctors come from the reference cache, as an int[] literal
+	static final String SQL_AVAILABLE_OF_DEPARTMENT = "SELECT A.adate, A.appnt_ID FROM has_appointment H, Appointment A "
+		+ "WHERE H.doctor_id = ANY (?::int[]) AND H.appt_id = A.appnt_ID "
+		+ "AND A.adate = ? AND A.status = 'AV' AND (A.adate, A.appnt_ID) > (?, ?) ORDER BY A.adate, A.appnt_ID LIMIT ?";
+	static final String SQL_STATUS_PER_DOCTOR = "SELECT D.doctor_ID, D.name, COUNT(A.appnt_ID) AS total, "
+		+ "COUNT(*) FILTER (WHERE A.status = 'AV') AS av, "
+		+ "COUNT(*) FILTER (WHERE A.status = 'AC') AS ac, "
+		+ "COUNT(*) FILTER (WHERE A.status = 'WL') AS wl, "
+		+ "COUNT(*) FILTER (WHERE A.status = 'PA') AS pa "
+		+ "FROM Doctor D LEFT JOIN has_appointment H ON H.doctor_id = D.doctor_ID "
+		+ "LEFT JOIN Appointment A ON A.appnt_ID = H.appt_id "
+		+ "GROUP BY D.doctor_ID, D.name ORDER BY total DESC, D.doctor_ID";
+	static final String SQL_PATIENTS_WITH_STATUS = "SELECT D.doctor_ID, D.name, COALESCE(C.cnt, 0) AS patients FROM Doctor D "
+		+ "LEFT JOIN doctor_status_count C ON C.status = ? AND C.doctor_id = D.doctor_ID ORDER BY D.doctor_ID";
+	//the batch inserts of the appointment import
+	static final String SQL_INSERT_APPOINTMENT = "INSERT INTO Appointment (appnt_ID, adate, time_slot, status) VALUES (?, ?, ?, 'AV')";
+	static final String SQL_INSERT_HAS_APPOINTMENT = "INSERT INTO has_appointment (appt_id, doctor_id) VALUES (?, ?)";
+
+	//pool of physical database connections shared by every session
+	private ConnectionPool _pool = null;
+	//connection pinned to the current thread, if any, e.g. for a transaction
+	private final ThreadLocal<ConnectionPool.PooledConnection> _pinned = new ThreadLocal<ConnectionPool.PooledConnection>();
+	//primary key allocators backed by the *_id_seq sequences
+	private final KeyAllocator _doctorIds = new KeyAllocator(this, "doctor_id_seq", "Doctor", "doctor_ID", ID_BLOCK_SIZE);
+	private final KeyAllocator _patientIds = new KeyAllocator(this, "patient_id_seq", "Patient", "patient_ID", ID_BLOCK_SIZE);
+	private final KeyAllocator _appointmentIds = new KeyAllocator(this, "appointment_id_seq", "Appointment", "appnt_ID", ID_BLOCK_SIZE);
+	//hours taken per doctor and day
+	private final SlotBitmapCache _slots = new SlotBitmapCache(this, SLOT_CACHE_SIZE, SLOT_CACHE_TTL_MS);
+	//doctors, departments and hospitals
+	private final ReferenceCache _references = new ReferenceCache(this, REFERENCE_CACHE_SIZE, REFERENCE_CACHE_TTL_MS);
+	//patients waiting per appointment
+	private final WaitlistQueue _waitlist = new WaitlistQueue(this, WAITLIST_CACHE_SIZE, WAITLIST_CACHE_TTL_MS);
+	//monthly and archive partitions of Appointment
+	private final AppointmentPartitions _partitions = new AppointmentPartitions(this);
+	//latency, rows and errors per statement template and per operation
+	private final Metrics _metrics = new Metrics(SLOW_QUERY_MS, slowQueryLog());
+	//runs the work handed to async
+	private final ExecutorService _async = Executors.newFixedThreadPool(ASYNC_THREADS, work -> {
+		Thread t = new Thread(work, "dbproject-async");
+		t.setDaemon(true);
+		return t;
+	});
 	static BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
 	
 	public DBproject(String dbname, String dbport, String user, String passwd) throws SQLException {
@@ -46,8 +161,15 @@ public class DBproject{
 			String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
 			System.out.println ("Connection URL: " + url + "\n");
 			
-			// obtain a physical connection
-	        this._connection = DriverManager.getConnection(url, user, passwd);
+			// open the pool of physical connections
+			Properties props = new Properties();
+			props.setProperty("user", user);
+			props.setProperty("password", passwd);
+			// lets the driver send a batch of inserts as multi-row INSERTs
+			props.setProperty("reWriteBatchedInserts", "true");
+	        this._pool = new ConnectionPool(url, props, POOL_MIN_SIZE, POOL_MAX_SIZE,
+	        	POOL_IDLE_TIMEOUT_MS, POOL_VALIDATION_IDLE_MS, POOL_LEAK_THRESHOLD_MS, POOL_BORROW_TIMEOUT_MS,
+	        	STATEMENT_CACHE_SIZE, PREPARE_THRESHOLD);
 	        System.out.println("Done");
 		}catch(Exception e){
 			System.err.println("Error - Unable to Connect to Database: " + e.getMessage());
@@ -56,93 +178,360 @@ public class DBproject{
 		}
 	}
 	
+	/**
+	 * Method to get a connection for one statement: the connection pinned
+	 * to this thread if there is one, otherwise one borrowed from the pool.
+	 * 
+	 * @return the connection, to be handed back with release
+	 * @throws java.sql.SQLException when no connection is available
+	 */
+	private ConnectionPool.PooledConnection acquire () throws SQLException {
+		ConnectionPool.PooledConnection conn = this._pinned.get ();
+		return conn != null ? conn : this._pool.borrow ();
+	}//end acquire
+
+	private void release (ConnectionPool.PooledConnection conn) {
+		if (conn != this._pinned.get ())
+			this._pool.release (conn);
+	}//end release
+
+	/**
+	 * Interface for a unit of work that runs inside a transaction.
+	 */
+	public interface Work<T> {
+		T run () throws SQLException;
+	}
+
+	/**
+	 * Method to run a unit of work as one transaction.  A connection is
+	 * pinned to the calling thread for the duration, so every statement
+	 * the work issues through this object runs in the same transaction.
+	 * The transaction commits when the work returns and rolls back when
+	 * it throws.  Nested calls join the outer transaction.
+	 * 
+	 * @param work the statements to run
+	 * @return whatever the work returns
+	 * @throws java.sql.SQLException when the work or the commit failed
+	 */
+	public <T> T executeTransaction (Work<T> work) throws SQLException {
+		return executeTransaction (work, POOL_BORROW_TIMEOUT_MS);
+	}//end executeTransaction
+
+	/**
+	 * Method to run a unit of work as one transaction, waiting at most
+	 * borrowTimeoutMs for a connection when the pool is exhausted.
+	 * 
+	 * @param work the statements to run
+	 * @param borrowTimeoutMs how long to wait for a connection
+	 * @return whatever the work returns
+	 * @throws java.sql.SQLException when no connection was free in time, or the work or the commit failed
+	 */
+	public <T> T executeTransaction (Work<T> work, long borrowTimeoutMs) throws SQLException {
+		if (this._pinned.get () != null)
+			return work.run ();
+		ConnectionPool.PooledConnection conn = this._pool.borrow (borrowTimeoutMs);
+		Connection c = conn.getConnection ();
+		this._pinned.set (conn);
+		try {
+			c.setAutoCommit (false);
+			T result = work.run ();
+			c.commit ();
+			return result;
+		} catch (SQLException | RuntimeException e) {
+			try {
+				c.rollback ();
+			} catch (SQLException r) {
+				// the original error is more useful.
+			}
+			throw e;
+		} finally {
+			try {
+				c.setAutoCommit (true);
+			} catch (SQLException e) {
+				// the pool discards connections left in a transaction.
+			}
+			this._pinned.remove ();
+			this._pool.release (conn);
+		}
+	}//end executeTransaction
+
+	/**
+	 * Interface for work that needs the JDBC connection itself, e.g. to
+	 * use driver extensions such as the COPY API.
+	 */
+	public interface ConnectionWork<T> {
+		T run (Connection connection) throws SQLException;
+	}
+
+	/**
+	 * Method to run work against a raw connection: the connection pinned
+	 * to this thread if there is one, otherwise one borrowed for the call.
+	 * The work must not close the connection or leave it in a transaction.
+	 * 
+	 * @param work the work to run
+	 * @return whatever the work returns
+	 * @throws java.sql.SQLException when the work failed
+	 */
+	public <T> T executeWithConnection (ConnectionWork<T> work) throws SQLException {
+		ConnectionPool.PooledConnection conn = acquire ();
+		try {
+			return work.run (conn.getConnection ());
+		} finally {
+			release (conn);
+		}
+	}//end executeWithConnection
+
+	/**
+	 * Method to fetch the cached prepared statement for a SQL template and
+	 * bind its parameters in order.
+	 * 
+	 * @param conn the connection to prepare the statement on
+	 * @param sql the SQL template, with '?' for every parameter
+	 * @param params the parameter values
+	 * @return the bound statement, owned by the statement cache
+	 * @throws java.sql.SQLException when the statement could not be prepared
+	 */
+	private static PreparedStatement prepare (ConnectionPool.PooledConnection conn, String sql, Object... params) throws SQLException {
+		PreparedStatement stmt = conn.getStatements ().prepare (sql);
+		for (int i = 0; i < params.length; ++i)
+			stmt.setObject (i + 1, params[i]);
+		return stmt;
+	}//end prepare
+
 	/**
 	 * Method to execute an update SQL statement.  Update SQL instructions
 	 * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
 	 * 
-	 * @param sql the input SQL string
+	 * @param sql the input SQL string, with '?' for every parameter
+	 * @param params the parameter values
+	 * @return the number of rows affected
 	 * @throws java.sql.SQLException when update failed
 	 * */
-	public void executeUpdate (String sql) throws SQLException { 
-		// creates a statement object
-		Statement stmt = this._connection.createStatement ();
-
-		// issues the update instruction
-		stmt.executeUpdate (sql);
-
-		// close the instruction
-	    stmt.close ();
+	public int executeUpdate (String sql, Object... params) throws SQLException { 
+		ConnectionPool.PooledConnection conn = acquire ();
+		long start = System.nanoTime ();
+		int rows = -1;
+		try {
+			// issues the update instruction through the cached statement
+			rows = prepare (conn, sql, params).executeUpdate ();
+			return rows;
+		} finally {
+			measured (sql, params, start, rows, Metrics.NOT_MEASURED, rows < 0);
+			release (conn);
+		}
 	}//end executeUpdate
 
 	/**
 	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
 	 * method issues the query to the DBMS and outputs the results to
-	 * standard out.
+	 * standard out as an aligned table.
 	 * 
-	 * @param query the input query string
+	 * @param query the input query string, with '?' for every parameter
+	 * @param params the parameter values
 	 * @return the number of rows returned
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public int executeQueryAndPrintResult (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
-
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
+	public int executeQueryAndPrintResult (String query, Object... params) throws SQLException {
+		ResultSink sink = ResultSink.toScreen ();
+		try {
+			return executeQueryToSink (query, sink, params);
+		} finally {
+			try {
+				sink.close ();
+			} catch (IOException e) {
+				// standard out is not closed, only flushed.
+			}
+		}
+	}
 
-		/*
-		 *  obtains the metadata object for the returned result set.  The metadata
-		 *  contains row and column info.
-		 */
-		ResultSetMetaData rsmd = rs.getMetaData ();
-		int numCol = rsmd.getColumnCount ();
-		int rowCount = 0;
-		
-		//iterates through the result set and output them to standard out.
-		boolean outputHeader = true;
-		while (rs.next()){
-			if(outputHeader){
-				for(int i = 1; i <= numCol; i++){
-					System.out.print(rsmd.getColumnName(i) + "\t");
-			    }
-			    System.out.println();
-			    outputHeader = false;
+	/**
+	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
+	 * method streams the result to a sink: the column names once, then
+	 * every row as it arrives.  The sink is ended but not closed.
+	 * 
+	 * @param query the input query string, with '?' for every parameter
+	 * @param sink where the result goes
+	 * @param params the parameter values
+	 * @return the number of rows returned
+	 * @throws java.sql.SQLException when failed to execute the query or write the result
+	 */
+	public int executeQueryToSink (String query, final ResultSink sink, Object... params) throws SQLException {
+		final Object[][] values = new Object[1][];
+		int rowCount = executeQueryForEach (query, row -> {
+			try {
+				if (values[0] == null) {
+					sink.begin (row.getColumnNames ());
+					values[0] = new Object[row.getColumnCount ()];
+				}//end if
+				for (int i = 0; i < values[0].length; ++i)
+					values[0][i] = row.getValue (i + 1);
+				sink.row (values[0]);
+			} catch (IOException e) {
+				throw new SQLException ("Unable to write the result: " + e.getMessage (), e);
 			}
-			for (int i=1; i<=numCol; ++i)
-				System.out.print (rs.getString (i) + "\t");
-			System.out.println ();
-			++rowCount;
-		}//end while
-		stmt.close ();
+		}, params);
+		try {
+			// an empty result still gets its header
+			if (values[0] == null) sink.begin (columnNames (query, params));
+			sink.end ();
+		} catch (IOException e) {
+			throw new SQLException ("Unable to write the result: " + e.getMessage (), e);
+		}
 		return rowCount;
+	}//end executeQueryToSink
+
+	/**
+	 * Method to write one page of a listing to a sink.  The rows must come
+	 * ordered by their first two columns, a date and an ID, and the query
+	 * must end in LIMIT ?, which is bound to one row more than the page so
+	 * as to know whether another page follows; that row is not written.
+	 * A sink that has already begun a result takes the page as more rows
+	 * of it, so the pages of a listing can go to one sink.  The sink is
+	 * ended but not closed.
+	 * 
+	 * @param query the input query string, with '?' for every parameter but the limit
+	 * @param sink where the page goes
+	 * @param pageSize the number of rows of a page
+	 * @param params the parameter values
+	 * @return the key of the last row written, or null if no page follows
+	 * @throws java.sql.SQLException when failed to execute the query or write the page
+	 */
+	public PageCursor executePageToSink (String query, final ResultSink sink, final int pageSize, Object... params) throws SQLException {
+		final Object[] bound = Arrays.copyOf (params, params.length + 1);
+		bound[params.length] = pageSize + 1;
+		final Object[][] values = new Object[1][];
+		final PageCursor[] last = new PageCursor[1];
+		final boolean[] more = { false };
+		final int[] written = { 0 };
+		executeQueryForEach (query, row -> {
+			if (written[0] == pageSize) {
+				more[0] = true;
+				return;
+			}//end if
+			try {
+				if (values[0] == null) {
+					if (sink.getColumns () == null) sink.begin (row.getColumnNames ());
+					values[0] = new Object[row.getColumnCount ()];
+				}//end if
+				for (int i = 0; i < values[0].length; ++i)
+					values[0][i] = row.getValue (i + 1);
+				sink.row (values[0]);
+			} catch (IOException e) {
+				throw new SQLException ("Unable to write the result: " + e.getMessage (), e);
+			}
+			last[0] = new PageCursor (row.getDate (1), row.getInt (2));
+			++written[0];
+		}, bound);
+		try {
+			if (sink.getColumns () == null) sink.begin (columnNames (query, bound));
+			sink.end ();
+		} catch (IOException e) {
+			throw new SQLException ("Unable to write the result: " + e.getMessage (), e);
+		}
+		return more[0] ? last[0] : null;
+	}//end executePageToSink
+
+	//column names of a query, from the statement metadata, without running it
+	private String[] columnNames (String query, Object... params) throws SQLException {
+		ConnectionPool.PooledConnection conn = acquire ();
+		try {
+			ResultSetMetaData rsmd = prepare (conn, query, params).getMetaData ();
+			String[] names = new String[rsmd.getColumnCount ()];
+			for (int i = 0; i < names.length; ++i)
+				names[i] = rsmd.getColumnName (i + 1);
+			return names;
+		} finally {
+			release (conn);
+		}
+	}//end columnNames
+
+	/**
+	 * Interface for handling the rows of a query one at a time, as they are
+	 * read from the DBMS.
+	 */
+	public interface RowHandler {
+		void handle (Row row) throws SQLException;
 	}
-	
+
+	/**
+	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
+	 * method issues the query to the DBMS through a server-side cursor and
+	 * passes every row to the handler without keeping any of them, so
+	 * memory use does not depend on the size of the result.  Rows are
+	 * fetched STREAM_FETCH_SIZE at a time.  Cursors only exist inside a
+	 * transaction, so the query joins the current one or runs in its own.
+	 * 
+	 * @param query the input query string, with '?' for every parameter
+	 * @param handler called once per row
+	 * @param params the parameter values
+	 * @return the number of rows returned
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int executeQueryForEach (final String query, final RowHandler handler, final Object... params) throws SQLException {
+		if (this._pinned.get () == null)
+			return executeTransaction (() -> executeQueryForEach (query, handler, params));
+
+		ConnectionPool.PooledConnection conn = acquire ();
+		long start = System.nanoTime ();
+		int rowCount = 0;
+		boolean failed = true;
+		try {
+			PreparedStatement stmt = prepare (conn, query, params);
+			stmt.setFetchSize (STREAM_FETCH_SIZE);
+			ResultSet rs = stmt.executeQuery ();
+			try {
+				Row row = new Row (rs);
+				while (rs.next()){
+					handler.handle (row);
+					++rowCount;
+				}//end while
+			} finally {
+				rs.close ();
+			}
+			failed = false;
+			return rowCount;
+		} finally {
+			// the time includes the handler's, as rows are fetched while it runs
+			measured (query, params, start, rowCount, Metrics.NOT_MEASURED, failed);
+		}
+	}//end executeQueryForEach
+
 	/**
 	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
 	 * method issues the query to the DBMS and returns the results as
-	 * a list of records. Each record in turn is a list of attribute values
+	 * a list of records. Each record in turn is a list of attribute values.
+	 * The whole result is held in memory, so this is meant for results of a
+	 * few rows; use executeQueryForEach for anything that can grow.
 	 * 
-	 * @param query the input query string
+	 * @param query the input query string, with '?' for every parameter
+	 * @param params the parameter values
 	 * @return the query result as a list of records
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException { 
-		//creates a statement object 
-		Statement stmt = this._connection.createStatement (); 
-		
-		//issues the query instruction 
-		ResultSet rs = stmt.executeQuery (query); 
-	 
+	public List<List<String>> executeQueryAndReturnResult (String query, Object... params) throws SQLException { 
+		ConnectionPool.PooledConnection conn = acquire ();
+		long start = System.nanoTime ();
+		List<List<String>> result = null;
+		try {
+			//issues the query instruction 
+			result = records (prepare (conn, query, params).executeQuery ()); 
+			return result;
+		} finally {
+			measured (query, params, start, result == null ? 0 : result.size (), textBytes (result), result == null);
+			release (conn);
+		}
+	}//end executeQueryAndReturnResult
+
+	//reads and closes a result set
+	private static List<List<String>> records (ResultSet rs) throws SQLException {
 		/*
 		 * obtains the metadata object for the returned result set.  The metadata 
 		 * contains row and column info. 
 		*/ 
 		ResultSetMetaData rsmd = rs.getMetaData (); 
 		int numCol = rsmd.getColumnCount (); 
-		int rowCount = 0; 
 	 
 		//iterates through the result set and saves the data returned by the query. 
-		boolean outputHeader = false;
 		List<List<String>> result  = new ArrayList<List<String>>(); 
 		while (rs.next()){
 			List<String> record = new ArrayList<String>(); 
@@ -150,33 +539,236 @@ public class DBproject{
 				record.add(rs.getString (i)); 
 			result.add(record); 
 		}//end while 
-		stmt.close (); 
+		rs.close (); 
 		return result; 
-	}//end executeQueryAndReturnResult
+	}//end records
+
+	//characters of the values of a result, as an estimate of the bytes sent back
+	private static long textBytes (List<List<String>> result) {
+		long bytes = 0;
+		if (result != null)
+			for (List<String> record : result)
+				for (String value : record)
+					if (value != null) bytes += value.length ();
+		return bytes;
+	}//end textBytes
+
+	//records one statement with its rows and bytes, the bytes as Metrics.NOT_MEASURED where no result is read as text
+	private void measured (String sql, Object[] params, long start, long rows, long bytes, boolean failed) {
+		_metrics.statement (sql, params, System.nanoTime () - start, rows, bytes, failed);
+	}
+
+	/**
+	 * A query and its parameter values, for the methods that take several
+	 * queries at once.
+	 */
+	public static final class Query {
+		final String sql;
+		final Object[] params;
+
+		private Query (String sql, Object[] params) {
+			this.sql = sql;
+			this.params = params;
+		}
+
+		public static Query of (String sql, Object... params) {
+			return new Query (sql, params);
+		}
+	}//end Query
+
+	/**
+	 * Method to run several independent queries in one round trip.  The
+	 * queries go to the DBMS as a single multi-statement request on one
+	 * connection, which the driver sends as one pipeline of parse, bind
+	 * and execute messages, and the results are read back in order.  The
+	 * queries must not contain a ';' of their own.
+	 * 
+	 * @param queries the queries, each with '?' for every parameter
+	 * @return the result of every query, in order, as executeQueryAndReturnResult returns it
+	 * @throws java.sql.SQLException when any of the queries failed
+	 */
+	public List<List<List<String>>> executeQueries (Query... queries) throws SQLException {
+		StringBuilder sql = new StringBuilder ();
+		List<Object> params = new ArrayList<Object> ();
+		for (Query q : queries) {
+			if (sql.length () > 0) sql.append ("; ");
+			sql.append (q.sql);
+			params.addAll (Arrays.asList (q.params));
+		}//end for
+		ConnectionPool.PooledConnection conn = acquire ();
+		long start = System.nanoTime ();
+		List<List<List<String>>> results = new ArrayList<List<List<String>>> ();
+		boolean failed = true;
+		try {
+			PreparedStatement stmt = prepare (conn, sql.toString (), params.toArray ());
+			boolean isResult = stmt.execute ();
+			while (results.size () < queries.length) {
+				if (isResult) results.add (records (stmt.getResultSet ()));
+				else if (stmt.getUpdateCount () == -1) break;
+				isResult = stmt.getMoreResults ();
+			}//end while
+			failed = false;
+			return results;
+		} finally {
+			long rows = 0, bytes = 0;
+			for (List<List<String>> result : results) {
+				rows += result.size ();
+				bytes += textBytes (result);
+			}//end for
+			measured (sql.toString (), params.toArray (), start, rows, bytes, failed);
+			release (conn);
+		}
+	}//end executeQueries
+
+	/**
+	 * Method to run several existence checks in one round trip, see
+	 * executeQueries.
+	 * 
+	 * @param queries the queries to check
+	 * @return for every query, in order, whether it returns any row
+	 * @throws java.sql.SQLException when any of the checks failed
+	 */
+	public boolean[] existsAll (Query... queries) throws SQLException {
+		Query[] checks = new Query[queries.length];
+		for (int i = 0; i < queries.length; ++i)
+			checks[i] = Query.of (existsQuery (queries[i].sql), queries[i].params);
+		List<List<List<String>>> results = executeQueries (checks);
+		boolean[] found = new boolean[queries.length];
+		for (int i = 0; i < found.length; ++i)
+			found[i] = !results.get (i).get (0).get (0).equals ("0");
+		return found;
+	}//end existsAll
+
+	/**
+	 * Method to run work on another thread, and so on another pooled
+	 * connection, so that independent statements run at the same time.
+	 * The work runs outside any transaction of the calling thread; each of
+	 * its statements commits on its own unless the work opens a transaction.
+	 * 
+	 * @param work the statements to run
+	 * @return the result of the work, completed exceptionally when it throws
+	 */
+	public <T> CompletableFuture<T> async (final Work<T> work) {
+		final CompletableFuture<T> result = new CompletableFuture<T> ();
+		_async.execute (() -> {
+			try {
+				result.complete (work.run ());
+			} catch (Throwable e) {
+				result.completeExceptionally (e);
+			}
+		});
+		return result;
+	}//end async
+
+	public CompletableFuture<Boolean> existsAsync (final String query, final Object... params) {
+		return async (() -> exists (query, params));
+	}
+
+	public CompletableFuture<Long> countAsync (final String query, final Object... params) {
+		return async (() -> count (query, params));
+	}
+
+	public CompletableFuture<List<List<String>>> queryAsync (final String query, final Object... params) {
+		return async (() -> executeQueryAndReturnResult (query, params));
+	}
+
+	/**
+	 * Method to wait for every future of a fan-out.  All of them are
+	 * waited for even if one fails, so no work is left running.
+	 * 
+	 * @param futures the results to wait for
+	 * @return the results, in order
+	 * @throws java.sql.SQLException the first failure, if any work threw one
+	 */
+	public static <T> List<T> gather (List<CompletableFuture<T>> futures) throws SQLException {
+		List<T> results = new ArrayList<T> ();
+		Throwable failure = null;
+		for (CompletableFuture<T> f : futures) {
+			try {
+				results.add (f.join ());
+			} catch (CompletionException | CancellationException e) {
+				if (failure == null) failure = e.getCause () != null ? e.getCause () : e;
+				results.add (null);
+			}
+		}//end for
+		if (failure instanceof SQLException) throw (SQLException) failure;
+		if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+		if (failure instanceof Error) throw (Error) failure;
+		if (failure != null) throw new SQLException (failure);
+		return results;
+	}//end gather
 	
 	/**
 	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
-	 * method issues the query to the DBMS and returns the number of results
+	 * method issues the query to the DBMS and returns the number of results.
+	 * The rows are counted by the DBMS, none of them is sent back.
 	 * 
-	 * @param query the input query string
+	 * @param query the input query string, with '?' for every parameter
+	 * @param params the parameter values
 	 * @return the number of rows returned
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public int executeQuery (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
+	public int executeQuery (String query, Object... params) throws SQLException {
+		return (int) count (query, params);
+	}
 
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
+	/**
+	 * Method to check whether a query returns any row.  The check runs as
+	 * SELECT EXISTS (query) so the DBMS stops at the first matching row
+	 * and only a single boolean is sent back.
+	 * 
+	 * @param query the input query string, with '?' for every parameter
+	 * @param params the parameter values
+	 * @return true if the query returns at least one row
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public boolean exists (String query, Object... params) throws SQLException {
+		return queryForLong (existsQuery (query), params) != 0;
+	}
 
-		int rowCount = 0;
+	static String existsQuery (String query) {
+		return "SELECT (EXISTS (" + query + "))::int";
+	}
 
-		//iterates through the result set and count nuber of results.
-		while(rs.next()){
-			rowCount++;
-		}//end while
-		stmt.close ();
-		return rowCount;
+	/**
+	 * Method to count the rows of a query on the DBMS.  The query runs as
+	 * SELECT COUNT(*) FROM (query) so only the count is sent back.
+	 * 
+	 * @param query the input query string, with '?' for every parameter
+	 * @param params the parameter values
+	 * @return the number of rows the query returns
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public long count (String query, Object... params) throws SQLException {
+		return queryForLong ("SELECT COUNT(*) FROM (" + query + ") AS counted", params);
+	}
+
+	/**
+	 * Method to execute a query returning a single number, such as a
+	 * COUNT(*) or a sequence value.
+	 * 
+	 * @param query the input query string, with '?' for every parameter
+	 * @param params the parameter values
+	 * @return the first column of the first row, or 0 if there is no row
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public long queryForLong (String query, Object... params) throws SQLException {
+		ConnectionPool.PooledConnection conn = acquire ();
+		long start = System.nanoTime ();
+		boolean failed = true;
+		try {
+			ResultSet rs = prepare (conn, query, params).executeQuery ();
+			try {
+				long value = rs.next() ? rs.getLong(1) : 0;
+				failed = false;
+				return value;
+			} finally {
+				rs.close ();
+			}
+		} finally {
+			measured (query, params, start, 1, 8, failed);
+			release (conn);
+		}
 	}
 	
 	/**
@@ -190,24 +782,624 @@ public class DBproject{
 	 */
 	
 	public int getCurrSeqVal(String sequence) throws SQLException {
-		Statement stmt = this._connection.createStatement ();
-		
-		ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-		if (rs.next()) return rs.getInt(1);
-		return -1;
+		ConnectionPool.PooledConnection conn = acquire ();
+		try {
+			ResultSet rs = prepare (conn, "SELECT currval(?::regclass)", sequence).executeQuery ();
+			try {
+				if (rs.next()) return rs.getInt(1);
+				return -1;
+			} finally {
+				rs.close ();
+			}
+		} finally {
+			release (conn);
+		}
+	}
+
+	/**
+	 * Method to advance a sequence. This method issues the query to the
+	 * DBMS and returns the next value of the sequence.
+	 * 
+	 * @param sequence name of the DB sequence
+	 * @return next value of the sequence
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public long getNextSeqVal(String sequence) throws SQLException {
+		return queryForLong ("SELECT nextval(?::regclass)", sequence);
+	}
+
+	public KeyAllocator getDoctorIds() { return _doctorIds; }
+	public KeyAllocator getPatientIds() { return _patientIds; }
+	public KeyAllocator getAppointmentIds() { return _appointmentIds; }
+	public SlotBitmapCache getSlots() { return _slots; }
+	public WaitlistQueue getWaitlist() { return _waitlist; }
+	public ReferenceCache getReferences() { return _references; }
+	public Metrics getMetrics() { return _metrics; }
+	public AppointmentPartitions getPartitions() { return _partitions; }
+
+	/**
+	 * @return whether the calling thread is inside executeTransaction
+	 */
+	public boolean inTransaction () {
+		return this._pinned.get () != null;
+	}
+
+	/**
+	 * Method to publish the metrics over JMX and, if METRICS_DUMP_MS is
+	 * set, to a file rewritten that often.
+	 */
+	public void startMetrics () {
+		try {
+			_metrics.register ();
+		} catch (JMException e) {
+			System.err.println ("Metrics not registered with JMX: " + e.getMessage ());
+		}
+		if (METRICS_DUMP_MS > 0) _metrics.dumpEvery (new File (METRICS_DUMP_FILE), METRICS_DUMP_MS);
+	}//end startMetrics
+
+	private static PrintStream slowQueryLog () {
+		if (SLOW_QUERY_LOG == null) return System.err;
+		try {
+			return new PrintStream (new FileOutputStream (SLOW_QUERY_LOG, true), true, "UTF-8");
+		} catch (IOException e) {
+			System.err.println ("Unable to open " + SLOW_QUERY_LOG + ", slow statements go to stderr: " + e.getMessage ());
+			return System.err;
+		}
+	}//end slowQueryLog
+
+	/**
+	 * Method to warm the reference cache and start listening for the
+	 * changes other processes make, for long-running sessions such as the
+	 * menu and the HTTP service.  A failure only leaves the cache cold.
+	 */
+	public void startReferenceCache () {
+		try {
+			long start = System.nanoTime ();
+			int entries = _references.warm ();
+			System.out.println (String.format ("Reference cache: %d entries in %.2f s", entries, (System.nanoTime () - start) / 1e9));
+		} catch (SQLException e) {
+			System.err.println ("Reference cache not warmed: " + e.getMessage ());
+		}
+		_references.listen (_pool, REFERENCE_CACHE_POLL_MS);
+	}//end startReferenceCache
+
+	/**
+	 * Method to start archiving past appointments in the background when
+	 * dbproject.archive.intervalMs is set.
+	 */
+	public void startArchiver () {
+		if (ARCHIVE_INTERVAL_MS > 0)
+			_partitions.archiveEvery (ARCHIVE_INTERVAL_MS, ARCHIVE_RETAIN_DAYS, ARCHIVE_EXPIRE);
+	}//end startArchiver
+
+	/**
+	 * Method to add one doctor unless a doctor with the same name and
+	 * specialty exists.
+	 * 
+	 * @param name the doctor's name
+	 * @param specialty the doctor's specialty
+	 * @param did the department ID
+	 * @return the new doctor ID, or -1 if the doctor already exists
+	 * @throws java.sql.SQLException when the insert failed
+	 */
+	public int addDoctor (final String name, final String specialty, final int did) throws SQLException {
+		return _metrics.operation ("add-doctor", () -> {
+			int docId = executeTransaction (() -> {
+				if (exists (SQL_DOCTOR_DUPLICATE, name, specialty)) return -1;
+				int id = _doctorIds.next ();
+				executeUpdate ("INSERT INTO Doctor (doctor_ID, name, specialty, did) VALUES (?, ?, ?, ?)", id, name, specialty, did);
+				return id;
+			});
+			// a lookup may have cached the ID as unknown, and the department gained a doctor
+			if (docId >= 0) _references.invalidate ("Doctor", docId);
+			return docId;
+		});
+	}//end addDoctor
+
+	/**
+	 * Method to add one patient unless a patient with the same name,
+	 * gender, age and address exists.
+	 * 
+	 * @param name the patient's name
+	 * @param gender M or F
+	 * @param age the patient's age
+	 * @param address the patient's address
+	 * @return the new patient ID, or -1 if the patient already exists
+	 * @throws java.sql.SQLException when the insert failed
+	 */
+	public int addPatient (final String name, final String gender, final int age, final String address) throws SQLException {
+		return _metrics.operation ("add-patient", () -> {
+			return executeTransaction (() -> {
+				if (exists (SQL_PATIENT_DUPLICATE, name, gender, age, address)) return -1;
+				int pid = _patientIds.next ();
+				executeUpdate ("INSERT INTO Patient (patient_ID, name, gtype, age, address, number_of_appts) VALUES (?, ?, ?, ?, ?, 0)",
+					pid, name, gender, age, address);
+				return pid;
+			});
+		});
+	}//end addPatient
+
+	/**
+	 * Method to add an available appointment for a doctor.  In one
+	 * transaction the doctor row is locked, so concurrent additions for the
+	 * same doctor take turns, the doctor's appointments that day are checked
+	 * for an overlapping slot through the GiST index on Appointment.slot,
+	 * and the appointment is inserted and linked to the doctor.
+	 * 
+	 * @param docId the doctor ID
+	 * @param date the day
+	 * @param start the hour the appointment starts, 8 to 16
+	 * @param end the hour it ends, after start and at most 17
+	 * @return the new appointment ID, or -1 if the doctor does not exist or the slot overlaps one of the doctor's appointments
+	 * @throws java.sql.SQLException when the insert failed and was rolled back
+	 */
+	public int addAppointment (final int docId, final LocalDate date, final int start, final int end) throws SQLException {
+		return _metrics.operation ("add-appointment", () -> {
+			SlotBitmapCache.mask (start, end);
+			int id = _partitions.insert (Collections.singleton (date), () -> executeTransaction (() -> {
+				if (executeQueryAndReturnResult ("SELECT doctor_ID FROM Doctor WHERE doctor_ID = ? FOR NO KEY UPDATE", docId).isEmpty ())
+					return -1;
+				if (exists (SQL_SLOT_OVERLAP, docId, date, date.atTime (start, 0), date.atTime (end, 0)))
+					return -1;
+				int apptId = _appointmentIds.next ();
+				executeUpdate ("INSERT INTO Appointment (appnt_ID, adate, time_slot, status) VALUES (?, ?, ?, 'AV')",
+					apptId, date, SlotBitmapCache.timeSlot (start, end));
+				executeUpdate ("INSERT INTO has_appointment (appt_id, doctor_id) VALUES (?, ?)", apptId, docId);
+				return apptId;
+			}));
+			if (id >= 0) _slots.mark (docId, date, start, end);
+			return id;
+		});
+	}//end addAppointment
+
+	/**
+	 * Method to find the free one-hour slots of a doctor on one day.
+	 * 
+	 * @param docId the doctor ID
+	 * @param date the day
+	 * @return the start hours of the free slots
+	 * @throws java.sql.SQLException when the day could not be loaded
+	 */
+	public List<Integer> freeHours (int docId, LocalDate date) throws SQLException {
+		return _metrics.operation ("free-hours", () -> _slots.freeHours (docId, date));
+	}//end freeHours
+
+	/**
+	 * Method to book an appointment for a patient with a doctor.  The
+	 * make_appointment function locks the appointment row, provided it is
+	 * one of the doctor's, and in one transaction either books it (AV to AC),
+	 * recording the search and adding one to the patient's number of
+	 * appointments, or queues the patient on its waitlist (AC or WL to WL).
+	 * Concurrent bookings of the same appointment wait for each other.
+	 * 
+	 * @param pid the patient ID
+	 * @param docId the doctor ID
+	 * @param apptId the appointment ID
+	 * @return the new status of the appointment, or null if it does not exist, has passed or is not the doctor's
+	 * @throws java.sql.SQLException when the booking failed and was rolled back
+	 */
+	public String bookAppointment (int pid, int docId, int apptId) throws SQLException {
+		return _metrics.operation ("make-appointment", () -> {
+			String status = executeQueryAndReturnResult ("SELECT make_appointment(?, ?, ?)", pid, docId, apptId).get(0).get(0);
+			if ("WL".equals (status)) _waitlist.queued (apptId);
+			return status;
+		});
+	}//end bookAppointment
+
+	/**
+	 * Method to cancel a patient's booking of an appointment, or take the
+	 * patient off its waitlist.  The cancel_appointment function books the
+	 * first patient on the waitlist in the same transaction, so the
+	 * appointment only becomes available again when nobody waits for it.
+	 * 
+	 * @param pid the patient ID
+	 * @param apptId the appointment ID
+	 * @return the status the appointment is left in, null if the patient neither held nor waited for it, and the patient promoted
+	 * @throws java.sql.SQLException when the cancellation failed and was rolled back
+	 */
+	public WaitlistQueue.Cancellation cancelAppointment (int pid, int apptId) throws SQLException {
+		return _metrics.operation ("cancel-appointment", () -> {
+			List<String> row = executeQueryAndReturnResult ("SELECT new_status, promoted FROM cancel_appointment(?, ?)", pid, apptId).get(0);
+			return _waitlist.cancelled (apptId, pid, row.get(0), row.get(1));
+		});
+	}//end cancelAppointment
+
+	/**
+	 * @return the place of the patient on the waitlist of the appointment, 1 for the next one booked, 0 if not on it
+	 * @throws java.sql.SQLException when the lookup failed
+	 */
+	public int waitlistPosition (int pid, int apptId) throws SQLException {
+		return _metrics.operation ("waitlist-position", () -> _waitlist.position (pid, apptId));
+	}//end waitlistPosition
+
+	/**
+	 * Method to add many doctors in one transaction.  Doctors already in
+	 * the table, or repeated in the list, under the same name and
+	 * specialty are skipped.
+	 * 
+	 * @param doctors the doctors to add
+	 * @return the new doctor ID of every record, in order, or -1 for a skipped one
+	 * @throws java.sql.SQLException when the batch failed and was rolled back
+	 */
+	public int[] addDoctors (List<DoctorRecord> doctors) throws SQLException {
+		return _metrics.operation ("import-doctors", () -> {
+			List<Object[]> keys = new ArrayList<Object[]>();
+			List<Object[]> rows = new ArrayList<Object[]>();
+			for (DoctorRecord d : doctors) {
+				keys.add(new Object[] { d.name, d.specialty });
+				rows.add(new Object[] { d.name, d.specialty, d.did });
+			}//end for
+			int[] ids = insertBatch (keys, new String[] { "text", "text" },
+				"SELECT K.i FROM unnest(?::text[], ?::text[]) WITH ORDINALITY AS K(name, specialty, i) "
+				+ "WHERE EXISTS (SELECT 1 FROM Doctor D WHERE D.name = K.name AND D.specialty = K.specialty)",
+				"INSERT INTO Doctor (doctor_ID, name, specialty, did) VALUES (?, ?, ?, ?)", _doctorIds, rows);
+			for (int id : ids)
+				if (id >= 0) _references.invalidate ("Doctor", id);
+			return ids;
+		});
+	}//end addDoctors
+
+	/**
+	 * Method to add many patients in one transaction.  Patients already in
+	 * the table, or repeated in the list, with the same name, gender, age
+	 * and address are skipped.
+	 * 
+	 * @param patients the patients to add
+	 * @return the new patient ID of every record, in order, or -1 for a skipped one
+	 * @throws java.sql.SQLException when the batch failed and was rolled back
+	 */
+	public int[] addPatients (List<PatientRecord> patients) throws SQLException {
+		return _metrics.operation ("import-patients", () -> {
+			List<Object[]> keys = new ArrayList<Object[]>();
+			List<Object[]> rows = new ArrayList<Object[]>();
+			for (PatientRecord p : patients) {
+				keys.add(new Object[] { p.name, p.gender, p.age, p.address });
+				rows.add(new Object[] { p.name, p.gender, p.age, p.address });
+			}//end for
+			return insertBatch (keys, new String[] { "text", "text", "int4", "text" },
+				"SELECT K.i FROM unnest(?::text[], ?::text[], ?::int4[], ?::text[]) WITH ORDINALITY AS K(name, gtype, age, address, i) "
+				+ "WHERE EXISTS (SELECT 1 FROM Patient P WHERE P.name = K.name AND P.gtype = K.gtype AND P.age = K.age AND P.address = K.address)",
+				"INSERT INTO Patient (patient_ID, name, gtype, age, address, number_of_appts) VALUES (?, ?, ?, ?, ?, 0)", _patientIds, rows);
+		});
+	}//end addPatients
+
+	/**
+	 * Method to add many available appointments in one transaction.  The
+	 * doctors of the batch are locked in ID order; appointments of an
+	 * unknown doctor, or whose slot overlaps one of the doctor's
+	 * appointments in the table or earlier in the list, are skipped.  The
+	 * table is checked with a single query over arrays of the slots.
+	 * 
+	 * @param appointments the appointments to add
+	 * @return the new appointment ID of every record, in order, or -1 for a skipped one
+	 * @throws java.sql.SQLException when the batch failed and was rolled back
+	 */
+	public int[] addAppointments (final List<AppointmentRecord> appointments) throws SQLException {
+		return _metrics.operation ("import-appointments", () -> {
+			final int n = appointments.size ();
+			Set<LocalDate> days = new HashSet<LocalDate> ();
+			for (AppointmentRecord a : appointments)
+				days.add (a.date);
+			int[] result = _partitions.insert (days, () -> executeTransaction (() -> {
+				final boolean[] skip = new boolean[n];
+				final Object[] arrays = executeWithConnection (c -> {
+					Integer[] doctors = new Integer[n];
+					Object[] from = new Object[n], to = new Object[n];
+					for (int i = 0; i < n; ++i) {
+						AppointmentRecord a = appointments.get (i);
+						doctors[i] = a.doctorId;
+						from[i] = java.sql.Timestamp.valueOf (a.date.atTime (a.startHour, 0));
+						to[i] = java.sql.Timestamp.valueOf (a.date.atTime (a.endHour, 0));
+					}//end for
+					return new Object[] { c.createArrayOf ("int4", doctors),
+						c.createArrayOf ("timestamp", from), c.createArrayOf ("timestamp", to) };
+				});
+				final Set<Integer> known = new HashSet<Integer>();
+				executeQueryForEach ("SELECT doctor_ID FROM Doctor WHERE doctor_ID = ANY (?) ORDER BY doctor_ID FOR NO KEY UPDATE",
+					row -> known.add (row.getInt (1)), arrays[0]);
+				executeQueryForEach ("SELECT K.i FROM unnest(?::int4[], ?::timestamp[], ?::timestamp[]) WITH ORDINALITY AS K(doctor_id, lo, hi, i) "
+					+ "WHERE EXISTS (SELECT 1 FROM has_appointment H, Appointment A WHERE H.doctor_id = K.doctor_id "
+					+ "AND H.appt_id = A.appnt_ID AND A.adate = K.lo::date AND A.slot && tsrange(K.lo, K.hi))",
+					row -> skip[row.getInt (1) - 1] = true, arrays);
+
+				// hours taken so far by the batch itself, per doctor and day
+				Map<List<Object>, Integer> taken = new HashMap<List<Object>, Integer>();
+				int fresh = 0;
+				for (int i = 0; i < n; ++i) {
+					AppointmentRecord a = appointments.get (i);
+					if (skip[i] || !known.contains (a.doctorId)) {
+						skip[i] = true;
+						continue;
+					}//end if
+					List<Object> day = Arrays.<Object>asList (a.doctorId, a.date);
+					int hours = taken.containsKey (day) ? taken.get (day) : 0;
+					int mask = SlotBitmapCache.mask (a.startHour, a.endHour);
+					if ((hours & mask) != 0) {
+						skip[i] = true;
+						continue;
+					}//end if
+					taken.put (day, hours | mask);
+					++fresh;
+				}//end for
+
+				final int[] newIds = _appointmentIds.next (fresh);
+				final int[] ids = new int[n];
+				executeWithConnection (c -> {
+					PreparedStatement appts = c.prepareStatement (SQL_INSERT_APPOINTMENT);
+					PreparedStatement links = c.prepareStatement (SQL_INSERT_HAS_APPOINTMENT);
+					try {
+						for (int i = 0, k = 0; i < n; ++i) {
+							if (skip[i]) {
+								ids[i] = -1;
+								continue;
+							}//end if
+							AppointmentRecord a = appointments.get (i);
+							ids[i] = newIds[k++];
+							appts.setInt (1, ids[i]);
+							appts.setObject (2, a.date);
+							appts.setString (3, a.getTimeSlot ());
+							appts.addBatch ();
+							links.setInt (1, ids[i]);
+							links.setInt (2, a.doctorId);
+							links.addBatch ();
+						}//end for
+						long start = System.nanoTime ();
+						measured (SQL_INSERT_APPOINTMENT, null, start, appts.executeBatch ().length, Metrics.NOT_MEASURED, false);
+						start = System.nanoTime ();
+						measured (SQL_INSERT_HAS_APPOINTMENT, null, start, links.executeBatch ().length, Metrics.NOT_MEASURED, false);
+					} finally {
+						appts.close ();
+						links.close ();
+					}
+					return null;
+				});
+				return ids;
+			}));
+			for (int i = 0; i < n; ++i) {
+				AppointmentRecord a = appointments.get (i);
+				if (result[i] >= 0) _slots.mark (a.doctorId, a.date, a.startHour, a.endHour);
+			}//end for
+			return result;
+		});
+	}//end addAppointments
+
+	/**
+	 * Method shared by the batch insert API.  In one transaction it drops
+	 * records repeated in the batch, finds the records already stored with
+	 * a single query over arrays of their keys, allocates IDs for the rest
+	 * in bulk and inserts them with one JDBC batch.
+	 * 
+	 * @param keys the duplicate-check key of every record
+	 * @param keyTypes the SQL array element type of every key column
+	 * @param existing query returning the 1-based position of every stored key, one array parameter per key column
+	 * @param insert insert statement taking the new ID followed by the row values
+	 * @param ids the allocator for the new IDs
+	 * @param rows the values of every record
+	 * @return the new ID of every record, or -1 for a skipped one
+	 */
+	private int[] insertBatch (final List<Object[]> keys, final String[] keyTypes, final String existing,
+			final String insert, final KeyAllocator ids, final List<Object[]> rows) throws SQLException {
+		return executeTransaction (() -> {
+			final int n = keys.size ();
+			final boolean[] skip = new boolean[n];
+			Set<List<Object>> seen = new HashSet<List<Object>>();
+			for (int i = 0; i < n; ++i)
+				skip[i] = !seen.add (Arrays.asList (keys.get (i)));
+
+			final Object[] arrays = executeWithConnection (c -> {
+				Array[] columns = new Array[keyTypes.length];
+				for (int j = 0; j < keyTypes.length; ++j) {
+					Object[] values = new Object[n];
+					for (int i = 0; i < n; ++i)
+						values[i] = keys.get (i)[j];
+					columns[j] = c.createArrayOf (keyTypes[j], values);
+				}//end for
+				return columns;
+			});
+			executeQueryForEach (existing, rs -> skip[rs.getInt (1) - 1] = true, arrays);
+
+			int fresh = 0;
+			for (int i = 0; i < n; ++i)
+				if (!skip[i]) ++fresh;
+			final int[] newIds = ids.next (fresh);
+			final int[] result = new int[n];
+			executeWithConnection (c -> {
+				PreparedStatement stmt = c.prepareStatement (insert);
+				try {
+					for (int i = 0, k = 0; i < n; ++i) {
+						if (skip[i]) {
+							result[i] = -1;
+							continue;
+						}//end if
+						result[i] = newIds[k++];
+						Object[] row = rows.get (i);
+						stmt.setInt (1, result[i]);
+						for (int j = 0; j < row.length; ++j)
+							stmt.setObject (j + 2, row[j]);
+						stmt.addBatch ();
+					}//end for
+					long start = System.nanoTime ();
+					measured (insert, null, start, stmt.executeBatch ().length, Metrics.NOT_MEASURED, false);
+				} finally {
+					stmt.close ();
+				}
+				return null;
+			});
+			return result;
+		});
+	}//end insertBatch
+
+	/**
+	 * Interface for a listing read a page at a time, see executePageToSink.
+	 */
+	public interface PagedListing {
+		PageCursor page (PageCursor after, int pageSize, ResultSink sink) throws SQLException;
+	}
+
+	/**
+	 * Method to list a page of the active and available appointments of a
+	 * doctor over a date range, by date (menu option 5).
+	 * 
+	 * @param docId the doctor ID
+	 * @param from the first day of the range
+	 * @param to the last day of the range
+	 * @param after the cursor returned with the page before, or null for the first page
+	 * @param pageSize the number of appointments of a page
+	 * @param sink where the page goes
+	 * @return the cursor of the next page, or null if this was the last one
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public PageCursor listAppointmentsOfDoctor (int docId, LocalDate from, LocalDate to, PageCursor after, int pageSize, ResultSink sink) throws SQLException {
+		final PageCursor start = after != null ? after : new PageCursor (from, -1);
+		return _metrics.operation ("list-doctor",
+			() -> executePageToSink (SQL_APPOINTMENTS_OF_DOCTOR, sink, pageSize, docId, from, to, start.date, start.id));
+	}//end listAppointmentsOfDoctor
+
+	/**
+	 * Method to list a page of the available appointments of a department
+	 * on one day (menu option 6).
+	 * 
+	 * @param deptName the department name
+	 * @param date the day
+	 * @param after the cursor returned with the page before, or null for the first page
+	 * @param pageSize the number of appointments of a page
+	 * @param sink where the page goes
+	 * @return the cursor of the next page, or null if this was the last one
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public PageCursor listAvailableAppointmentsOfDepartment (String deptName, LocalDate date, PageCursor after, int pageSize, ResultSink sink) throws SQLException {
+		final PageCursor start = after != null ? after : new PageCursor (date, -1);
+		return _metrics.operation ("list-department", () -> {
+			int[] doctors = _references.doctorsOfDepartment (deptName);
+			return executePageToSink (SQL_AVAILABLE_OF_DEPARTMENT, sink, pageSize, ReferenceCache.arrayLiteral (doctors), date, start.date, start.id);
+		});
+	}//end listAvailableAppointmentsOfDepartment
+
+	/**
+	 * Method to count the appointments of every doctor by status, doctors
+	 * with the most appointments first (menu option 7).  The counts come
+	 * from one grouped pass over has_appointment and Appointment; the outer
+	 * joins keep doctors without appointments, whatever their IDs.
+	 * 
+	 * @param sink where the report goes
+	 * @return the number of doctors listed
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int reportStatusPerDoctor (ResultSink sink) throws SQLException {
+		return _metrics.operation ("report-status", () -> executeQueryToSink (SQL_STATUS_PER_DOCTOR, sink));
+	}//end reportStatusPerDoctor
+
+	/**
+	 * Method to count the patients of every doctor with a given status
+	 * (menu option 8), read from the doctor_status_count table.
+	 * 
+	 * @param status the appointment status
+	 * @param sink where the report goes
+	 * @return the number of doctors listed
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int reportPatientsWithStatus (AppointmentStatus status, ResultSink sink) throws SQLException {
+		return _metrics.operation ("report-patients", () -> executeQueryToSink (SQL_PATIENTS_WITH_STATUS, sink, status.name ()));
+	}//end reportPatientsWithStatus
+
+	/**
+	 * Method to check the doctor_status_count table against the base tables.
+	 * The expected counts are recomputed from has_appointment and
+	 * Appointment, every difference is printed and the table is rebuilt,
+	 * all in one transaction that keeps writers out while it runs.
+	 * 
+	 * @return the number of (doctor, status) counters that had drifted
+	 * @throws java.sql.SQLException when failed to execute the queries
+	 */
+	public int verifyStatusCounters () throws SQLException {
+		return executeTransaction (new Work<Integer>() {
+			public Integer run () throws SQLException {
+				executeUpdate ("LOCK TABLE has_appointment, Appointment IN SHARE MODE");
+				String drift = "SELECT COALESCE(T.doctor_id, C.doctor_id), COALESCE(T.status, C.status), "
+					+ "COALESCE(T.cnt, 0), COALESCE(C.cnt, 0) "
+					+ "FROM (SELECT H.doctor_id, A.status, COUNT(*) AS cnt FROM has_appointment H, Appointment A "
+					+ "WHERE H.appt_id = A.appnt_ID AND A.status IS NOT NULL GROUP BY H.doctor_id, A.status) T "
+					+ "FULL JOIN doctor_status_count C ON C.doctor_id = T.doctor_id AND C.status = T.status "
+					+ "WHERE COALESCE(T.cnt, 0) <> COALESCE(C.cnt, 0) ORDER BY 1, 2";
+				int drifted = executeQueryForEach (drift, new RowHandler() {
+					public void handle (Row row) throws SQLException {
+						System.out.println("Doctor " + row.getInt(1) + " " + row.getStatus(2) + ": counted "
+							+ row.getLong(4) + ", actual " + row.getLong(3));
+					}
+				});
+				if (drifted > 0) rebuildStatusCounters ();
+				return drifted;
+			}
+		});
+	}//end verifyStatusCounters
+
+	/**
+	 * Method to recompute the doctor_status_count table from scratch, e.g.
+	 * after a bulk load that ran with its triggers disabled.
+	 * 
+	 * @throws java.sql.SQLException when failed to execute the updates
+	 */
+	public void rebuildStatusCounters () throws SQLException {
+		executeTransaction (new Work<Void>() {
+			public Void run () throws SQLException {
+				executeUpdate ("LOCK TABLE has_appointment, Appointment IN SHARE MODE");
+				executeUpdate ("DELETE FROM doctor_status_count");
+				executeUpdate ("INSERT INTO doctor_status_count (status, doctor_id, cnt) "
+					+ "SELECT A.status, H.doctor_id, COUNT(*) FROM has_appointment H, Appointment A "
+					+ "WHERE H.appt_id = A.appnt_ID AND A.status IS NOT NULL GROUP BY A.status, H.doctor_id");
+				return null;
+			}
+		});
+	}//end rebuildStatusCounters
+
+	/**
+	 * Method to recount the number of appointments of every patient.
+	 * Bookings keep Patient.number_of_appts current incrementally; this
+	 * corrects any patient whose counter disagrees with searches in a
+	 * single set-based statement.
+	 * 
+	 * @return the number of patients whose counter was corrected
+	 * @throws java.sql.SQLException when failed to execute the update
+	 */
+	public int reconcileAppointmentCounts () throws SQLException {
+		return executeUpdate ("UPDATE Patient P SET number_of_appts = S.cnt "
+			+ "FROM (SELECT Q.patient_ID, COUNT(R.pid) AS cnt FROM Patient Q LEFT JOIN searches R ON R.pid = Q.patient_ID "
+			+ "GROUP BY Q.patient_ID) S "
+			+ "WHERE P.patient_ID = S.patient_ID AND P.number_of_appts IS DISTINCT FROM S.cnt");
+	}//end reconcileAppointmentCounts
+
+	/**
+	 * Method to report how well the statement caches are doing, summed
+	 * over every connection of the pool.
+	 * 
+	 * @return a one line summary of statement cache hits, misses and evictions
+	 */
+	public String getStatementCacheStats() {
+		long[] totals = _pool.getStatementCacheTotals();
+		return String.format("Statement cache: %d per connection, %d hits, %d misses, %d evictions",
+			STATEMENT_CACHE_SIZE, totals[0], totals[1], totals[2]);
+	}
+
+	/**
+	 * Method to report connection pool wait times and utilization.
+	 * 
+	 * @return a summary of the pool statistics
+	 */
+	public String getPoolStats() {
+		return _pool.getStats();
 	}
 
 	/**
-	 * Method to close the physical connection if it is open.
+	 * Method to close the pool and every physical connection in it.
 	 */
 	public void cleanup(){
-		try{
-			if (this._connection != null){
-				this._connection.close ();
-			}//end if
-		}catch (SQLException e){
-	         // ignored.
-		}//end try
+		_references.close ();
+		_partitions.close ();
+		_metrics.close ();
+		_async.shutdownNow ();
+		if (this._pool != null){
+			this._pool.close ();
+		}//end if
 	}//end cleanup
 
 	/**
@@ -216,10 +1408,22 @@ public class DBproject{
 	 * @param args the command line arguments this inclues the <mysql|pgsql> <login file>
 	 */
 	public static void main (String[] args) {
-		if (args.length != 3) {
+		if (args.length < 3) {
 			System.err.println (
 				"Usage: " + "java [-classpath <classpath>] " + DBproject.class.getName () +
-		            " <dbname> <port> <user>");
+		            " <dbname> <port> <user> [<command> [<args>]]");
+			System.err.println ("Commands (the interactive menu runs when none is given):");
+			System.err.println ("  verify-counters    rebuild the doctor x status counters and report drift");
+			System.err.println ("  reconcile-counts   recount every patient's number_of_appts");
+			System.err.println ("  load [<dir>] [<threads>]  bulk load the CSV files of <dir> (default ../data)");
+			System.err.println ("  import doctors|patients|appointments <file>  add the records of a CSV file in batches");
+			System.err.println ("      doctors: name,specialty,did  patients: name,gender,age,address  appointments: doctor_id,M/D/YYYY,time_slot");
+			System.err.println ("  run <file> [<threads>]  run the operations of a .jsonl or .csv workload and report their latency");
+			System.err.println ("  migrate [<dir>]    apply the schema migrations of <dir> (default ../sql/migrations)");
+			System.err.println ("  explain-check      fail if a menu query is planned with a sequential scan");
+			System.err.println ("  serve [<port>]     serve the menu operations over HTTP (default port 8080) until stopped");
+			System.err.println ("  expire [<M/D/YYYY>]  mark the booked (AC, WL) appointments before the day (default today) as past (PA)");
+			System.err.println ("  archive [<M/D/YYYY>]  drop the empty appointment months before the day (default today)");
 			return;
 		}//end if
 		
@@ -243,7 +1447,15 @@ public class DBproject{
 			String user = args[2];
 			
 			esql = new DBproject (dbname, dbport, user, "");
+			esql.startMetrics ();
 			
+			if (args.length > 3) {
+				runCommand(esql, args[3], Arrays.copyOfRange(args, 4, args.length));
+				return;
+			}//end if
+
+			esql.startReferenceCache();
+			esql.startArchiver();
 			boolean keepon = true;
 			while(keepon){
 				System.out.println("MAIN MENU");
@@ -257,6 +1469,12 @@ public class DBproject{
 				System.out.println("7. List total number of different types of appointments per doctor in descending order");
 				System.out.println("8. Find total number of patients per doctor with a given status");
 				System.out.println("9. < EXIT");
+				System.out.println("10. Show statistics");
+				System.out.println("11. Verify appointment counters");
+				System.out.println("12. Reconcile patient appointment counts");
+				System.out.println("13. Show the free hours of a doctor");
+				System.out.println("14. Cancel an appointment");
+				System.out.println("15. Show the waitlist of an appointment");
 				
 				switch (readChoice()){
 					case 1: AddDoctor(esql); break;
@@ -268,6 +1486,12 @@ public class DBproject{
 					case 7: ListStatusNumberOfAppointmentsPerDoctor(esql); break;
 					case 8: FindPatientsCountWithStatus(esql); break;
 					case 9: keepon = false; break;
+					case 10: ShowStatistics(esql); break;
+					case 11: VerifyStatusCounters(esql); break;
+					case 12: ReconcileAppointmentCounts(esql); break;
+					case 13: ShowFreeHours(esql); break;
+					case 14: CancelAppointment(esql); break;
+					case 15: ShowWaitlist(esql); break;
 				}
 			}
 		}catch(Exception e){
@@ -285,6 +1509,124 @@ public class DBproject{
 		}
 	}
 
+	/**
+	 * Method to run one maintenance or batch command without the menu.
+	 * 
+	 * @param esql the database
+	 * @param command the command name
+	 * @param args the arguments of the command
+	 * @throws java.lang.Exception when the command failed
+	 */
+	public static void runCommand(DBproject esql, String command, String[] args) throws Exception {
+		switch (command) {
+			case "verify-counters": VerifyStatusCounters(esql); break;
+			case "reconcile-counts": ReconcileAppointmentCounts(esql); break;
+			case "load":
+				new BulkLoader(esql, new File(args.length > 0 ? args[0] : "../data"),
+					args.length > 1 ? Integer.parseInt(args[1]) : Math.min(4, POOL_MAX_SIZE)).load();
+				break;
+			case "import": ImportRecords(esql, args[0], new File(args[1])); break;
+			case "run":
+				if (new WorkloadRunner(esql, args.length > 1 ? Integer.parseInt(args[1]) : Math.min(4, POOL_MAX_SIZE))
+						.run(new File(args[0])) > 0) {
+					esql.cleanup();
+					System.exit(1);
+				}//end if
+				break;
+			case "migrate":
+				new SchemaMigrator(esql, new File(args.length > 0 ? args[0] : "../sql/migrations")).migrate();
+				break;
+			case "explain-check":
+				if (new QueryPlanCheck(esql).check() > 0) {
+					esql.cleanup();
+					System.exit(1);
+				}//end if
+				break;
+			case "serve": {
+				esql.startReferenceCache();
+				esql.startArchiver();
+				final HttpService service = new HttpService(esql, args.length > 0 ? Integer.parseInt(args[0]) : 8080,
+					HTTP_MAX_IN_FLIGHT, HTTP_REQUEST_TIMEOUT_MS, HTTP_QUEUE_WAIT_MS);
+				final CountDownLatch stopped = new CountDownLatch(1);
+				Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+					service.stop();
+					stopped.countDown();
+				}));
+				service.start();
+				stopped.await();
+				break;
+			}
+			case "expire": {
+				LocalDate before = args.length > 0 ? LocalDate.parse(args[0], DATE_FORMAT) : LocalDate.now();
+				System.out.println("Marked " + esql.getPartitions().expire(before) + " booked appointments before " + before + " as past");
+				break;
+			}
+			case "archive": {
+				LocalDate before = args.length > 0 ? LocalDate.parse(args[0], DATE_FORMAT) : LocalDate.now();
+				System.out.println("Dropped " + esql.getPartitions().archive(before) + " empty months before " + before);
+				break;
+			}
+			default: System.err.println("Unknown command: " + command);
+		}
+	}//end runCommand
+
+	/**
+	 * Method to add the records of a CSV file through the batch insert
+	 * API, IMPORT_BATCH_SIZE records per transaction.
+	 * 
+	 * @param esql the database
+	 * @param kind doctors, patients or appointments
+	 * @param file the CSV file, without a header line
+	 * @throws java.lang.Exception when the file could not be read or a batch failed
+	 */
+	public static void ImportRecords(DBproject esql, String kind, File file) throws Exception {
+		if (!Arrays.asList("doctors", "patients", "appointments").contains(kind)) {
+			System.err.println("Unknown record kind: " + kind);
+			return;
+		}//end if
+		long start = System.nanoTime();
+		int added = 0, skipped = 0;
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try {
+			List<String[]> chunk = new ArrayList<String[]>();
+			String line;
+			do {
+				line = reader.readLine();
+				if (line != null && !line.trim().isEmpty())
+					chunk.add(line.split(",", -1));
+				if (chunk.size() == IMPORT_BATCH_SIZE || (line == null && !chunk.isEmpty())) {
+					int[] ids;
+					if (kind.equals("doctors")) {
+						List<DoctorRecord> records = new ArrayList<DoctorRecord>();
+						for (String[] f : chunk)
+							records.add(new DoctorRecord(f[0].trim(), f[1].trim(), Integer.parseInt(f[2].trim())));
+						ids = esql.addDoctors(records);
+					} else if (kind.equals("patients")) {
+						List<PatientRecord> records = new ArrayList<PatientRecord>();
+						for (String[] f : chunk)
+							records.add(new PatientRecord(f[0].trim(), f[1].trim(), Integer.parseInt(f[2].trim()), f[3].trim()));
+						ids = esql.addPatients(records);
+					} else {
+						List<AppointmentRecord> records = new ArrayList<AppointmentRecord>();
+						for (String[] f : chunk) {
+							int[] hours = SlotBitmapCache.hours(f[2]);
+							records.add(new AppointmentRecord(Integer.parseInt(f[0].trim()), LocalDate.parse(f[1].trim(), DATE_FORMAT), hours[0], hours[1]));
+						}//end for
+						ids = esql.addAppointments(records);
+					}
+					for (int id : ids) {
+						if (id < 0) ++skipped; else ++added;
+					}//end for
+					chunk.clear();
+				}//end if
+			} while (line != null);
+		} finally {
+			reader.close();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.println(String.format("Added %d %s, skipped %d duplicates in %.2f s", added, kind, skipped, seconds));
+	}//end ImportRecords
+
 	public static int readChoice() {
 		int input;
 		// returns only if a correct value is given.
@@ -308,27 +1650,19 @@ public class DBproject{
 		String dname = in.nextLine();
 		System.out.println("Please input the doctors speciality: ");
 		String spec = in.nextLine();
-		String dupcheck = "SELECT name FROM Doctor WHERE name = '"+dname+"' AND specialty = '"+spec+"' ";
+		String dupcheck = SQL_DOCTOR_DUPLICATE;
 		try { 
-		if (esql.executeQuery(dupcheck)>0){
+		if (esql.exists(dupcheck, dname, spec)){
 			System.out.println("This doctor already exists!");
 			return;
 		} 
 		else{
-			String count = "SELECT doctor_ID FROM Doctor";
-			try {
-				docid = esql.executeQuery(count);
-			}
-			catch(SQLException e) {
-				e.printStackTrace();
-			}
 			System.out.println("Please input the doctors department ID: ");
 			int did = Integer.parseInt(in.nextLine());
 			System.out.println(did);
-			System.out.println(docid);
-			String putIn = "INSERT INTO Doctor (doctor_ID, name,specialty, did) VALUES ('"+docid+"', '"+dname+"', '"+spec+"', '"+did+"')";
 			try{
-				esql.executeUpdate(putIn);
+				docid = esql.addDoctor(dname, spec, did);
+				System.out.println(docid < 0 ? "This doctor already exists!" : String.valueOf(docid));
 			}
 			catch (SQLException e) {
 				e.printStackTrace();
@@ -360,26 +1694,18 @@ public class DBproject{
 		System.out.println("Please input address: ");
 		String padd = in.nextLine();
 
-		String dupcheck = "SELECT name FROM Patient WHERE name = '"+pname+"' AND gtype = '"+g+"' AND age = '"+page+"' AND address = '"+padd+"' ";
+		String dupcheck = SQL_PATIENT_DUPLICATE;
 
 
 		try {
 
-		if (esql.executeQuery(dupcheck)>0){
+		if (esql.exists(dupcheck, pname, String.valueOf(g), page, padd)){
 			System.out.println("This Patient already exists!");
 			return;}
 		else{
-			String count = "SELECT patient_ID FROM Patient";
-			try {
-				pid = esql.executeQuery(count);
-			}
-			catch(SQLException e) {
-                        	e.printStackTrace();
-			}
-			String putIn = "INSERT INTO Patient VALUES ('"+pid+" ', '"+pname+"', '"+g+"', '"+page+"', '"+padd+"', 0)";
-			
 			try {
-			esql.executeUpdate(putIn);
+			pid = esql.addPatient(pname, String.valueOf(g), page, padd);
+			if (pid < 0) System.out.println("This Patient already exists!");
 			} catch (SQLException e) {
                         e.printStackTrace();
                 	}
@@ -394,56 +1720,62 @@ public class DBproject{
 
 	public static void AddAppointment(DBproject esql) {//3
 		Scanner in = new Scanner (System.in);
-		boolean loop = true; Date date2 = null;
-		while (loop) {
-		System.out.println("Please input the date of your desired appointment (MM/DD/YYYY):");
-		String date = in.nextLine();
-            	SimpleDateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy");
+		boolean loop = true;
+		LocalDate adate = readDate(in, "Please input the date of your desired appointment (MM/DD/YYYY):");
+
+		int docID = -1;
+		loop = true;
+		while(loop) {
+			System.out.print("Insert Doctor ID: ");
+			try {
+				docID = Integer.parseInt(in.nextLine());
+				loop = false;
+			} catch (NumberFormatException e) {
+				System.out.println("Invalid Doctor ID");
+			}
+		}
 		try {
-    			date2 = dateFormat.parse(date);	
-			loop = false;
-		} catch (ParseException e) {
-    			e.printStackTrace();
+		if (!esql.getReferences().doctorExists(docID)) {
+			System.out.println("This doctor doesn't exist!");
+			return;
 		}
-		System.out.println(date2); 
+		List<Integer> free = esql.freeHours(docID, adate);
+		if (free.isEmpty()) {
+			System.out.println("This doctor has no free hours on that day!");
+			return;
+		}
+		System.out.print("Free hours:");
+		for (int h : free) System.out.print(" " + h + ":00");
+		System.out.println();
+		} catch (SQLException e) {
+			e.printStackTrace();
+			return;
 		}
 	
 		System.out.println("Please assign a time slot of your appointment: ");
-		System.out.println("Start Time ");
-		String value1 = in.nextLine(); String[] arraySplit = value1.split(":");
-		int num1 = Integer.parseInt(arraySplit[0]); int num2 = Integer.parseInt(arraySplit[1]);
-		boolean isBeg = true;
-		if ((num1 >= 8 && num1 <=16) && num2 == 0) { isBeg = false; }
-		while (isBeg) {
-			System.out.println("Invalid Input. Please input a start time no earlier than 8:00 and no later than 16:00. Note: appointments only start at an hour sharp.");
-			value1 = in.nextLine(); arraySplit = value1.split(":");
-			num1 = Integer.parseInt(arraySplit[0]); num2 = Integer.parseInt(arraySplit[1]);
-			if ((num1 >= 8 && num1 <=16) && num2 == 0) { isBeg = false; }
-		}
-		System.out.println("End Time (Can't be earlier or equal to your start time and no later than 17:00)");
-		String value2 = in.nextLine(); String[] arraySplit2 = value2.split(":");
-		int num3 = Integer.parseInt(arraySplit2[0]); 
+		LocalTime start = readTime(in, "Start Time ");
+		while (start.getMinute() != 0 || start.getHour() < 8 || start.getHour() > 16) {
+			start = readTime(in, "Invalid Input. Please input a start time no earlier than 8:00 and no later than 16:00. Note: appointments only start at an hour sharp.");
+		}
+		LocalTime end = readTime(in, "End Time (Can't be earlier or equal to your start time and no later than 17:00)");
+		// an end time off the hour still takes that whole hour
+		int num1 = start.getHour(); int num3 = end.getMinute() == 0 ? end.getHour() : end.getHour() + 1;
 		while (num3 <= num1 || num3 > 17) {
-			System.out.println("Invalid Input. Please input an end time no earlier than your           start time and no later than 17:00");
-			value2 = in.nextLine(); arraySplit2 = value2.split(":");
-			num3 = Integer.parseInt(arraySplit2[0]);
+			end = readTime(in, "Invalid Input. Please input an end time no earlier than your start time and no later than 17:00");
+			num3 = end.getMinute() == 0 ? end.getHour() : end.getHour() + 1;
 		}
-		if (num3 == 17) { arraySplit2[1] = "00"; }
-		String begin = String.valueOf(num1); String end = String.valueOf(num2);
-		String timeslot = value1+"-"+arraySplit2[0]+":"+arraySplit2[1];
+		// slots are whole hours, so they can be checked against the hour bitmap
+		String timeslot = SlotBitmapCache.timeSlot(num1, num3);
 		System.out.println(timeslot);
 
-		String dupcheck = "SELECT adate FROM Appointment WHERE time_slot = '"+timeslot+"' AND adate = '"+date2+"'";
 		try {
-		if (esql.executeQuery(dupcheck) > 0) {
-			System.out.println("This time slot is already taken!");
+		if (esql.getSlots().overlaps(docID, adate, num1, num3)) {
+			System.out.println("This time slot overlaps another appointment of the doctor!");
 			return;
-		} else {
-			String count = "SELECT appnt_ID FROM Appointment";
-			int appntid = esql.executeQuery(count);
-			String putIn = "INSERT INTO Appointment VALUES ('"+appntid+"','"+date2+"','"+timeslot+"','AV')";
-			try { esql.executeUpdate(putIn); } catch (SQLException e) { e.printStackTrace(); }
 		}
+		int appntid = esql.addAppointment(docID, adate, num1, num3);
+		if (appntid < 0) System.out.println("This time slot overlaps another appointment of the doctor!");
+		else System.out.println("Added appointment " + appntid);
 		} catch (SQLException e) {
                         e.printStackTrace();
                 }
@@ -460,10 +1792,10 @@ public class DBproject{
 		while(loop) {
 			System.out.print("Please input the patient name (first and last): ");
 			pname = in.nextLine();
-			String dupcheck1 = "SELECT name FROM Patient WHERE name = '"+pname+"'";
+			String dupcheck1 = SQL_PATIENT_BY_NAME;
 
 			try {
-			if (esql.executeQuery(dupcheck1) == 0) {
+			if (!esql.exists(dupcheck1, pname)) {
 				System.out.println("This patient does not exist. Would you like to add a new patient (1) or re enter patient name (2)?");
 				a = Integer.parseInt(in.nextLine());
 				if(a==1) {
@@ -476,170 +1808,52 @@ public class DBproject{
 			}	
 		}
 		
-		loop = true;
-		while(loop) {
-                        System.out.print("Please input the patient ID: ");
-
-			try { pID = Integer.parseInt(in.nextLine()); }
-			catch (Exception e) { e.printStackTrace(); }
-
-
-                        String check1 = "SELECT patient_ID FROM Patient WHERE name = '"+pname+"' AND patient_ID = '"+pID+"' ";
-                        try {
-                        if (esql.executeQuery(check1) == 0) {
-                                System.out.println("This patient ID does not match our records");
-                        }
-                        else { loop = false; }
-                        } catch (SQLException e) {
-                                e.printStackTrace();
-                        }
-                }
-
-
-
-		loop = true;
-		while(loop) {
-			System.out.print("Insert Doctor ID: ");
+		// the patient, doctor and appointment are checked together, and only those not found are asked for again
+		boolean patientOk = false, doctorOk = false, apptOk = false;
+		while (!(patientOk && doctorOk && apptOk)) {
+			if (!patientOk) pID = readInt(in, "Please input the patient ID: ", "Invalid patient ID");
+			if (!doctorOk) docID = readInt(in, "Insert Doctor ID: ", "Invalid Doctor ID");
+			if (!apptOk) apptID = readInt(in, "Insert Appointment ID: ", "Invalid Appointment ID");
+			final int doctor = docID;
 			try {
-				docID = Integer.parseInt(in.nextLine());
-				loop = false;
-			} catch (NumberFormatException e) {
-    			System.out.println("Invalid Doctor ID");
-			e.printStackTrace();
-			}
-      		}
-		String dupcheck2 = "SELECT doctor_ID FROM Doctor WHERE doctor_ID = '"+docID+"' ";
-		try{
-		if (esql.executeQuery(dupcheck2) == 0) {
-			System.out.println("This doctor doesn't exist!");
-			return;
-		}
-		}catch (SQLException e){
-		e.printStackTrace();}
-
-		loop = true;
-                while(loop) {
-                        System.out.print("Insert Appointment ID: ");
-                        try {
-                                apptID = Integer.parseInt(in.nextLine());
-                                loop = false;
-                        } catch (Exception e) {
-                                System.out.println("Invalid Appointment ID");
-                                e.printStackTrace();
-                        }
-                }
-                String dupcheck3 = "SELECT appnt_ID FROM Appointment WHERE appnt_ID = '"+apptID+"' AND (status = 'AV' OR status = 'AC' OR status = 'WL')";
-                try {
-                if (esql.executeQuery(dupcheck3) == 0) {
-                        System.out.println("This appointment either doesn't exist or has already passed!");
-                        return;
-                }
-                } catch (SQLException e) {
-                        e.printStackTrace();
-                }
-
-		String avaliable = "SELECT appnt_ID FROM Appointment WHERE appnt_ID = '"+apptID+"' AND status = 'AV' ";
-		try {
-			if(esql.executeQuery(avaliable)>0){
-				String AVtoAC = "UPDATE Appointment SET status = 'AC' WHERE appnt_ID = '"+apptID+"' ";
-				try{
-					esql.executeUpdate(AVtoAC);
-				}catch(SQLException e){e.printStackTrace();}
-				String NewAppt = "INSERT INTO has_appointment VALUES ('"+apptID+"', '"+docID+"')";
-				try{
-					esql.executeUpdate(NewAppt);
-				} catch(SQLException e){e.printStackTrace();}
-
-				String updateSearch = "INSERT INTO searches VALUES (0,'"+pID+"','"+apptID+"')";
-				try{
-					esql.executeUpdate(updateSearch);
-				}catch(SQLException e){e.printStackTrace();}
-
-				String count = "SELECT pid FROM Searches WHERE pid = '"+pID+"' ";
-				
-				try{
-					a = esql.executeQuery(count);
-				}catch(SQLException e){e.printStackTrace();}
-
-				String patientUpdate = "UPDATE Patient SET number_of_appts = '"+a+"' WHERE patient_ID = '"+pID+"'";
-				try{
-					esql.executeUpdate(patientUpdate);
-				}catch(SQLException e){e.printStackTrace();}
-
-			}
-		}
-		catch(SQLException e) { e.printStackTrace(); }
-		
-		String active= "SELECT appnt_ID FROM Appointment WHERE appnt_ID = '"+apptID+"' AND status = 'AC' ";
-		try {
-			if(esql.executeQuery(active)>0){
-				String ACtoWL = "UPDATE Appointment SET status = 'WL' WHERE appnt_ID = '"+apptID+"' ";
-				try{
-					esql.executeUpdate(ACtoWL);
-				}catch(SQLException e){e.printStackTrace();}
-				String NewAppt = "INSERT INTO has_appointment VALUES ('"+apptID+"', '"+docID+"')";
-				try{
-					esql.executeUpdate(NewAppt);
-				} catch(SQLException e){e.printStackTrace();}
-
-				String updateSearch = "INSERT INTO searches VALUES (0,'"+pID+"','"+apptID+"')";
-				try{
-					esql.executeUpdate(updateSearch);
-				}catch(SQLException e){e.printStackTrace();}
-
-				String count = "SELECT pid FROM Searches WHERE pid = '"+pID+"' ";
-				
-				try{
-					a = esql.executeQuery(count);
-				}catch(SQLException e){e.printStackTrace();}
-
-				String patientUpdate = "UPDATE Patient SET number_of_appts = '"+a+"' WHERE patient_ID = '"+pID+"'";
-				try{
-					esql.executeUpdate(patientUpdate);
-				}catch(SQLException e){e.printStackTrace();}
-
+				List<Boolean> found = gather(Arrays.asList(
+					esql.existsAsync("SELECT 1 FROM Patient WHERE name = ? AND patient_ID = ?", pname, pID),
+					esql.async(() -> esql.getReferences().doctorExists(doctor)),
+					esql.existsAsync("SELECT 1 FROM Appointment WHERE appnt_ID = ?", apptID)));
+				patientOk = found.get(0);
+				doctorOk = found.get(1);
+				apptOk = found.get(2);
+			} catch (SQLException e) {
+				e.printStackTrace();
+				return;
 			}
-		}
-		catch (SQLException e) { e.printStackTrace(); }
-
+			if (!patientOk) System.out.println("This patient ID does not match our records");
+			if (!doctorOk) System.out.println("This doctor doesn't exist!");
+			if (!apptOk) System.out.println("This appointment doesn't exist!");
+		}//end while
 
-		String waitlist= "SELECT appnt_ID FROM Appointment WHERE appnt_ID = '"+apptID+"' AND status = 'WL' ";
+		// status check, transition, links and patient counter run as one transaction on the DBMS
 		try {
-			if(esql.executeQuery(waitlist)>0){
-				String WLtoWL = "UPDATE Appointment SET status = 'WL' WHERE appnt_ID = '"+apptID+"' ";
-				try{
-					esql.executeUpdate(WLtoWL);
-				}catch(SQLException e){e.printStackTrace();}
-				String NewAppt = "INSERT INTO has_appointment VALUES ('"+apptID+"', '"+docID+"')";
-				try{
-					esql.executeUpdate(NewAppt);
-				} catch(SQLException e){e.printStackTrace();}
-
-				String updateSearch = "INSERT INTO searches VALUES (0,'"+pID+"','"+apptID+"')";
-				try{
-					esql.executeUpdate(updateSearch);
-				}catch(SQLException e){e.printStackTrace();}
-
-				String count = "SELECT pid FROM Searches WHERE pid = '"+pID+"' ";
-				
-				try{
-					a = esql.executeQuery(count);
-				}catch(SQLException e){e.printStackTrace();}
-
-				String patientUpdate = "UPDATE Patient SET number_of_appts = '"+a+"' WHERE patient_ID = '"+pID+"'";
-				try{
-					esql.executeUpdate(patientUpdate);
-				}catch(SQLException e){e.printStackTrace();}
+			String status = esql.bookAppointment(pID, docID, apptID);
+			if (status == null) {
+				System.out.println("This appointment either doesn't exist, has already passed or is not one of this doctor's!");
+			} else if (status.equals("AC")) {
+				System.out.println("Appointment " + apptID + " booked.");
+			} else {
+				// make_appointment leaves a patient who already holds the appointment where they are, off its waitlist
+				int position = esql.waitlistPosition(pID, apptID);
+				if (position == 0) System.out.println("The patient already holds appointment " + apptID + ".");
+				else System.out.println("Appointment " + apptID + " is taken, the patient is number " + position + " on its waitlist.");
 			}
+		} catch (SQLException e) {
+			e.printStackTrace();
 		}
-		catch(SQLException e) { e.printStackTrace(); }
 	}
 
 	public static void ListAppointmentsOfDoctor(DBproject esql) {//5
 		// For a doctor ID and a date range, find the list of active and available appointments of the doctor
 		Scanner in = new Scanner (System.in);
 		int docid = 0; boolean loop = true;
-		Date date = null; Date date2 = null;	
 		while(loop) {
 			System.out.println("Please input your doctor ID"); 
 			try {
@@ -653,40 +1867,15 @@ public class DBproject{
 		}
 		/*System.out.println(docid);*/
 
-		loop = true;
-		while(loop) {
-			System.out.println("Insert start date");
-			String line = in.nextLine();
-			SimpleDateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy");
-			try {
-    				date = dateFormat.parse(line);
-    				loop = false;
-			}  catch (ParseException e) {
-				System.out.println("Invalid date!");
-    				e.printStackTrace();
-			}
-		}
-		/*System.out.println(date);*/
-		loop = true;
-		while(loop) {
-			System.out.println("Insert end date");
-			String line2 = in.nextLine();
-			SimpleDateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy");
-		try {
-    			date2 = dateFormat.parse(line2);
-			if (date.before(date2) || date.equals(date2)) {
-				loop = false; break;
-			}
-			System.out.println("Invalid date, please choose a date after " + date);
-		} catch (ParseException e) {
-			System.out.println("Invalid date!");
-    			e.printStackTrace();	
+		LocalDate date = readDate(in, "Insert start date");
+		LocalDate date2 = readDate(in, "Insert end date");
+		while (date2.isBefore(date)) {
+			date2 = readDate(in, "Invalid date, please choose a date after " + date.format(DATE_FORMAT));
 		}
-		}		
-		/*System.out.println(date2);*/
+		final int doctor = docid;
+		final LocalDate from = date, to = date2;
 		try {
-			String psqlQuery = "SELECT A.adate, A.appnt_ID, A.status  FROM Appointment A, Doctor D, has_appointment H WHERE H.doctor_id = '"+docid+"' AND A.adate >= '"+date+"' AND A.adate <= '"+date2+"' AND H.appt_id = A.appnt_ID AND H.doctor_id = D.doctor_ID AND (A.status = 'AC' OR A.status = 'AV') ORDER BY A.appnt_ID";	
-		esql.executeQueryAndPrintResult(psqlQuery);
+			pageThrough(in, (after, pageSize, sink) -> esql.listAppointmentsOfDoctor(doctor, from, to, after, pageSize, sink));
 		} catch(Exception e) {
 			System.out.println("This doctor ID does not exist");
 			System.out.println(e);
@@ -698,24 +1887,13 @@ public class DBproject{
 	public static void ListAvailableAppointmentsOfDepartment(DBproject esql) {//6
 		// For a department name and a specific date, find the list of available appointments of the department
 		Scanner in = new Scanner (System.in);
-		String deptname; boolean loop = true; Date date = null;
+		String deptname;
 		System.out.println("Please input your department name: "); 
 		deptname = in.nextLine();
-		while(loop) {
-			System.out.println("Insert a date");
-			String line = in.nextLine();
-			SimpleDateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy");
-			try {
-    				date = dateFormat.parse(line);
-    				loop = false;
-			} catch (ParseException e) {
-			System.out.println("Invalid date!");
-    			e.printStackTrace();
-			}
-		}
+		LocalDate date = readDate(in, "Insert a date");
+		final String dept = deptname;
 		try {
-		String psqlQuery = "SELECT A.adate, A.appnt_ID FROM Department D, Doctor T, Appointment A, has_appointment H WHERE D.name = '"+deptname+"' AND T.did = D.dept_ID AND T.doctor_ID = H.doctor_id AND H.appt_id = A.appnt_ID AND A.adate = '"+date+"' AND A.status = 'AV' ORDER BY A.appnt_ID"; 
-		esql.executeQueryAndPrintResult(psqlQuery);
+			pageThrough(in, (after, pageSize, sink) -> esql.listAvailableAppointmentsOfDepartment(dept, date, after, pageSize, sink));
 		} catch(Exception e) {
 			System.out.println("This department ID does not exist");
 			System.out.println(e);
@@ -725,80 +1903,10 @@ public class DBproject{
 
 	public static void ListStatusNumberOfAppointmentsPerDoctor(DBproject esql) {//7
 		// Count number of different types of appointments per doctors and list them in descending order
-		int i = 0;
-		int k = 0;
-		int a = -1;
-		int b = -1;
-		int c = -1;
-		int d = -1;
-		int uAV = 0;
-		int uAC = 0;
-		int uWL = 0;
-		int uPA = 0;
-		String doc = "SELECT* FROM Doctor";
-		try{
-		while(i < esql.executeQuery(doc)){
-			String getdoc = "SELECT name FROM Doctor WHERE doctor_ID = '"+i+"'";
-			try{
-			esql.executeQueryAndPrintResult(getdoc);
-			}catch(SQLException e) {e.printStackTrace();}
-			String getAV = "SELECT * FROM Appointment A, has_appointment H WHERE A.status = 'AV' AND H.doctor_id='"+i+"' AND H.appt_id=A.appnt_ID";
-			String getAC = "SELECT * FROM Appointment A, has_appointment H WHERE A.status = 'AC' AND H.doctor_id='"+i+"' AND H.appt_id=A.appnt_ID";
-			String getWL = "SELECT * FROM Appointment A, has_appointment H WHERE A.status = 'WL' AND H.doctor_id='"+i+"' AND H.appt_id=A.appnt_ID";
-			String getPA = "SELECT * FROM Appointment A, has_appointment H WHERE A.status = 'PA' AND H.doctor_id='"+i+"' AND H.appt_id=A.appnt_ID";
-			try{
-			a = esql.executeQuery(getAV);
-			} catch(SQLException e) {e.printStackTrace();}
-			try{
-			b = esql.executeQuery(getAC);
-			} catch(SQLException e) {e.printStackTrace();}
-			try{
-			c = esql.executeQuery(getWL);
-			}catch(SQLException e) {e.printStackTrace();}
-			try{
-			d = esql.executeQuery(getPA);
-			}catch(SQLException e) {e.printStackTrace();}
-			ArrayList<Integer> orderdown = new ArrayList<Integer>();
-			orderdown.add(a);
-			orderdown.add(b);
-			orderdown.add(c);
-			orderdown.add(d);
-			Collections.sort(orderdown, Collections.reverseOrder());
-			while( k < 4){
-				if(orderdown.get(k) == 0){}
-				else if(orderdown.get(k) == a && uAV == 0){
-					System.out.print(orderdown.get(k));
-					System.out.print(" AV ");
-					uAV = 1;
-				}
-				else if(orderdown.get(k) == b && uAC == 0){
-					System.out.print(orderdown.get(k));
-					System.out.print(" AC ");
-					uAC = 1;
-				}
-				else if(orderdown.get(k) == c && uWL == 0){
-					System.out.print(orderdown.get(k));
-					System.out.print(" WL ");
-					uWL = 1;
-				}
-				else if(orderdown.get(k) == d && uPA == 0){
-					System.out.print(orderdown.get(k));
-					System.out.print(" PA ");
-					uPA  = 1;
-				}
-				else{System.out.print("what?howd you get here?");}
-				++k;
-			}
-			System.out.println();
-			k=0;
-			++i;
-			uAV = 0;
-			uAC = 0;
-			uWL = 0;
-			uPA = 0;
-		}
-		} catch(SQLException e) {e.printStackTrace();}
-			System.out.println();
+		Scanner in = new Scanner(System.in);
+		try (ResultSink sink = promptSink(in)) {
+			esql.reportStatusPerDoctor(sink);
+		} catch(Exception e) {e.printStackTrace();}
 	}
 
 	
@@ -806,21 +1914,184 @@ public class DBproject{
 		// Find how many patients per doctor there are with a given status (i.e. PA, AC, AV, WL) and list that number per doctor.
 		Scanner in = new Scanner(System.in);
 		System.out.println("Please give a status (AV, AC, WL, PA): ");
-		String stat = in.nextLine();
-		int i = 0;
-		String doc = "SELECT* FROM Doctor";
-		try{
-		while(i < esql.executeQuery(doc)){
-			String getdoc = "SELECT name FROM Doctor WHERE doctor_ID = '"+i+"'";
-			try{
-			esql.executeQueryAndPrintResult(getdoc);
-			}catch(SQLException e) {e.printStackTrace();}
-			String getcount = "SELECT * FROM Appointment A, has_appointment H WHERE A.status = '"+stat+"' AND H.doctor_id='"+i+"' AND H.appt_id = A.appnt_ID";
-			try{ 
-			System.out.println(" has " + esql.executeQuery(getcount) + "'"+stat+"'");
-			}catch(SQLException e) {e.printStackTrace();}
-			++i;
+		AppointmentStatus stat = AppointmentStatus.parse(in.nextLine());
+		if (stat == null) {
+			System.out.println("Invalid status!");
+			return;
 		}
+		try (ResultSink sink = promptSink(in)) {
+			esql.reportPatientsWithStatus(stat, sink);
+		} catch(Exception e) {e.printStackTrace();}
+	}
+
+	/**
+	 * Method to ask where a listing should go.
+	 * 
+	 * @param in the console
+	 * @return the sink for the file typed, or the screen if the answer is blank
+	 * @throws java.io.IOException when the file could not be created
+	 */
+	static ResultSink promptSink(Scanner in) throws IOException {
+		System.out.println("Save to file (.csv or .jsonl), or press enter to show on screen: ");
+		return ResultSink.open(in.nextLine());
+	}
+
+	/**
+	 * Method to run a paged listing from the menu: asks for the page size
+	 * and where the listing goes, then reads one page at a time.  On the
+	 * screen the next page is read when the user asks for it; saved to a
+	 * file, the pages follow each other to the end.
+	 * 
+	 * @param in the console
+	 * @param listing the listing
+	 */
+	static void pageThrough(Scanner in, PagedListing listing) throws IOException, SQLException {
+		System.out.print("Rows per page (press enter for " + LIST_PAGE_SIZE + "): ");
+		String answer = in.nextLine().trim();
+		int pageSize = LIST_PAGE_SIZE;
+		try {
+			if (!answer.isEmpty()) pageSize = Math.max(1, Math.min(LIST_MAX_PAGE_SIZE, Integer.parseInt(answer)));
+		} catch (NumberFormatException e) {
+			System.out.println("Invalid page size, using " + pageSize);
+		}
+		System.out.println("Save to file (.csv or .jsonl), or press enter to show on screen: ");
+		String target = in.nextLine();
+		boolean screen = target.trim().isEmpty();
+		try (ResultSink sink = ResultSink.open(target)) {
+			PageCursor after = null;
+			do {
+				after = listing.page(after, pageSize, sink);
+				if (after != null && screen) {
+					System.out.println("Press enter for the next page, or q to stop: ");
+					if (in.nextLine().trim().equalsIgnoreCase("q")) break;
+				}//end if
+			} while (after != null);
+		}
+	}
+
+	/**
+	 * Method to read a date typed as MM/DD/YYYY, asking again until it is valid.
+	 * 
+	 * @param in the console
+	 * @param prompt the question to ask
+	 * @return the date
+	 */
+	static LocalDate readDate(Scanner in, String prompt) {
+		while (true) {
+			System.out.println(prompt);
+			try {
+				return LocalDate.parse(in.nextLine().trim(), DATE_FORMAT);
+			} catch (DateTimeParseException e) {
+				System.out.println("Invalid date!");
+			}
+		}
+	}
+
+	/**
+	 * Method to read a whole number, asking again until it is one.
+	 * 
+	 * @param in the console
+	 * @param prompt the question to ask
+	 * @param error what to say about an invalid answer
+	 * @return the number
+	 */
+	static int readInt(Scanner in, String prompt, String error) {
+		while (true) {
+			System.out.print(prompt);
+			try {
+				return Integer.parseInt(in.nextLine().trim());
+			} catch (NumberFormatException e) {
+				System.out.println(error);
+			}
+		}
+	}
+
+	/**
+	 * Method to read a time of day typed as H:MM, asking again until it is valid.
+	 * 
+	 * @param in the console
+	 * @param prompt the question to ask
+	 * @return the time
+	 */
+	static LocalTime readTime(Scanner in, String prompt) {
+		while (true) {
+			System.out.println(prompt);
+			try {
+				return LocalTime.parse(in.nextLine().trim(), TIME_FORMAT);
+			} catch (DateTimeParseException e) {
+				System.out.println("Invalid time!");
+			}
+		}
+	}
+
+	public static void VerifyStatusCounters(DBproject esql) {//11
+		// Rebuild the doctor x status counters from the base tables and report any drift
+		try{
+			int drifted = esql.verifyStatusCounters();
+			System.out.println(drifted == 0 ? "Counters are consistent." : drifted + " counter(s) had drifted and were rebuilt.");
+		}catch(SQLException e) {e.printStackTrace();}
+	}
+
+	public static void ShowStatistics(DBproject esql) {//10
+		// Report how the connection to the DBMS is being used
+		System.out.println(esql.getPoolStats());
+		System.out.println(esql.getStatementCacheStats());
+		System.out.println(esql.getReferences().getStats());
+		System.out.println(esql.getWaitlist().getStats());
+		System.out.println(esql.getMetrics().getReport());
+	}
+
+	public static void ReconcileAppointmentCounts(DBproject esql) {//12
+		// Recount number_of_appts for every patient from searches
+		try{
+			int fixed = esql.reconcileAppointmentCounts();
+			System.out.println(fixed + " patient(s) had a wrong number of appointments and were corrected.");
+		}catch(SQLException e) {e.printStackTrace();}
+	}
+
+	public static void ShowFreeHours(DBproject esql) {//13
+		// List the one-hour slots still open for a doctor on a given day
+		Scanner in = new Scanner(System.in);
+		try{
+			System.out.print("Insert Doctor ID: ");
+			int docID = Integer.parseInt(in.nextLine().trim());
+			System.out.print("Please input the date (MM/DD/YYYY): ");
+			LocalDate date = LocalDate.parse(in.nextLine().trim(), DATE_FORMAT);
+			List<Integer> free = esql.freeHours(docID, date);
+			if (free.isEmpty()) System.out.println("No free hours on " + date.format(DATE_FORMAT));
+			for (int h : free)
+				System.out.println(SlotBitmapCache.timeSlot(h, h + 1));
+		}catch(SQLException e) {e.printStackTrace();
+		}catch(RuntimeException e) {System.out.println("Invalid input: " + e.getMessage());}
+	}
+
+	public static void CancelAppointment(DBproject esql) {//14
+		// Cancel a patient's appointment, or take them off its waitlist; the next patient waiting gets it
+		Scanner in = new Scanner(System.in);
+		int pID = readInt(in, "Please input the patient ID: ", "Invalid patient ID");
+		int apptID = readInt(in, "Insert Appointment ID: ", "Invalid Appointment ID");
+		try{
+			WaitlistQueue.Cancellation c = esql.cancelAppointment(pID, apptID);
+			if (c.status == null) {
+				System.out.println("This patient neither holds nor waits for appointment " + apptID);
+			} else if (c.promoted >= 0) {
+				System.out.println("Cancelled. Appointment " + apptID + " now belongs to patient " + c.promoted
+					+ (c.status.equals("WL") ? ", others are still waiting." : "."));
+			} else {
+				System.out.println("Cancelled. Appointment " + apptID + " is now " + c.status + ".");
+			}
+		}catch(SQLException e) {e.printStackTrace();}
+	}
+
+	public static void ShowWaitlist(DBproject esql) {//15
+		// List the patients waiting for an appointment, the next one to get it first
+		Scanner in = new Scanner(System.in);
+		int apptID = readInt(in, "Insert Appointment ID: ", "Invalid Appointment ID");
+		try{
+			List<Integer> waiting = esql.getWaitlist().waiting(apptID);
+			if (waiting.isEmpty()) System.out.println("Nobody is waiting for appointment " + apptID);
+			for (int i = 0; i < waiting.size(); ++i)
+				System.out.println((i + 1) + ". patient " + waiting.get(i));
 		}catch(SQLException e) {e.printStackTrace();}
 	}
 }
@@ -0,0 +1,341 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * This class writes a synthetic data set with the files and layout of
+ * code/data, scaled by any factor, for BulkLoader to load.  Every row is
+ * computed from its table and row number alone, so a table is cut into
+ * chunks that threads render in parallel while one writer appends them to
+ * the file in order: the output is the same for a given scale whatever the
+ * number of threads, and only the chunks in flight are held in memory.
+ *
+ * Every foreign key points at a generated row and every value is in its
+ * domain.  Doctors and days are drawn with a power-law skew, so a few
+ * doctors and dates get most of the appointments.  Appointments before
+ * TODAY are past (PA), later ones are AV, AC or WL; every appointment
+ * belongs to one doctor and every taken one (AC, WL, PA) to one patient.
+ * As in the shipped data, slots of one doctor may overlap.
+ *
+ */
+
+public class DataGenerator {
+	//rows per table at scale 1, as in code/data
+	static final int HOSPITALS = 5, DEPARTMENTS = 125, STAFF = 250, DOCTORS = 250, PATIENTS = 250, APPOINTMENTS = 550;
+	//appointments are spread over two years, the first one past
+	static final LocalDate FIRST_DAY = LocalDate.of(2020, 1, 1);
+	static final int DAYS = 731;
+	static final LocalDate TODAY = LocalDate.of(2021, 1, 1);
+	//rows rendered per task
+	static final int CHUNK = 1 << 14;
+
+	static final String[] HOSPITAL_NAMES = { "UCLA Medical Center", "Cedars-Sinai Medical Center", "UCSF Medical Center",
+		"Stanford Health Care- Stanford Hospital", "Keck Medical Center of USC" };
+	static final String[] DEPARTMENT_NAMES = { "Accident and emergency", "Allergy and Immunology", "Cardiology", "Dermatology",
+		"Endocrinology", "Finance", "Gastroenterology", "General Surgery", "Human Resources", "ICU", "Microbiology", "Neurology",
+		"Nutrition", "Obstetrics/Gynecology", "Oncology", "Ophthalmology", "Otolaryngology", "Pain Management",
+		"Patient Services", "Pediatric", "Pharmacy", "Psychiatry", "Radiology", "Rheumatology", "Urology" };
+	static final String[] SPECIALTIES = { "Allergist", "Cardiologist", "Dermatologist", "Endocrinologist", "Gastroenterologist",
+		"Neurologist", "Nutritionist", "Oncologist", "Ophthalmologist", "Otolaryngologist", "Pediatrician", "Psychiatrist",
+		"Radiologist", "Urologist", "gynecologist" };
+	static final String[] FIRST_NAMES = { "Alvin", "Carrie", "Calvin", "Armand", "Alberto", "Wyatt", "Camille", "Lindsey",
+		"Maria", "James", "Linda", "Robert", "Patricia", "Michael", "Jennifer", "David", "Susan", "Daniel", "Karen", "Joseph" };
+	static final String[] LAST_NAMES = { "Saunders", "Cortez", "Morrison", "Enderle", "Scarlett", "Ruoff", "Holmes", "Sullivan",
+		"Newton", "Garcia", "Nguyen", "Smith", "Johnson", "Lee", "Brown", "Martinez", "Davis", "Lopez", "Wilson", "Clark" };
+	static final String[] STREETS = { "Chapel Drive", "Bald Hill Street", "Campfire Ave.", "Young Avenue", "East Warren St.",
+		"Oak Lane", "Main Street", "Sunset Blvd.", "Canyon Road", "Lake View Drive" };
+	static final String[] CITIES = { "Melbourne", "Baton Rouge", "Cockeysville", "Oak Forest", "New Brunswick", "Riverside",
+		"Fresno", "San Diego", "Sacramento", "Pasadena" };
+
+	//one stream of random numbers per table
+	private static final long HOSPITAL = 1, DEPARTMENT = 2, STAFF_ROW = 3, DOCTOR = 4, PATIENT = 5,
+		APPOINTMENT = 6, SCHEDULE = 7, MAINTENANCE = 8;
+
+	private final File _dir;
+	private final int _threads;
+	private final int _hospitals, _departments, _staff, _doctors, _patients, _appointments;
+	//multipliers that turn a popularity rank into a doctor, day or patient
+	private final long _doctorPerm, _dayPerm, _patientPerm;
+	//the dates as written in the files
+	private final String[] _dates = new String[DAYS];
+
+	/**
+	 * @param scale the factor applied to the row counts of code/data
+	 * @param dir the directory the files are written to
+	 * @param threads number of threads rendering rows
+	 */
+	public DataGenerator(double scale, File dir, int threads) {
+		this._dir = dir;
+		this._threads = threads;
+		this._hospitals = rows(HOSPITALS, scale);
+		this._departments = rows(DEPARTMENTS, scale);
+		this._staff = rows(STAFF, scale);
+		this._doctors = rows(DOCTORS, scale);
+		this._patients = rows(PATIENTS, scale);
+		this._appointments = rows(APPOINTMENTS, scale);
+		this._doctorPerm = coprime(_doctors);
+		this._dayPerm = coprime(DAYS);
+		this._patientPerm = coprime(_patients);
+		for (int t = 0; t < DAYS; ++t) {
+			LocalDate day = FIRST_DAY.plusDays(t);
+			_dates[t] = day.getMonthValue() + "/" + day.getDayOfMonth() + "/" + day.getYear();
+		}//end for
+	}
+
+	/**
+	 * Method to write every table.
+	 *
+	 * @throws java.io.IOException when a file could not be written
+	 */
+	public void generate() throws IOException {
+		if (!_dir.isDirectory() && !_dir.mkdirs()) throw new IOException("Unable to create " + _dir);
+		long start = System.nanoTime();
+		ExecutorService executor = Executors.newFixedThreadPool(_threads);
+		long total = 0;
+		try {
+			total += write(executor, "hospital.csv", _hospitals, (i, out) ->
+				out.append(i).append(',').append(HOSPITAL_NAMES[(int) (i % HOSPITAL_NAMES.length)])
+					.append(i < HOSPITAL_NAMES.length ? "" : " " + i / HOSPITAL_NAMES.length).append('\n'));
+			total += write(executor, "department.csv", _departments, (i, out) ->
+				out.append(i).append(',').append(DEPARTMENT_NAMES[(int) (i % DEPARTMENT_NAMES.length)]).append(',')
+					.append(hospitalOfDepartment(i)).append('\n'));
+			total += write(executor, "staff.csv", _staff, (i, out) -> {
+				out.append(i).append(',');
+				name(out, STAFF_ROW, i);
+				out.append(',').append(pick(STAFF_ROW, i, 2, _hospitals)).append('\n');
+			});
+			total += write(executor, "doctor.csv", _doctors, (i, out) -> {
+				out.append(i).append(',');
+				name(out, DOCTOR, i);
+				out.append(',').append(SPECIALTIES[pick(DOCTOR, i, 2, SPECIALTIES.length)])
+					.append(',').append(departmentOfDoctor(i)).append('\n');
+			});
+
+			// number_of_appts of every patient, counted before the patients are written
+			final AtomicIntegerArray taken = new AtomicIntegerArray(_patients);
+			forEachChunk(executor, _appointments, (from, to) -> {
+				for (long a = from; a < to; ++a)
+					if (!status(a).equals("AV")) taken.incrementAndGet(patientOf(a));
+			});
+			total += write(executor, "patient.csv", _patients, (i, out) -> {
+				out.append(i).append(',');
+				name(out, PATIENT, i);
+				out.append(',').append(unit(PATIENT, i, 2) < 0.5 ? 'F' : 'M')
+					.append(',').append(1 + pick(PATIENT, i, 3, 99))
+					.append(',').append(100 + pick(PATIENT, i, 4, 9900)).append(' ')
+					.append(STREETS[pick(PATIENT, i, 5, STREETS.length)]).append(' ')
+					.append(CITIES[pick(PATIENT, i, 6, CITIES.length)])
+					.append(',').append(taken.get((int) i)).append('\n');
+			});
+
+			total += write(executor, "appointment.csv", _appointments, (a, out) -> {
+				int hour = 8 + pick(APPOINTMENT, a, 3, 9);
+				int length = 1 + pick(APPOINTMENT, a, 4, Math.min(3, 17 - hour));
+				out.append(a).append(',').append(_dates[dayOf(a)]).append(',')
+					.append(hour).append(":00-").append(hour + length).append(":00,")
+					.append(status(a)).append('\n');
+			});
+			total += write(executor, "has_appointment.csv", _appointments, (a, out) ->
+				out.append(a).append(',').append(doctorOf(a)).append('\n'));
+			total += write(executor, "searches.csv", _appointments, (a, out) -> {
+				if (status(a).equals("AV")) return;
+				out.append(hospitalOfDepartment(departmentOfDoctor(doctorOf(a)))).append(',')
+					.append(patientOf(a)).append(',').append(a).append('\n');
+			});
+			total += write(executor, "schedules.csv", _appointments, (a, out) -> {
+				if (unit(SCHEDULE, a, 0) >= 0.2) return;
+				out.append(a).append(',').append(pick(SCHEDULE, a, 1, _staff)).append('\n');
+			});
+			total += write(executor, "request_maintenance.csv", _doctors, (d, out) -> {
+				if (unit(MAINTENANCE, d, 0) >= 0.4) return;
+				int hour = 8 + pick(MAINTENANCE, d, 2, 8);
+				out.append(1 + pick(MAINTENANCE, d, 1, 2)).append(',')
+					.append(DEPARTMENT_NAMES[departmentOfDoctor(d) % DEPARTMENT_NAMES.length]).append(',')
+					.append(hour).append(":00-").append(hour + 2).append(":00,")
+					.append(d).append(',').append(pick(MAINTENANCE, d, 3, _staff)).append('\n');
+			});
+		} finally {
+			executor.shutdownNow();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.println(String.format("Wrote %d rows to %s in %.2f s (%.0f rows/s)", total, _dir, seconds, total / seconds));
+	}//end generate
+
+	/**
+	 * Renders the line of one row, or nothing when the row is left out.
+	 */
+	interface RowFormat {
+		void append(long i, StringBuilder out);
+	}
+
+	interface ChunkWork {
+		void run(long from, long to);
+	}
+
+	//renders rows 0 to rows - 1 into a file, chunks in parallel and written in order
+	private long write(ExecutorService executor, String name, long rows, final RowFormat format) throws IOException {
+		long start = System.nanoTime();
+		final long[] lines = { 0 };
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(new File(_dir, name)), 1 << 16)) {
+			ArrayDeque<Future<byte[]>> inFlight = new ArrayDeque<Future<byte[]>>();
+			for (long from = 0; from < rows || !inFlight.isEmpty(); from += CHUNK) {
+				if (from < rows) {
+					final long first = from, last = Math.min(rows, from + CHUNK);
+					inFlight.add(executor.submit(() -> {
+						StringBuilder text = new StringBuilder(64 * (int) (last - first));
+						for (long i = first; i < last; ++i)
+							format.append(i, text);
+						return text.toString().getBytes(StandardCharsets.UTF_8);
+					}));
+				}//end if
+				// keep a bounded number of chunks ahead of the writer
+				if (inFlight.size() >= 2 * _threads || from >= rows) {
+					byte[] chunk = get(inFlight.poll());
+					for (byte b : chunk)
+						if (b == '\n') ++lines[0];
+					out.write(chunk);
+				}//end if
+			}//end for
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.println(String.format("%s: %d rows in %.2f s", name, lines[0], seconds));
+		return lines[0];
+	}//end write
+
+	private void forEachChunk(ExecutorService executor, long rows, final ChunkWork work) throws IOException {
+		ArrayDeque<Future<?>> tasks = new ArrayDeque<Future<?>>();
+		for (long from = 0; from < rows; from += CHUNK) {
+			final long first = from, last = Math.min(rows, from + CHUNK);
+			tasks.add(executor.submit(() -> work.run(first, last)));
+		}//end for
+		while (!tasks.isEmpty())
+			get(tasks.poll());
+	}//end forEachChunk
+
+	private static <T> T get(Future<T> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted", e);
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		}
+	}
+
+	//the generated relationships, each a pure function of the row number
+
+	private int hospitalOfDepartment(long dept) {
+		return (int) (dept % _hospitals);
+	}
+
+	private int departmentOfDoctor(long doctor) {
+		return pick(DOCTOR, doctor, 1, _departments);
+	}
+
+	private int doctorOf(long appt) {
+		return skewed(unit(APPOINTMENT, appt, 0), _doctors, _doctorPerm);
+	}
+
+	private int dayOf(long appt) {
+		return skewed(unit(APPOINTMENT, appt, 1), DAYS, _dayPerm);
+	}
+
+	private int patientOf(long appt) {
+		return skewed(unit(APPOINTMENT, appt, 5), _patients, _patientPerm);
+	}
+
+	private String status(long appt) {
+		if (FIRST_DAY.plusDays(dayOf(appt)).isBefore(TODAY)) return "PA";
+		double u = unit(APPOINTMENT, appt, 2);
+		return u < 0.5 ? "AV" : u < 0.85 ? "AC" : "WL";
+	}
+
+	private static void name(StringBuilder out, long table, long i) {
+		out.append(FIRST_NAMES[pick(table, i, 0, FIRST_NAMES.length)]).append(' ')
+			.append(LAST_NAMES[pick(table, i, 1, LAST_NAMES.length)]);
+	}
+
+	//the random numbers
+
+	/**
+	 * @return a number in [0, 1) fixed by the table, the row and which draw of the row it is
+	 */
+	static double unit(long table, long row, int draw) {
+		long x = table * 0x9E3779B97F4A7C15L + row * 0xBF58476D1CE4E5B9L + draw * 0x94D049BB133111EBL;
+		// the SplitMix64 finalizer
+		x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+		x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+		x = x ^ (x >>> 31);
+		return (x >>> 11) * 0x1.0p-53;
+	}
+
+	static int pick(long table, long row, int draw, int n) {
+		return (int) (unit(table, row, draw) * n);
+	}
+
+	/**
+	 * @return one of n values, the value of popularity rank 0 drawn most often; the
+	 *         cube makes the top tenth of the values take close to half the draws
+	 */
+	static int skewed(double u, int n, long perm) {
+		long rank = (long) (n * u * u * u);
+		return (int) (rank * perm % n);
+	}
+
+	//a multiplier that maps 0..n-1 onto itself, so ranks scatter over the values
+	static long coprime(long n) {
+		// the only value of a single row maps onto itself, and no p in 1..n-1 exists to search for
+		if (n == 1) return 0;
+		long p = 2654435761L % n;
+		while (p <= 0 || gcd(p, n) != 1)
+			p = (p + 1) % n;
+		return p;
+	}
+
+	private static long gcd(long a, long b) {
+		return b == 0 ? a : gcd(b, a % b);
+	}
+
+	private static int rows(int base, double scale) {
+		long n = Math.max(1, Math.round(base * scale));
+		if (n > Integer.MAX_VALUE) throw new IllegalArgumentException("Scale " + scale + " makes keys past the INTEGER range");
+		return (int) n;
+	}
+
+	/**
+	 * Usage: java DataGenerator <scale> [<dir>] [<threads>]
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: java [-classpath <classpath>] DataGenerator <scale> [<dir>] [<threads>]");
+			System.err.println("  writes code/data style CSV files with <scale> times the rows, for DBproject's load command");
+			return;
+		}//end if
+		new DataGenerator(Double.parseDouble(args[0]), new File(args.length > 1 ? args[1] : "generated"),
+			args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors()).generate();
+	}//end main
+}//end DataGenerator
@@ -0,0 +1,35 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+/**
+ * This class holds one new doctor for the batch insert API of DBproject.
+ * The primary key is allocated when the record is inserted.
+ *
+ */
+
+public class DoctorRecord {
+	public final String name;
+	public final String specialty;
+	public final int did;
+
+	/**
+	 * @param name the doctor's name (first and last)
+	 * @param specialty the doctor's specialty
+	 * @param did the department ID
+	 */
+	public DoctorRecord(String name, String specialty, int did) {
+		this.name = name;
+		this.specialty = specialty;
+		this.did = did;
+	}
+}//end DoctorRecord
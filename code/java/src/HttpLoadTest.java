@@ -0,0 +1,232 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class drives a running HttpService with a closed loop of requests,
+ * at 1, 2, 4, ... up to maxClients concurrent clients, and reports the
+ * throughput and latency of each level.  Each client sends its next
+ * request as soon as the previous one is answered, so the level where
+ * requests per second stop growing and p99 starts to climb is the
+ * capacity of the service.
+ *
+ * Most requests are listings and reports.  The rest book appointments
+ * (POST /bookings), each with the doctor it belongs to as listed by the
+ * service, for patients the test adds first, and cancel bookings made
+ * earlier (POST /cancellations), so clients contend for the same
+ * appointment rows and waitlists.  Reads, bookings and cancellations are
+ * reported on separate lines, bookings with how many were booked (AC) and
+ * how many queued (WL).  The bookings stay in the database.
+ *
+ *   java HttpLoadTest http://localhost:8080 256 10
+ *
+ */
+
+public class HttpLoadTest {
+	private static final LocalDate FIRST_DAY = LocalDate.of(2020, 1, 1);
+	private static final int DAYS = 730;
+	//patients added to book for, and doctors whose appointments are booked
+	private static final int PATIENTS = 100;
+	private static final int BOOKED_DOCTORS = 20;
+	//out of 10 requests, how many book and how many cancel; the rest read
+	private static final int BOOK_WEIGHT = 2;
+	private static final int CANCEL_WEIGHT = 1;
+
+	/**
+	 * The requests of one kind at one level: their latency and errors, and
+	 * for bookings the status they left the appointment in.
+	 */
+	private static final class Stats {
+		final String name;
+		final LatencyHistogram latency = new LatencyHistogram();
+		final AtomicLong errors = new AtomicLong();
+		final AtomicLong booked = new AtomicLong();
+		final AtomicLong queued = new AtomicLong();
+
+		Stats(String name) {
+			this.name = name;
+		}
+	}//end Stats
+
+	private final String _base;
+	private final HttpClient _client;
+	private final List<Integer> _doctors = new ArrayList<Integer>();
+	//{appointment ID, doctor ID} pairs, from the listings of the doctors
+	private final List<int[]> _appointments = new ArrayList<int[]>();
+	private final List<Integer> _patients = new ArrayList<Integer>();
+	//{patient ID, appointment ID} of the bookings not cancelled yet, each once
+	private final ConcurrentLinkedQueue<int[]> _bookings = new ConcurrentLinkedQueue<int[]>();
+	private final Set<Long> _booked = ConcurrentHashMap.newKeySet();
+
+	public HttpLoadTest(String base) {
+		this._base = base.replaceAll("/+$", "");
+		this._client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.err.println("Usage: java HttpLoadTest <url> [<max clients>] [<seconds per level>]");
+			return;
+		}//end if
+		HttpLoadTest test = new HttpLoadTest(args[0]);
+		test.sampleDoctors();
+		test.sampleAppointments();
+		test.addPatients();
+		int maxClients = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+		long seconds = args.length > 2 ? Long.parseLong(args[2]) : 10;
+
+		System.out.println(String.format("%8s %-7s %10s %8s %10s %10s %10s %8s %8s",
+			"clients", "kind", "requests", "errors", "req/s", "p50 ms", "p99 ms", "booked", "queued"));
+		for (int clients = 1; clients <= maxClients; clients *= 2)
+			test.level(clients, seconds);
+	}//end main
+
+	//doctor IDs to request, taken from a report of the service
+	private void sampleDoctors() throws Exception {
+		HttpResponse<String> response = _client.send(HttpRequest.newBuilder(URI.create(_base + "/reports/status-per-doctor")).build(),
+			HttpResponse.BodyHandlers.ofString());
+		if (response.statusCode() != 200) throw new IllegalStateException("Status " + response.statusCode() + ": " + response.body());
+		for (String line : response.body().split("\n")) {
+			if (line.isEmpty()) continue;
+			Map<String, String> row = WorkloadRunner.parseJsonObject(line);
+			String id = row.get("doctor_id");
+			if (id != null) _doctors.add(Integer.valueOf(id.trim()));
+		}//end for
+		if (_doctors.isEmpty()) throw new IllegalStateException("No doctors to request");
+	}//end sampleDoctors
+
+	//appointments to book, each with the doctor it belongs to, from the listings of some of the doctors
+	private void sampleAppointments() throws Exception {
+		for (int i = 0; i < Math.min(BOOKED_DOCTORS, _doctors.size()); ++i) {
+			int doctor = _doctors.get(i);
+			HttpResponse<String> response = _client.send(HttpRequest.newBuilder(URI.create(_base + "/doctors/" + doctor
+				+ "/appointments?from=" + FIRST_DAY + "&to=" + FIRST_DAY.plusDays(DAYS))).build(), HttpResponse.BodyHandlers.ofString());
+			if (response.statusCode() != 200) throw new IllegalStateException("Status " + response.statusCode() + ": " + response.body());
+			for (String line : response.body().split("\n")) {
+				if (line.isEmpty()) continue;
+				String id = WorkloadRunner.parseJsonObject(line).get("appnt_id");
+				if (id != null) _appointments.add(new int[] { Integer.parseInt(id.trim()), doctor });
+			}//end for
+		}//end for
+		if (_appointments.isEmpty()) throw new IllegalStateException("No appointments to book");
+	}//end sampleAppointments
+
+	//patients to book for, with names no earlier run used
+	private void addPatients() throws Exception {
+		String run = Long.toString(System.currentTimeMillis(), 36);
+		for (int i = 0; i < PATIENTS; ++i) {
+			HttpResponse<String> response = _client.send(post("/patients", "{\"name\":\"Load Test " + run + " " + i
+				+ "\",\"gender\":\"F\",\"age\":30,\"address\":\"1 Load Test St\"}").build(), HttpResponse.BodyHandlers.ofString());
+			if (response.statusCode() != 201) throw new IllegalStateException("Status " + response.statusCode() + ": " + response.body());
+			_patients.add(Integer.valueOf(WorkloadRunner.parseJsonObject(response.body()).get("patient_id").trim()));
+		}//end for
+	}//end addPatients
+
+	//runs clients closed-loop clients for the given time and prints a line per kind of request
+	private void level(int clients, long seconds) throws InterruptedException {
+		final Stats reads = new Stats("read"), books = new Stats("book"), cancels = new Stats("cancel");
+		final long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+		ExecutorService executor = HttpService.requestExecutor();
+		for (int i = 0; i < clients; ++i) {
+			executor.execute(() -> {
+				while (System.nanoTime() < end) {
+					int pick = ThreadLocalRandom.current().nextInt(10);
+					int[] booking = pick < CANCEL_WEIGHT ? _bookings.poll() : null;
+					if (booking != null) cancel(cancels, booking);
+					else if (pick < CANCEL_WEIGHT + BOOK_WEIGHT) book(books);
+					else send(reads, HttpRequest.newBuilder(URI.create(_base + nextPath())));
+				}//end while
+			});
+		}//end for
+		executor.shutdown();
+		executor.awaitTermination(seconds + 60, TimeUnit.SECONDS);
+		for (Stats stats : new Stats[] { reads, books, cancels }) {
+			boolean booking = stats == books;
+			System.out.println(String.format("%8d %-7s %10d %8d %10.0f %10.3f %10.3f %8s %8s", clients, stats.name,
+				stats.latency.getCount(), stats.errors.get(), stats.latency.getCount() / (double) seconds,
+				stats.latency.percentile(50) / 1e6, stats.latency.percentile(99) / 1e6,
+				booking ? String.valueOf(stats.booked.get()) : "-", booking ? String.valueOf(stats.queued.get()) : "-"));
+		}//end for
+	}//end level
+
+	//books a random appointment with its doctor for a random patient, remembering the booking to cancel later
+	private void book(Stats stats) {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int[] appointment = _appointments.get(random.nextInt(_appointments.size()));
+		int patient = _patients.get(random.nextInt(_patients.size()));
+		String body = send(stats, post("/bookings", "{\"patient\":" + patient + ",\"doctor\":" + appointment[1]
+			+ ",\"appointment\":" + appointment[0] + "}"));
+		if (body == null) return;
+		if (body.contains("\"AC\"")) stats.booked.incrementAndGet();
+		else if (body.contains("\"WL\"")) stats.queued.incrementAndGet();
+		// booking an appointment the patient already holds or waits for leaves it as it is
+		if (_booked.add(key(patient, appointment[0]))) _bookings.add(new int[] { patient, appointment[0] });
+	}//end book
+
+	private void cancel(Stats stats, int[] booking) {
+		_booked.remove(key(booking[0], booking[1]));
+		send(stats, post("/cancellations", "{\"patient\":" + booking[0] + ",\"appointment\":" + booking[1] + "}"));
+	}
+
+	//sends a request and records its latency; returns the body of a 200 response, or null counting an error
+	private String send(Stats stats, HttpRequest.Builder request) {
+		long start = System.nanoTime();
+		String body = null;
+		try {
+			HttpResponse<String> response = _client.send(request.timeout(Duration.ofSeconds(30)).build(), HttpResponse.BodyHandlers.ofString());
+			if (response.statusCode() == 200) body = response.body();
+			else stats.errors.incrementAndGet();
+		} catch (Exception e) {
+			stats.errors.incrementAndGet();
+		}
+		stats.latency.record(System.nanoTime() - start);
+		return body;
+	}//end send
+
+	private static long key(int patient, int appointment) {
+		return (long) patient << 32 | (appointment & 0xffffffffL);
+	}
+
+	private HttpRequest.Builder post(String path, String json) {
+		return HttpRequest.newBuilder(URI.create(_base + path)).header("Content-Type", "application/json")
+			.POST(HttpRequest.BodyPublishers.ofString(json));
+	}
+
+	//one of the read-only endpoints, with a random doctor and day
+	private String nextPath() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int doctor = _doctors.get(random.nextInt(_doctors.size()));
+		LocalDate day = FIRST_DAY.plusDays(random.nextInt(DAYS));
+		switch (random.nextInt(3)) {
+			case 0: return "/doctors/" + doctor + "/appointments?from=" + day + "&to=" + day.plusDays(30);
+			case 1: return "/doctors/" + doctor + "/free-hours?date=" + day;
+			default: return "/reports/status-per-doctor";
+		}
+	}
+}//end HttpLoadTest
@@ -0,0 +1,431 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * This class serves the menu operations over HTTP with JSON, on the JDK's
+ * built-in server, so many front-desk clients can work against one
+ * process and its connection pool.
+ *
+ *   POST /doctors        name, specialty, did
+ *   POST /patients       name, gender, age, address
+ *   POST /appointments   doctor, date, start, end
+ *   POST /bookings       patient, doctor, appointment
+ *   POST /cancellations  patient, appointment
+ *   GET  /doctors/{id}/appointments?from=&to=[&limit=&after=]
+ *   GET  /doctors/{id}/free-hours?date=
+ *   GET  /departments/{name}/available?date=[&limit=&after=]
+ *   GET  /appointments/{id}/waitlist[?patient=]
+ *   GET  /reports/status-per-doctor
+ *   GET  /reports/patients-with-status?status=
+ *   GET  /stats
+ *   GET  /metrics        the Metrics report, as text
+ *
+ * POST arguments come as a flat JSON object or a form; GET arguments in
+ * the query string.  Dates are YYYY-MM-DD or M/D/YYYY.  Listings stream
+ * back as JSON lines, one object per row.  The appointment listings come
+ * a page of limit rows at a time; when more follow, the X-Next-Token
+ * header holds the token to pass as after for the next page.
+ *
+ * Each request runs on its own virtual thread when the JVM has them (Java
+ * 21 and later) and on a pooled thread otherwise.  At most maxInFlight
+ * requests run at once; a request that cannot start within queueWaitMs
+ * is turned away with 503, so an overload sheds work instead of piling
+ * up.  Every request runs in one transaction that has timeoutMs from the
+ * start of the request to get a connection and run its statements; a
+ * request that gets no connection in time is answered with 503 and one
+ * whose statements are cut short with 504.
+ *
+ */
+
+public class HttpService {
+	private final DBproject _db;
+	private final HttpServer _server;
+	private final ExecutorService _executor;
+	private final Semaphore _inFlight;
+	private final long _timeoutMs;
+	private final long _queueWaitMs;
+	//System.nanoTime() by which the request the thread serves has to be done
+	private final ThreadLocal<Long> _deadline = new ThreadLocal<Long>();
+
+	/**
+	 * @param db the database
+	 * @param port the port to listen on
+	 * @param maxInFlight number of requests run at the same time
+	 * @param timeoutMs time a request's statements may take
+	 * @param queueWaitMs time a request may wait to start before it is turned away
+	 * @throws java.io.IOException when the port could not be bound
+	 */
+	public HttpService(DBproject db, int port, int maxInFlight, long timeoutMs, long queueWaitMs) throws IOException {
+		this._db = db;
+		this._inFlight = new Semaphore(maxInFlight);
+		this._timeoutMs = timeoutMs;
+		this._queueWaitMs = queueWaitMs;
+		this._executor = requestExecutor();
+		this._server = HttpServer.create(new InetSocketAddress(port), 0);
+		this._server.setExecutor(_executor);
+		this._server.createContext("/", this::handle);
+	}
+
+	public void start() {
+		_server.start();
+		System.out.println("Listening on port " + _server.getAddress().getPort());
+	}
+
+	/**
+	 * Method to stop accepting requests, giving those running a second to finish.
+	 */
+	public void stop() {
+		_server.stop(1);
+		_executor.shutdown();
+	}
+
+	/**
+	 * @return a virtual-thread-per-task executor when the JVM has one, a cached thread pool otherwise
+	 */
+	static ExecutorService requestExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newCachedThreadPool();
+		}
+	}
+
+	private void handle(HttpExchange ex) throws IOException {
+		boolean aborted = false;
+		try {
+			boolean admitted;
+			try {
+				admitted = _inFlight.tryAcquire(_queueWaitMs, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				admitted = false;
+			}
+			if (!admitted) {
+				ex.getResponseHeaders().set("Retry-After", "1");
+				send(ex, 503, error("Too many requests in flight"));
+				return;
+			}//end if
+			try {
+				_deadline.set(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(_timeoutMs));
+				route(ex);
+			} finally {
+				_deadline.remove();
+				_inFlight.release();
+			}
+		} catch (Aborted e) {
+			// closing the exchange would end the body as if it were complete; the server drops the connection instead
+			aborted = true;
+			System.err.println("Response to " + ex.getRequestURI() + " cut short: " + e.getMessage());
+			throw e;
+		} catch (IllegalArgumentException | DateTimeException e) {
+			send(ex, 400, error(e.getMessage()));
+		} catch (SQLException e) {
+			send(ex, status(e), error(e.getMessage()));
+		} catch (RuntimeException e) {
+			send(ex, 500, error(String.valueOf(e)));
+		} finally {
+			if (!aborted) ex.close();
+		}
+	}//end handle
+
+	private void route(final HttpExchange ex) throws IOException, SQLException {
+		String[] path = ex.getRequestURI().getRawPath().replaceAll("^/+|/+$", "").split("/");
+		final Map<String, String> args = arguments(ex);
+		String method = ex.getRequestMethod();
+		String route = method + " " + (path.length > 0 ? path[0] : "") + (path.length > 2 ? "/*/" + path[2] : path.length > 1 ? "/" + path[1] : "");
+		final String id = path.length > 2 ? decode(path[1]) : null;
+
+		switch (route) {
+			case "POST doctors":
+				created(ex, "doctor_id", inTime(() -> _db.addDoctor(text(args, "name"), text(args, "specialty"), integer(args, "did"))),
+					"Doctor already exists");
+				break;
+			case "POST patients":
+				created(ex, "patient_id", inTime(() -> _db.addPatient(text(args, "name"), text(args, "gender"), integer(args, "age"),
+					text(args, "address"))), "Patient already exists");
+				break;
+			case "POST appointments":
+				created(ex, "appointment_id", inTime(() -> _db.addAppointment(integer(args, "doctor"), date(args, "date"),
+					integer(args, "start"), integer(args, "end"))), "Unknown doctor or the slot overlaps one of the doctor's appointments");
+				break;
+			case "POST bookings": {
+				String status = inTime(() -> _db.bookAppointment(integer(args, "patient"), integer(args, "doctor"), integer(args, "appointment")));
+				if (status == null) send(ex, 404, error("Appointment not found, past or not the doctor's"));
+				else send(ex, 200, "{\"status\":" + JsonLinesSink.quote(status) + "}");
+				break;
+			}
+			case "POST cancellations": {
+				WaitlistQueue.Cancellation c = inTime(() -> _db.cancelAppointment(integer(args, "patient"), integer(args, "appointment")));
+				if (c.status == null) send(ex, 404, error("The patient neither holds nor waits for the appointment"));
+				else send(ex, 200, "{\"status\":" + JsonLinesSink.quote(c.status) + ",\"promoted\":" + (c.promoted < 0 ? "null" : String.valueOf(c.promoted)) + "}");
+				break;
+			}
+			case "GET appointments/*/waitlist": {
+				final int appt = Integer.parseInt(id);
+				if (args.containsKey("patient")) {
+					int position = inTime(() -> _db.waitlistPosition(integer(args, "patient"), appt));
+					send(ex, 200, "{\"position\":" + position + "}");
+				} else {
+					List<Integer> waiting = inTime(() -> _db.getWaitlist().waiting(appt));
+					send(ex, 200, "{\"waiting\":" + waiting.toString().replace(" ", "") + "}");
+				}
+				break;
+			}
+			case "GET doctors/*/appointments": {
+				final int doctor = Integer.parseInt(id);
+				final LocalDate from = date(args, "from"), to = date(args, "to");
+				page(ex, args, (after, limit, sink) -> _db.listAppointmentsOfDoctor(doctor, from, to, after, limit, sink));
+				break;
+			}
+			case "GET doctors/*/free-hours": {
+				List<Integer> free = inTime(() -> _db.freeHours(Integer.parseInt(id), date(args, "date")));
+				send(ex, 200, "{\"free_hours\":" + free.toString().replace(" ", "") + "}");
+				break;
+			}
+			case "GET departments/*/available": {
+				final LocalDate day = date(args, "date");
+				page(ex, args, (after, limit, sink) -> _db.listAvailableAppointmentsOfDepartment(id, day, after, limit, sink));
+				break;
+			}
+			case "GET reports/status-per-doctor":
+				stream(ex, sink -> _db.reportStatusPerDoctor(sink));
+				break;
+			case "GET reports/patients-with-status": {
+				final AppointmentStatus status = AppointmentStatus.parse(text(args, "status"));
+				if (status == null) throw new IllegalArgumentException("Invalid status " + args.get("status"));
+				stream(ex, sink -> _db.reportPatientsWithStatus(status, sink));
+				break;
+			}
+			case "GET stats":
+				send(ex, 200, "{\"pool\":" + JsonLinesSink.quote(_db.getPoolStats())
+					+ ",\"statements\":" + JsonLinesSink.quote(_db.getStatementCacheStats()) + "}");
+				break;
+			case "GET metrics": {
+				byte[] report = _db.getMetrics().getReport().getBytes(StandardCharsets.UTF_8);
+				ex.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+				ex.sendResponseHeaders(200, report.length);
+				try (OutputStream out = ex.getResponseBody()) {
+					out.write(report);
+				}
+				break;
+			}
+			default:
+				send(ex, 404, error("No such resource: " + method + " " + ex.getRequestURI().getPath()));
+		}
+	}//end route
+
+	interface Listing {
+		int write(ResultSink sink) throws SQLException;
+	}
+
+	//runs work in a transaction that waits for a connection and runs its statements only until the request's deadline
+	private <T> T inTime(final DBproject.Work<T> work) throws SQLException {
+		long remaining = remainingMs();
+		if (remaining <= 0) throw new SQLException("Request timed out", "57014");
+		return _db.executeTransaction(() -> {
+			_db.executeQueryAndReturnResult("SELECT set_config('statement_timeout', ?, true)", String.valueOf(Math.max(1, remainingMs())));
+			return work.run();
+		}, remaining);
+	}
+
+	private long remainingMs() {
+		Long deadline = _deadline.get();
+		return deadline == null ? _timeoutMs : TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+	}
+
+	//streams a listing as JSON lines; the status goes out with the first bytes, so a query that fails before then
+	//still gets its error status, and one that fails after them has its response aborted
+	private void stream(HttpExchange ex, final Listing listing) throws IOException, SQLException {
+		ex.getResponseHeaders().set("Content-Type", "application/x-ndjson");
+		final LazyBody body = new LazyBody(ex);
+		Writer out = new BufferedWriter(new OutputStreamWriter(body, StandardCharsets.UTF_8), ResultSink.BUFFER_SIZE);
+		final ResultSink sink = new JsonLinesSink(out, true);
+		try {
+			inTime(() -> listing.write(sink));
+		} catch (SQLException | RuntimeException e) {
+			// rows still buffered are dropped with the sink
+			if (body.started()) throw new Aborted(e);
+			throw e;
+		}
+		sink.close();
+	}
+
+	//writes one page of a listing as JSON lines, the token of the next page in X-Next-Token; the page is held until
+	//the query is done, since the header has to go first
+	private void page(HttpExchange ex, Map<String, String> args, final DBproject.PagedListing listing) throws IOException, SQLException {
+		final int limit = args.containsKey("limit") ? integer(args, "limit") : DBproject.LIST_PAGE_SIZE;
+		if (limit < 1 || limit > DBproject.LIST_MAX_PAGE_SIZE)
+			throw new IllegalArgumentException("limit must be 1 to " + DBproject.LIST_MAX_PAGE_SIZE);
+		final PageCursor after = args.containsKey("after") ? PageCursor.decode(args.get("after")) : null;
+		StringWriter buffer = new StringWriter();
+		PageCursor next;
+		try (final ResultSink sink = new JsonLinesSink(buffer, true)) {
+			next = inTime(() -> listing.page(after, limit, sink));
+		}
+		byte[] body = buffer.toString().getBytes(StandardCharsets.UTF_8);
+		ex.getResponseHeaders().set("Content-Type", "application/x-ndjson");
+		if (next != null) ex.getResponseHeaders().set("X-Next-Token", next.encode());
+		ex.sendResponseHeaders(200, body.length == 0 ? -1 : body.length);
+		try (OutputStream out = ex.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	private void created(HttpExchange ex, String key, int id, String conflict) throws IOException {
+		if (id < 0) send(ex, 409, error(conflict));
+		else send(ex, 201, "{" + JsonLinesSink.quote(key) + ":" + id + "}");
+	}
+
+	private static int status(SQLException e) {
+		String state = e.getSQLState();
+		if (state == null) return 500;
+		if (state.equals("57014")) return 504;
+		if (state.equals(ConnectionPool.POOL_EXHAUSTED)) return 503;
+		if (state.startsWith("23")) return 409;
+		if (state.startsWith("22")) return 400;
+		return 500;
+	}
+
+	private static String error(String message) {
+		return "{\"error\":" + JsonLinesSink.quote(String.valueOf(message)) + "}";
+	}
+
+	private static void send(HttpExchange ex, int status, String json) throws IOException {
+		byte[] body = (json + "\n").getBytes(StandardCharsets.UTF_8);
+		ex.getResponseHeaders().set("Content-Type", "application/json");
+		ex.sendResponseHeaders(status, body.length);
+		try (OutputStream out = ex.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	//the query string, and for a POST the JSON or form body
+	private static Map<String, String> arguments(HttpExchange ex) throws IOException {
+		Map<String, String> args = new LinkedHashMap<String, String>();
+		form(ex.getRequestURI().getRawQuery(), args);
+		if (ex.getRequestMethod().equals("POST")) {
+			String body = new String(readAll(ex.getRequestBody()), StandardCharsets.UTF_8).trim();
+			if (body.startsWith("{")) args.putAll(WorkloadRunner.parseJsonObject(body));
+			else form(body, args);
+		}//end if
+		return args;
+	}
+
+	private static void form(String encoded, Map<String, String> args) {
+		if (encoded == null || encoded.isEmpty()) return;
+		for (String pair : encoded.split("&")) {
+			int eq = pair.indexOf('=');
+			if (eq > 0) args.put(decode(pair.substring(0, eq)), decode(pair.substring(eq + 1)));
+		}
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int n;
+		while ((n = in.read(buffer)) > 0) {
+			out.write(buffer, 0, n);
+			if (out.size() > 1 << 20) throw new IllegalArgumentException("Request body too large");
+		}
+		return out.toByteArray();
+	}
+
+	private static String decode(String s) {
+		return URLDecoder.decode(s, StandardCharsets.UTF_8);
+	}
+
+	private static String text(Map<String, String> args, String name) {
+		String value = args.get(name);
+		if (value == null) throw new IllegalArgumentException("Missing " + name);
+		return value;
+	}
+
+	private static int integer(Map<String, String> args, String name) {
+		return Integer.parseInt(text(args, name).trim());
+	}
+
+	private static LocalDate date(Map<String, String> args, String name) {
+		String value = text(args, name).trim();
+		return value.indexOf('/') >= 0 ? LocalDate.parse(value, DBproject.DATE_FORMAT) : LocalDate.parse(value);
+	}
+
+	/**
+	 * A failure after the status and some of the body have been sent.
+	 */
+	private static final class Aborted extends IOException {
+		private static final long serialVersionUID = 1L;
+		Aborted(Exception cause) {
+			super(cause.getMessage(), cause);
+		}
+	}
+
+	/**
+	 * The response body of a listing.  The 200 status is sent with the
+	 * first bytes, so until then an error can still be reported.
+	 */
+	private static final class LazyBody extends OutputStream {
+		private final HttpExchange _ex;
+		private OutputStream _out;
+		private boolean _closed;
+
+		LazyBody(HttpExchange ex) {
+			this._ex = ex;
+		}
+
+		private OutputStream out() throws IOException {
+			if (_out == null) {
+				_ex.sendResponseHeaders(200, 0);
+				_out = _ex.getResponseBody();
+			}
+			return _out;
+		}
+
+		public void write(int b) throws IOException { out().write(b); }
+		public void write(byte[] b, int off, int len) throws IOException { if (len > 0) out().write(b, off, len); }
+		public void flush() throws IOException { if (_out != null) _out.flush(); }
+		boolean started() { return _out != null; }
+
+		//an empty listing still gets its 200, with no body
+		public void close() throws IOException {
+			if (_closed) return;
+			_closed = true;
+			if (_out != null) _out.close();
+			else _ex.sendResponseHeaders(200, -1);
+		}
+	}//end LazyBody
+}//end HttpService
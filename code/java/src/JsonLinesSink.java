@@ -0,0 +1,73 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * This class writes a result as JSON lines: one object per row, keyed by
+ * column name.  Numbers and booleans are written bare, NULL as null and
+ * everything else as a string.
+ *
+ */
+
+public class JsonLinesSink extends ResultSink {
+	private String[] _keys;
+
+	public JsonLinesSink(Writer out, boolean closeOut) {
+		super(out, closeOut);
+	}
+
+	public void begin(String[] columns) throws IOException {
+		super.begin(columns);
+		_keys = new String[columns.length];
+		for (int i = 0; i < columns.length; ++i)
+			_keys[i] = (i == 0 ? "{" : ",") + quote(columns[i]) + ":";
+	}
+
+	public void row(Object[] values) throws IOException {
+		StringBuilder line = new StringBuilder();
+		for (int i = 0; i < values.length; ++i) {
+			line.append(_keys[i]);
+			Object value = values[i];
+			if (value == null || value instanceof Number || value instanceof Boolean) line.append(value);
+			else line.append(quote(value.toString()));
+		}//end for
+		_out.write(line.append("}\n").toString());
+		++_rows;
+	}//end row
+
+	/**
+	 * Method to write a string as a JSON string literal.
+	 *
+	 * @param s the string
+	 * @return s in double quotes, with quotes, backslashes and control characters escaped
+	 */
+	static String quote(String s) {
+		StringBuilder q = new StringBuilder(s.length() + 2).append('"');
+		for (int i = 0; i < s.length(); ++i) {
+			char c = s.charAt(i);
+			switch (c) {
+				case '"': q.append("\\\""); break;
+				case '\\': q.append("\\\\"); break;
+				case '\n': q.append("\\n"); break;
+				case '\r': q.append("\\r"); break;
+				case '\t': q.append("\\t"); break;
+				default:
+					if (c < 0x20) q.append(String.format("\\u%04x", (int) c));
+					else q.append(c);
+			}
+		}//end for
+		return q.append('"').toString();
+	}//end quote
+}//end JsonLinesSink
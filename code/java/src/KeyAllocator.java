@@ -0,0 +1,119 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * This class hands out primary keys for one table using the hi/lo scheme.
+ * The backing sequence is incremented by the block size, so every nextval
+ * reserves a whole block of keys for this process and the keys of a block
+ * are then handed out without a round trip to the DBMS.  Keys stay unique
+ * across threads and processes because each block comes from the sequence.
+ *
+ */
+
+public class KeyAllocator {
+	private final DBproject _db;
+	private final String _sequence;
+	private final String _table;
+	private final String _column;
+	private final int _defaultBlockSize;
+
+	//block size as stored in the sequence, known after the first allocation
+	private int _blockSize = -1;
+	//next key to hand out and the first key past the current block
+	private long _next = 0;
+	private long _limit = 0;
+
+	/**
+	 * @param db the database to allocate from
+	 * @param sequence name of the backing sequence
+	 * @param table table whose keys are allocated, used to create a missing sequence
+	 * @param column primary key column of the table
+	 * @param blockSize keys reserved per round trip when the sequence has to be created
+	 */
+	public KeyAllocator(DBproject db, String sequence, String table, String column, int blockSize) {
+		this._db = db;
+		this._sequence = sequence;
+		this._table = table;
+		this._column = column;
+		this._defaultBlockSize = blockSize;
+	}
+
+	/**
+	 * Method to allocate the next key.
+	 *
+	 * @return a key no other caller has been or will be given
+	 * @throws java.sql.SQLException when a new block could not be reserved
+	 */
+	public synchronized int next() throws SQLException {
+		if (_next >= _limit) {
+			if (_blockSize < 0) _blockSize = ensureSequence();
+			_next = _db.getNextSeqVal(_sequence);
+			_limit = _next + _blockSize;
+		}//end if
+		return (int) _next++;
+	}//end next
+
+	/**
+	 * Method to allocate several keys at once.  Whatever is left of the
+	 * current block is used first; the missing blocks are all reserved in
+	 * a single round trip.  The keys are unique but need not be contiguous.
+	 *
+	 * @param n the number of keys
+	 * @return n keys no other caller has been or will be given
+	 * @throws java.sql.SQLException when the blocks could not be reserved
+	 */
+	public synchronized int[] next(int n) throws SQLException {
+		int[] keys = new int[n];
+		int k = 0;
+		while (k < n && _next < _limit)
+			keys[k++] = (int) _next++;
+		if (k == n) return keys;
+
+		if (_blockSize < 0) _blockSize = ensureSequence();
+		int blocks = (n - k + _blockSize - 1) / _blockSize;
+		List<List<String>> starts = _db.executeQueryAndReturnResult(
+			"SELECT nextval(?::regclass) FROM generate_series(1, ?)", _sequence, blocks);
+		for (List<String> start : starts) {
+			_next = Long.parseLong(start.get(0));
+			_limit = _next + _blockSize;
+			while (k < n && _next < _limit)
+				keys[k++] = (int) _next++;
+		}//end for
+		return keys;
+	}//end next
+
+	/**
+	 * Method to make sure the backing sequence exists, creating it past the
+	 * largest key already in the table when it does not.
+	 *
+	 * @return the block size, i.e. the increment of the sequence
+	 */
+	private int ensureSequence() throws SQLException {
+		List<List<String>> seq = _db.executeQueryAndReturnResult(
+			"SELECT increment_by FROM pg_sequences WHERE schemaname = current_schema() AND sequencename = ?", _sequence);
+		if (!seq.isEmpty()) return Integer.parseInt(seq.get(0).get(0));
+
+		// identifiers are fixed by the caller, never user input
+		List<List<String>> max = _db.executeQueryAndReturnResult(
+			"SELECT COALESCE(MAX(" + _column + ") + 1, 0) FROM " + _table);
+		long start = Long.parseLong(max.get(0).get(0));
+		_db.executeUpdate("CREATE SEQUENCE IF NOT EXISTS " + _sequence
+			+ " INCREMENT BY " + _defaultBlockSize + " MINVALUE 0 START WITH " + start);
+		seq = _db.executeQueryAndReturnResult(
+			"SELECT increment_by FROM pg_sequences WHERE schemaname = current_schema() AND sequencename = ?", _sequence);
+		return Integer.parseInt(seq.get(0).get(0));
+	}//end ensureSequence
+}//end KeyAllocator
@@ -0,0 +1,117 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class records latencies in nanoseconds into log-linear buckets, in
+ * the manner of HdrHistogram: values below 64 ns are kept exactly and
+ * every power of two above is split into 32 buckets, so a percentile is
+ * within about 3% of the true value.  The buckets are a fixed array of
+ * counters, so recording costs a few instructions, allocates nothing and
+ * is safe from any number of threads.
+ *
+ */
+
+public class LatencyHistogram {
+	private static final int SUB_BITS = 5;
+	private static final int SUB = 1 << SUB_BITS;
+	private static final int EXACT = 2 * SUB;
+	private static final int BUCKETS = EXACT + (63 - SUB_BITS) * SUB;
+
+	private final AtomicLongArray _counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong _count = new AtomicLong();
+	private final AtomicLong _total = new AtomicLong();
+	private final AtomicLong _max = new AtomicLong();
+
+	/**
+	 * Method to record one value.
+	 *
+	 * @param nanos the latency, negative values count as 0
+	 */
+	public void record(long nanos) {
+		long v = Math.max(0, nanos);
+		_counts.incrementAndGet(bucket(v));
+		_count.incrementAndGet();
+		_total.addAndGet(v);
+		long max;
+		while (v > (max = _max.get()) && !_max.compareAndSet(max, v)) {
+			// another thread raised the maximum, compare again
+		}
+	}//end record
+
+	/**
+	 * Method to find a percentile.
+	 *
+	 * @param p the percentile, 0 to 100
+	 * @return the highest value of the bucket holding the percentile, in nanoseconds, 0 if nothing was recorded
+	 */
+	public long percentile(double p) {
+		long n = _count.get();
+		if (n == 0) return 0;
+		long rank = Math.max(1, (long) Math.ceil(n * p / 100.0));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; ++i) {
+			seen += _counts.get(i);
+			if (seen >= rank) return Math.min(highest(i), _max.get());
+		}//end for
+		return _max.get();
+	}//end percentile
+
+	public long getCount() { return _count.get(); }
+	public long getMax() { return _max.get(); }
+
+	/**
+	 * @return the mean in nanoseconds, 0 if nothing was recorded
+	 */
+	public double getMean() {
+		long n = _count.get();
+		return n == 0 ? 0 : (double) _total.get() / n;
+	}
+
+	/**
+	 * Method to add the values of another histogram to this one.
+	 */
+	public void add(LatencyHistogram other) {
+		for (int i = 0; i < BUCKETS; ++i)
+			_counts.addAndGet(i, other._counts.get(i));
+		_count.addAndGet(other._count.get());
+		_total.addAndGet(other._total.get());
+		long max;
+		while (other._max.get() > (max = _max.get()) && !_max.compareAndSet(max, other._max.get())) {
+			// another thread raised the maximum, compare again
+		}
+	}//end add
+
+	/**
+	 * @return count, mean and percentiles in milliseconds, on one line
+	 */
+	public String summary() {
+		return String.format("n=%d mean=%.3f p50=%.3f p90=%.3f p99=%.3f max=%.3f ms", getCount(), getMean() / 1e6,
+			percentile(50) / 1e6, percentile(90) / 1e6, percentile(99) / 1e6, getMax() / 1e6);
+	}
+
+	static int bucket(long v) {
+		if (v < EXACT) return (int) v;
+		int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+		return EXACT + (shift - 1) * SUB + (int) (v >>> shift) - SUB;
+	}
+
+	static long highest(int bucket) {
+		if (bucket < EXACT) return bucket;
+		int shift = (bucket - EXACT) / SUB + 1;
+		long m = (bucket - EXACT) % SUB + SUB;
+		return ((m + 1) << shift) - 1;
+	}
+}//end LatencyHistogram
@@ -0,0 +1,302 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * This class measures the statements DBproject sends and the operations
+ * built on them.  Statements are keyed by their SQL template, with
+ * whitespace collapsed and any literal replaced by '?', so the same query
+ * lands on one key whatever its values; operations by name.  Each key
+ * keeps a LatencyHistogram and counts calls, errors, rows and the bytes of
+ * the values read back as text, where those are counted: streamed results
+ * are handed to their handler row by row and operations are not measured,
+ * so their bytes show as '-'.  Recording is a few atomic additions, and
+ * a template is only normalized the first time its text is seen.
+ *
+ * A statement slower than slowMs is written to the slow-query log with
+ * its bind values.  The numbers are available as a text report, over JMX
+ * and, when dumpEvery is used, in a file rewritten periodically.
+ *
+ */
+
+public class Metrics implements MetricsMXBean {
+	//distinct templates kept; statements past the limit are counted together
+	static final int MAX_TEMPLATES = 256;
+	static final String OTHER = "(other statements)";
+	//bytes of a statement whose result is not measured
+	static final long NOT_MEASURED = -1;
+
+	private static final Pattern STRINGS = Pattern.compile("'(?:[^']|'')*'");
+	private static final Pattern NUMBERS = Pattern.compile("\\b\\d+(?:\\.\\d+)?\\b");
+	private static final Pattern SPACES = Pattern.compile("\\s+");
+
+	/**
+	 * The numbers kept for one key.
+	 */
+	static final class Stat {
+		final LatencyHistogram latency = new LatencyHistogram();
+		final LongAdder errors = new LongAdder();
+		final LongAdder rows = new LongAdder();
+		final LongAdder bytes = new LongAdder();
+		final LongAdder unmeasured = new LongAdder();
+
+		void record(long nanos, long rowCount, long byteCount, boolean failed) {
+			latency.record(nanos);
+			if (failed) errors.increment();
+			if (rowCount > 0) rows.add(rowCount);
+			if (byteCount > 0) bytes.add(byteCount);
+			else if (byteCount == NOT_MEASURED) unmeasured.increment();
+		}
+
+		//the bytes, or '-' when some calls were not measured and the sum would undercount
+		String bytes() {
+			return unmeasured.sum() > 0 ? "-" : String.valueOf(bytes.sum());
+		}
+
+		String summary() {
+			return String.format("calls=%d errors=%d rows=%d bytes=%s mean=%.3f p50=%.3f p99=%.3f max=%.3f ms",
+				latency.getCount(), errors.sum(), rows.sum(), bytes(), latency.getMean() / 1e6,
+				latency.percentile(50) / 1e6, latency.percentile(99) / 1e6, latency.getMax() / 1e6);
+		}
+	}//end Stat
+
+	private final long _slowNanos;
+	private final PrintStream _slowLog;
+	//by the statement text as sent, several texts sharing the Stat of their template
+	private volatile ConcurrentHashMap<String, Stat> _bySql = new ConcurrentHashMap<String, Stat>();
+	private volatile ConcurrentHashMap<String, Stat> _templates = new ConcurrentHashMap<String, Stat>();
+	private volatile ConcurrentHashMap<String, Stat> _operations = new ConcurrentHashMap<String, Stat>();
+	private final LongAdder _slow = new LongAdder();
+	private ScheduledExecutorService _dumper = null;
+
+	/**
+	 * @param slowMs statements taking longer are logged, a negative value turns the log off
+	 * @param slowLog where the slow statements are written
+	 */
+	public Metrics(long slowMs, PrintStream slowLog) {
+		this._slowNanos = slowMs < 0 ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(slowMs);
+		this._slowLog = slowLog;
+	}
+
+	/**
+	 * Method to record one statement.
+	 *
+	 * @param sql the statement as sent
+	 * @param params its bind values, for the slow-query log
+	 * @param nanos how long it took
+	 * @param rows rows returned or affected
+	 * @param bytes bytes of the values read back as text, NOT_MEASURED if not counted
+	 * @param failed whether it threw
+	 */
+	public void statement(String sql, Object[] params, long nanos, long rows, long bytes, boolean failed) {
+		Stat stat = _bySql.get(sql);
+		if (stat == null) stat = templateOf(sql);
+		stat.record(nanos, rows, bytes, failed);
+		if (nanos >= _slowNanos) {
+			_slow.increment();
+			_slowLog.println(String.format("%s slow statement, %.3f ms, %d rows%s: %s%s", LocalDateTime.now(), nanos / 1e6, rows,
+				failed ? ", failed" : "", SPACES.matcher(sql).replaceAll(" ").trim(), binds(params)));
+		}//end if
+	}//end statement
+
+	/**
+	 * Method to record one operation that was timed by the caller.
+	 */
+	public void operation(String name, long nanos, boolean failed) {
+		Stat stat = _operations.get(name);
+		if (stat == null) stat = _operations.computeIfAbsent(name, k -> new Stat());
+		stat.record(nanos, 0, NOT_MEASURED, failed);
+	}
+
+	/**
+	 * Method to run and time an operation.
+	 *
+	 * @param name the operation
+	 * @param work what it does
+	 * @return whatever the work returns
+	 * @throws java.sql.SQLException whatever the work throws, counted as an error
+	 */
+	public <T> T operation(String name, DBproject.Work<T> work) throws SQLException {
+		long start = System.nanoTime();
+		boolean failed = true;
+		try {
+			T result = work.run();
+			failed = false;
+			return result;
+		} finally {
+			operation(name, System.nanoTime() - start, failed);
+		}
+	}//end operation
+
+	private Stat templateOf(String sql) {
+		String template = normalize(sql);
+		Stat stat = _templates.get(template);
+		if (stat == null) {
+			if (_templates.size() >= MAX_TEMPLATES) template = OTHER;
+			stat = _templates.computeIfAbsent(template, k -> new Stat());
+		}//end if
+		if (_bySql.size() < 4 * MAX_TEMPLATES) _bySql.putIfAbsent(sql, stat);
+		return stat;
+	}//end templateOf
+
+	/**
+	 * @return the SQL with whitespace collapsed and its string and number literals replaced by '?'
+	 */
+	static String normalize(String sql) {
+		String s = STRINGS.matcher(sql).replaceAll("?");
+		s = NUMBERS.matcher(s).replaceAll("?");
+		return SPACES.matcher(s).replaceAll(" ").trim();
+	}
+
+	private static String binds(Object[] params) {
+		if (params == null || params.length == 0) return "";
+		StringBuilder sb = new StringBuilder(" [binds:");
+		for (Object p : params) {
+			String value = p == null ? "null" : p instanceof String ? "'" + p + "'" : String.valueOf(p);
+			if (value.length() > 100) value = value.substring(0, 97) + "...";
+			sb.append(' ').append(value);
+		}//end for
+		return sb.append(']').toString();
+	}//end binds
+
+	public long getStatementCount() {
+		long n = 0;
+		for (Stat s : _templates.values())
+			n += s.latency.getCount();
+		return n;
+	}
+
+	public long getStatementErrors() {
+		long n = 0;
+		for (Stat s : _templates.values())
+			n += s.errors.sum();
+		return n;
+	}
+
+	public long getSlowStatements() { return _slow.sum(); }
+
+	public Map<String, String> getOperationSummaries() { return summaries(_operations); }
+	public Map<String, String> getStatementSummaries() { return summaries(_templates); }
+
+	private static Map<String, String> summaries(Map<String, Stat> stats) {
+		Map<String, String> summaries = new TreeMap<String, String>();
+		for (Map.Entry<String, Stat> e : stats.entrySet())
+			summaries.put(e.getKey(), e.getValue().summary());
+		return summaries;
+	}
+
+	/**
+	 * Method to forget everything recorded so far.
+	 */
+	public void reset() {
+		_bySql = new ConcurrentHashMap<String, Stat>();
+		_templates = new ConcurrentHashMap<String, Stat>();
+		_operations = new ConcurrentHashMap<String, Stat>();
+		_slow.reset();
+	}
+
+	/**
+	 * @return every operation, then every statement template by total time, as aligned text
+	 */
+	public String getReport() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%-60s %8s %6s %10s %12s %9s %9s %9s %9s%n",
+			"Operation", "calls", "errors", "rows", "bytes", "mean ms", "p50 ms", "p99 ms", "max ms"));
+		table(sb, _operations);
+		sb.append(String.format("%n%-60s %8s %6s %10s %12s %9s %9s %9s %9s%n",
+			"Statement", "calls", "errors", "rows", "bytes", "mean ms", "p50 ms", "p99 ms", "max ms"));
+		table(sb, _templates);
+		sb.append(String.format("%d statements, %d errors, %d slow%n", getStatementCount(), getStatementErrors(), getSlowStatements()));
+		return sb.toString();
+	}//end getReport
+
+	//one line per key, the keys with the most total time first
+	private static void table(StringBuilder sb, Map<String, Stat> stats) {
+		List<Map.Entry<String, Stat>> entries = new ArrayList<Map.Entry<String, Stat>>(stats.entrySet());
+		Collections.sort(entries, Comparator.comparingDouble(
+			(Map.Entry<String, Stat> e) -> -e.getValue().latency.getMean() * e.getValue().latency.getCount()));
+		for (Map.Entry<String, Stat> e : entries) {
+			Stat s = e.getValue();
+			String key = e.getKey().length() > 60 ? e.getKey().substring(0, 57) + "..." : e.getKey();
+			sb.append(String.format("%-60s %8d %6d %10d %12s %9.3f %9.3f %9.3f %9.3f%n", key, s.latency.getCount(),
+				s.errors.sum(), s.rows.sum(), s.bytes(), s.latency.getMean() / 1e6, s.latency.percentile(50) / 1e6,
+				s.latency.percentile(99) / 1e6, s.latency.getMax() / 1e6));
+		}//end for
+	}//end table
+
+	/**
+	 * Method to register this object with the platform MBean server, as
+	 * dbproject:type=Metrics, or with an id when that name is taken.
+	 *
+	 * @return the name it was registered under
+	 */
+	public ObjectName register() throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName("dbproject:type=Metrics");
+		for (int id = 2; server.isRegistered(name); ++id)
+			name = new ObjectName("dbproject:type=Metrics,id=" + id);
+		server.registerMBean(this, name);
+		return name;
+	}//end register
+
+	/**
+	 * Method to rewrite a file with the report every periodMs, replacing it
+	 * in one step so a reader never sees half a report.
+	 */
+	public synchronized void dumpEvery(final File file, long periodMs) {
+		if (_dumper != null) return;
+		_dumper = Executors.newSingleThreadScheduledExecutor(work -> {
+			Thread t = new Thread(work, "metrics-dump");
+			t.setDaemon(true);
+			return t;
+		});
+		_dumper.scheduleAtFixedRate(() -> {
+			try {
+				File tmp = new File(file.getPath() + ".tmp");
+				Files.write(tmp.toPath(), (LocalDateTime.now() + "\n" + getReport()).getBytes(StandardCharsets.UTF_8));
+				Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				System.err.println("Unable to write " + file + ": " + e.getMessage());
+			}
+		}, periodMs, periodMs, TimeUnit.MILLISECONDS);
+	}//end dumpEvery
+
+	public synchronized void close() {
+		if (_dumper != null) _dumper.shutdownNow();
+	}
+}//end Metrics
@@ -0,0 +1,32 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.Map;
+
+/**
+ * This interface is the JMX view of Metrics, registered as
+ * dbproject:type=Metrics.  The summaries are keyed by operation name or
+ * SQL template; each one reads calls, errors, rows, bytes and latency
+ * percentiles in milliseconds.
+ *
+ */
+
+public interface MetricsMXBean {
+	long getStatementCount();
+	long getStatementErrors();
+	long getSlowStatements();
+	Map<String, String> getOperationSummaries();
+	Map<String, String> getStatementSummaries();
+	String getReport();
+	void reset();
+}//end MetricsMXBean
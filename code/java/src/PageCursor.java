@@ -0,0 +1,63 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.Base64;
+
+/**
+ * This class holds the key of the last appointment of a page of a listing,
+ * (adate, appnt_ID), which the next page starts after.  The listings seek
+ * to the key through an index instead of skipping the rows of the earlier
+ * pages, so every page costs the same.  Clients get the key as an opaque
+ * continuation token.
+ *
+ */
+
+public class PageCursor {
+	public final LocalDate date;
+	public final int id;
+
+	/**
+	 * @param date the day of the last appointment listed
+	 * @param id its appointment ID
+	 */
+	public PageCursor(LocalDate date, int id) {
+		this.date = date;
+		this.id = id;
+	}
+
+	/**
+	 * @return the cursor as a URL-safe token, e.g. for an X-Next-Token header
+	 */
+	public String encode() {
+		return Base64.getUrlEncoder().withoutPadding().encodeToString((date + "/" + id).getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Method to read a token made by encode.
+	 *
+	 * @return the cursor
+	 * @throws IllegalArgumentException when the token is malformed
+	 */
+	public static PageCursor decode(String token) {
+		try {
+			String key = new String(Base64.getUrlDecoder().decode(token.trim()), StandardCharsets.UTF_8);
+			int slash = key.indexOf('/');
+			return new PageCursor(LocalDate.parse(key.substring(0, slash)), Integer.parseInt(key.substring(slash + 1)));
+		} catch (IllegalArgumentException | DateTimeException | IndexOutOfBoundsException e) {
+			throw new IllegalArgumentException("Invalid page token " + token);
+		}
+	}//end decode
+}//end PageCursor
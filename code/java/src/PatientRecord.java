@@ -0,0 +1,38 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+/**
+ * This class holds one new patient for the batch insert API of DBproject.
+ * The primary key is allocated when the record is inserted.
+ *
+ */
+
+public class PatientRecord {
+	public final String name;
+	public final String gender;
+	public final int age;
+	public final String address;
+
+	/**
+	 * @param name the patient's name (first and last)
+	 * @param gender M or F
+	 * @param age the patient's age
+	 * @param address the patient's address
+	 */
+	public PatientRecord(String name, String gender, int age, String address) {
+		this.name = name;
+		this.gender = gender;
+		this.age = age;
+		this.address = address;
+	}
+}//end PatientRecord
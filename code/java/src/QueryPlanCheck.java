@@ -0,0 +1,139 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class checks that the main query of every menu option is planned
+ * with index access.  Each query is run through EXPLAIN (FORMAT JSON) with
+ * parameters taken from the data, and the plan fails the check when it
+ * reads a table with a Seq Scan.  On the shipped data every table fits in
+ * a page or two and a sequential scan is the cheapest plan, so the check
+ * is only meaningful on a scaled-up database.
+ *
+ * The option 7 and 8 reports cover every doctor and read the tables they
+ * aggregate in full by design; those tables are exempt for them.
+ *
+ */
+
+public class QueryPlanCheck {
+
+	/**
+	 * A query to check: the menu option, its SQL as sent to the DBMS, its
+	 * parameters and the tables it may scan in full.
+	 */
+	static final class Check {
+		final String option;
+		final String sql;
+		final Object[] params;
+		final List<String> fullScans;
+
+		Check(String option, String sql, Object[] params, String... fullScans) {
+			this.option = option;
+			this.sql = sql;
+			this.params = params;
+			this.fullScans = Arrays.asList(fullScans);
+		}
+	}//end Check
+
+	//a plan node that scans a table, up to the table name; child plans come after it
+	private static final Pattern SEQ_SCAN = Pattern.compile("\"Node Type\": \"Seq Scan\",[^{}]*?\"Relation Name\": \"(\\w+)\"");
+	//the partitions of Appointment, see V003__partition_appointment.sql
+	private static final Pattern APPOINTMENT_PARTITION = Pattern.compile("appointment_(y\\d{4}m\\d{2}|current|archive)");
+
+	private final DBproject _db;
+
+	public QueryPlanCheck(DBproject db) {
+		this._db = db;
+	}
+
+	/**
+	 * Method to check the plans of the menu queries and print the result
+	 * of every one.
+	 *
+	 * @return the number of queries whose plan scans a table sequentially
+	 * @throws java.sql.SQLException when failed to explain a query
+	 */
+	public int check() throws SQLException {
+		int failed = 0;
+		for (Check check : checks()) {
+			String plan = _db.executeQueryAndReturnResult("EXPLAIN (FORMAT JSON) " + check.sql, check.params).get(0).get(0);
+			List<String> scanned = new ArrayList<String>();
+			Matcher m = SEQ_SCAN.matcher(plan);
+			while (m.find()) {
+				String table = m.group(1).toLowerCase();
+				if (APPOINTMENT_PARTITION.matcher(table).matches()) table = "appointment";
+				if (!check.fullScans.contains(table) && !scanned.contains(m.group(1)))
+					scanned.add(m.group(1));
+			}//end while
+			if (scanned.isEmpty()) {
+				System.out.println("ok    option " + check.option);
+			} else {
+				System.out.println("FAIL  option " + check.option + ": Seq Scan on " + String.join(", ", scanned));
+				++failed;
+			}
+		}//end for
+		System.out.println(failed == 0 ? "Every menu query uses an index." : failed + " menu query(ies) fall back to a sequential scan.");
+		return failed;
+	}//end check
+
+	//the eight menu queries, with parameters taken from the data so the estimates are realistic
+	private List<Check> checks() throws SQLException {
+		String[] samples = sample(
+			"SELECT name, specialty, doctor_ID FROM Doctor ORDER BY doctor_ID LIMIT 1",
+			"SELECT name FROM Patient ORDER BY patient_ID LIMIT 1",
+			"SELECT name FROM Department ORDER BY dept_ID LIMIT 1",
+			"SELECT COALESCE(MAX(adate), CURRENT_DATE) FROM Appointment");
+		String doctorName = samples[0];
+		String specialty = samples[1];
+		int doctor = Integer.parseInt(samples[2]);
+		String patientName = samples[3];
+		String department = samples[4];
+		LocalDate day = LocalDate.parse(samples[5]);
+
+		List<Check> checks = new ArrayList<Check>();
+		checks.add(new Check("1", DBproject.existsQuery(DBproject.SQL_DOCTOR_DUPLICATE), new Object[] { doctorName, specialty }));
+		checks.add(new Check("2", DBproject.existsQuery(DBproject.SQL_PATIENT_DUPLICATE), new Object[] { patientName, "M", 30, "" }));
+		checks.add(new Check("3", DBproject.existsQuery(DBproject.SQL_SLOT_OVERLAP),
+			new Object[] { doctor, day, day.atTime(8, 0), day.atTime(10, 0) }));
+		checks.add(new Check("4", DBproject.existsQuery(DBproject.SQL_PATIENT_BY_NAME), new Object[] { patientName }));
+		checks.add(new Check("5", DBproject.SQL_APPOINTMENTS_OF_DOCTOR,
+			new Object[] { doctor, day.minusMonths(1), day, day.minusMonths(1), -1, DBproject.LIST_PAGE_SIZE + 1 }));
+		checks.add(new Check("6", DBproject.SQL_AVAILABLE_OF_DEPARTMENT, new Object[] {
+			ReferenceCache.arrayLiteral(_db.getReferences().doctorsOfDepartment(department)), day, day, -1, DBproject.LIST_PAGE_SIZE + 1 }));
+		checks.add(new Check("7", DBproject.SQL_STATUS_PER_DOCTOR, new Object[0], "doctor", "has_appointment", "appointment"));
+		checks.add(new Check("8", DBproject.SQL_PATIENTS_WITH_STATUS, new Object[] { "AC" }, "doctor", "doctor_status_count"));
+		return checks;
+	}//end checks
+
+	//the columns of the first row of every query, all queries sent in one round trip
+	private String[] sample(String... queries) throws SQLException {
+		DBproject.Query[] batch = new DBproject.Query[queries.length];
+		for (int i = 0; i < queries.length; ++i)
+			batch[i] = DBproject.Query.of(queries[i]);
+		List<List<List<String>>> results = _db.executeQueries(batch);
+		List<String> values = new ArrayList<String>();
+		for (int i = 0; i < queries.length; ++i) {
+			List<List<String>> rows = results.get(i);
+			if (rows.isEmpty() || rows.get(0).get(0) == null) throw new SQLException("No data to check against: " + queries[i]);
+			values.addAll(rows.get(0));
+		}//end for
+		return values.toArray(new String[values.size()]);
+	}//end sample
+}//end QueryPlanCheck
@@ -0,0 +1,409 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+/**
+ * This class caches the reference data the menu looks up over and over:
+ * doctors and departments by ID, hospital names by ID and the doctors of
+ * a department by the department's name.  Every map is read-through and
+ * bounded, the least recently used entry going first and any entry being
+ * dropped after ttlMs.  Lookups that find nothing are cached too, so an
+ * unknown ID costs one round trip and not one per lookup.
+ *
+ * Writes made through DBproject invalidate the entries they touch.  Writes
+ * made by other processes reach the cache through the reference_changed
+ * channel, on which the triggers of migration V002 announce every change
+ * to Doctor, Department and Hospital; a listener thread polls a dedicated
+ * connection for them.  If that connection is lost, notifications may have
+ * been missed, so the whole cache is dropped before listening again.
+ *
+ */
+
+public class ReferenceCache {
+	public static final String CHANNEL = "reference_changed";
+
+	public static final class Doctor {
+		public final int id;
+		public final String name;
+		public final String specialty;
+		public final int did;
+
+		Doctor(int id, String name, String specialty, int did) {
+			this.id = id;
+			this.name = name;
+			this.specialty = specialty;
+			this.did = did;
+		}
+	}//end Doctor
+
+	public static final class Department {
+		public final int id;
+		public final String name;
+		public final int hid;
+
+		Department(int id, String name, int hid) {
+			this.id = id;
+			this.name = name;
+			this.hid = hid;
+		}
+	}//end Department
+
+	/**
+	 * A bounded LRU map whose entries expire.  A value loaded while the map
+	 * was being invalidated is not stored, so an invalidation cannot be
+	 * undone by a load that read the old row.
+	 */
+	private static final class Lru<K, V> {
+		private static final class Entry<V> {
+			final V value;
+			final long loadedAt;
+			Entry(V value, long loadedAt) {
+				this.value = value;
+				this.loadedAt = loadedAt;
+			}
+		}
+
+		private final long _ttlMs;
+		private final LinkedHashMap<K, Entry<V>> _entries;
+		private long _generation = 0;
+		private long _hits = 0;
+		private long _misses = 0;
+
+		Lru(final int capacity, long ttlMs) {
+			this._ttlMs = ttlMs;
+			this._entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+				protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+					return size() > capacity;
+				}
+			};
+		}
+
+		//the cached entry, null on a miss; the entry's value may be null for a cached absence
+		synchronized Entry<V> get(K key) {
+			Entry<V> e = _entries.get(key);
+			if (e != null && System.currentTimeMillis() - e.loadedAt < _ttlMs) {
+				++_hits;
+				return e;
+			}//end if
+			if (e != null) _entries.remove(key);
+			++_misses;
+			return null;
+		}
+
+		synchronized long generation() { return _generation; }
+
+		synchronized void put(K key, V value, long generation) {
+			if (generation == _generation) _entries.put(key, new Entry<V>(value, System.currentTimeMillis()));
+		}
+
+		synchronized void remove(K key) {
+			++_generation;
+			_entries.remove(key);
+		}
+
+		synchronized void clear() {
+			++_generation;
+			_entries.clear();
+		}
+
+		synchronized int size() { return _entries.size(); }
+		synchronized long hits() { return _hits; }
+		synchronized long misses() { return _misses; }
+	}//end Lru
+
+	private final DBproject _db;
+	private final int _capacity;
+	private final Lru<Integer, Doctor> _doctors;
+	private final Lru<Integer, Department> _departments;
+	private final Lru<Integer, String> _hospitals;
+	private final Lru<String, int[]> _doctorsByDepartment;
+
+	private Thread _listener = null;
+	private volatile boolean _closed = false;
+	private long _notifications = 0;
+
+	/**
+	 * @param db the database to read through to
+	 * @param capacity number of entries kept per map
+	 * @param ttlMs how long an entry is trusted
+	 */
+	public ReferenceCache(DBproject db, int capacity, long ttlMs) {
+		this._db = db;
+		this._capacity = capacity;
+		this._doctors = new Lru<Integer, Doctor>(capacity, ttlMs);
+		this._departments = new Lru<Integer, Department>(capacity, ttlMs);
+		this._hospitals = new Lru<Integer, String>(capacity, ttlMs);
+		this._doctorsByDepartment = new Lru<String, int[]>(capacity, ttlMs);
+	}
+
+	/**
+	 * Method to load hospitals, departments and doctors up to the capacity,
+	 * and the doctors of every department name when all doctors fit.
+	 *
+	 * @return the number of entries loaded
+	 * @throws java.sql.SQLException when the tables could not be read
+	 */
+	public int warm() throws SQLException {
+		final long hospitals = _hospitals.generation();
+		final long departments = _departments.generation();
+		final long doctors = _doctors.generation();
+		final long byName = _doctorsByDepartment.generation();
+		final Map<Integer, String> departmentNames = new LinkedHashMap<Integer, String>();
+		final Map<String, List<Integer>> members = new LinkedHashMap<String, List<Integer>>();
+		final int[] loaded = { 0, 0 };
+
+		_db.executeQueryForEach("SELECT hospital_ID, name FROM Hospital ORDER BY hospital_ID LIMIT ?",
+			row -> {
+				_hospitals.put(row.getInt(1), row.getString(2), hospitals);
+				++loaded[0];
+			}, _capacity);
+		_db.executeQueryForEach("SELECT dept_ID, name, hid FROM Department ORDER BY dept_ID",
+			row -> {
+				Department d = new Department(row.getInt(1), row.getString(2), row.getInt(3));
+				departmentNames.put(d.id, d.name);
+				members.put(d.name, new ArrayList<Integer>());
+				if (departmentNames.size() <= _capacity) {
+					_departments.put(d.id, d, departments);
+					++loaded[0];
+				}//end if
+			});
+		_db.executeQueryForEach("SELECT doctor_ID, name, specialty, did FROM Doctor ORDER BY doctor_ID LIMIT ?",
+			row -> {
+				Doctor d = new Doctor(row.getInt(1), row.getString(2), row.getString(3), row.getInt(4));
+				_doctors.put(d.id, d, doctors);
+				++loaded[0];
+				++loaded[1];
+				List<Integer> ids = members.get(departmentNames.get(d.did));
+				if (ids != null) ids.add(d.id);
+			}, _capacity + 1);
+
+		// the doctors of a department are only known when no doctor was left out
+		if (loaded[1] <= _capacity) {
+			int n = 0;
+			for (Map.Entry<String, List<Integer>> e : members.entrySet()) {
+				if (++n > _capacity) break;
+				_doctorsByDepartment.put(e.getKey(), toArray(e.getValue()), byName);
+				++loaded[0];
+			}//end for
+		}//end if
+		return loaded[0];
+	}//end warm
+
+	/**
+	 * @return the doctor, or null if there is no doctor with that ID
+	 * @throws java.sql.SQLException when the doctor had to be loaded and that failed
+	 */
+	public Doctor doctor(int id) throws SQLException {
+		Lru.Entry<Doctor> e = _doctors.get(id);
+		if (e != null) return e.value;
+		long generation = _doctors.generation();
+		List<List<String>> rows = _db.executeQueryAndReturnResult(
+			"SELECT doctor_ID, name, specialty, did FROM Doctor WHERE doctor_ID = ?", id);
+		Doctor d = rows.isEmpty() ? null : new Doctor(id, rows.get(0).get(1), rows.get(0).get(2), parseInt(rows.get(0).get(3)));
+		_doctors.put(id, d, generation);
+		return d;
+	}//end doctor
+
+	public boolean doctorExists(int id) throws SQLException {
+		return doctor(id) != null;
+	}
+
+	/**
+	 * @return the department, or null if there is no department with that ID
+	 * @throws java.sql.SQLException when the department had to be loaded and that failed
+	 */
+	public Department department(int id) throws SQLException {
+		Lru.Entry<Department> e = _departments.get(id);
+		if (e != null) return e.value;
+		long generation = _departments.generation();
+		List<List<String>> rows = _db.executeQueryAndReturnResult("SELECT name, hid FROM Department WHERE dept_ID = ?", id);
+		Department d = rows.isEmpty() ? null : new Department(id, rows.get(0).get(0), parseInt(rows.get(0).get(1)));
+		_departments.put(id, d, generation);
+		return d;
+	}//end department
+
+	/**
+	 * @return the hospital's name, or null if there is no hospital with that ID
+	 * @throws java.sql.SQLException when the hospital had to be loaded and that failed
+	 */
+	public String hospital(int id) throws SQLException {
+		Lru.Entry<String> e = _hospitals.get(id);
+		if (e != null) return e.value;
+		long generation = _hospitals.generation();
+		List<List<String>> rows = _db.executeQueryAndReturnResult("SELECT name FROM Hospital WHERE hospital_ID = ?", id);
+		String name = rows.isEmpty() ? null : rows.get(0).get(0);
+		_hospitals.put(id, name, generation);
+		return name;
+	}//end hospital
+
+	/**
+	 * Method to find the doctors of every department with the given name;
+	 * departments of different hospitals may share a name.
+	 *
+	 * @return the doctor IDs in ascending order, empty when there are none
+	 * @throws java.sql.SQLException when the doctors had to be loaded and that failed
+	 */
+	public int[] doctorsOfDepartment(String name) throws SQLException {
+		Lru.Entry<int[]> e = _doctorsByDepartment.get(name);
+		if (e != null) return e.value;
+		long generation = _doctorsByDepartment.generation();
+		final List<Integer> ids = new ArrayList<Integer>();
+		_db.executeQueryForEach("SELECT T.doctor_ID FROM Department D, Doctor T WHERE D.name = ? AND T.did = D.dept_ID "
+			+ "ORDER BY T.doctor_ID", row -> ids.add(row.getInt(1)), name);
+		int[] doctors = toArray(ids);
+		_doctorsByDepartment.put(name, doctors, generation);
+		return doctors;
+	}//end doctorsOfDepartment
+
+	/**
+	 * Method to drop the entries a change to one row may have made stale.
+	 *
+	 * @param table Doctor, Department or Hospital, in any case
+	 * @param id the key of the changed row
+	 */
+	public void invalidate(String table, int id) {
+		switch (table.toLowerCase()) {
+			case "doctor":
+				_doctors.remove(id);
+				_doctorsByDepartment.clear();
+				break;
+			case "department":
+				_departments.remove(id);
+				_doctorsByDepartment.clear();
+				break;
+			case "hospital":
+				_hospitals.remove(id);
+				break;
+			default:
+				invalidateAll();
+		}
+	}//end invalidate
+
+	public void invalidateAll() {
+		_doctors.clear();
+		_departments.clear();
+		_hospitals.clear();
+		_doctorsByDepartment.clear();
+	}
+
+	/**
+	 * Method to start the thread that applies the invalidations other
+	 * processes announce.
+	 *
+	 * @param pool where the dedicated listening connection is opened
+	 * @param pollMs how often the connection is polled
+	 */
+	public synchronized void listen(final ConnectionPool pool, final long pollMs) {
+		if (_listener != null) return;
+		_listener = new Thread(() -> {
+			while (!_closed) {
+				try (Connection connection = pool.openUnpooled(); Statement stmt = connection.createStatement()) {
+					stmt.execute("LISTEN " + CHANNEL);
+					// changes made while no one was listening are unknown
+					invalidateAll();
+					PGConnection pg = connection.unwrap(PGConnection.class);
+					while (!_closed) {
+						// notifications are read along with the reply to a query
+						stmt.execute("SELECT 1");
+						PGNotification[] notifications = pg.getNotifications();
+						if (notifications != null)
+							for (PGNotification n : notifications)
+								apply(n.getParameter());
+						Thread.sleep(pollMs);
+					}//end while
+				} catch (SQLException e) {
+					if (!_closed) System.err.println("Reference cache listener: " + e.getMessage());
+				} catch (InterruptedException e) {
+					return;
+				}
+				try {
+					Thread.sleep(Math.max(pollMs, 1000));
+				} catch (InterruptedException e) {
+					return;
+				}
+			}//end while
+		}, "reference-cache-listener");
+		_listener.setDaemon(true);
+		_listener.start();
+	}//end listen
+
+	public synchronized void close() {
+		_closed = true;
+		if (_listener != null) _listener.interrupt();
+	}
+
+	//payloads are table:id, as sent by the notify_reference_change trigger
+	private void apply(String payload) {
+		synchronized (this) {
+			++_notifications;
+		}
+		int colon = payload.indexOf(':');
+		try {
+			if (colon > 0) {
+				invalidate(payload.substring(0, colon), Integer.parseInt(payload.substring(colon + 1)));
+				return;
+			}//end if
+		} catch (NumberFormatException e) {
+			// unknown payload, dropped below.
+		}
+		invalidateAll();
+	}//end apply
+
+	/**
+	 * @return sizes and hit rates of the maps, on one line
+	 */
+	public String getStats() {
+		long notifications;
+		synchronized (this) {
+			notifications = _notifications;
+		}
+		return String.format("Reference cache: doctors %d (%d hits, %d misses), departments %d (%d hits, %d misses), "
+			+ "hospitals %d, department names %d (%d hits, %d misses), %d notifications",
+			_doctors.size(), _doctors.hits(), _doctors.misses(),
+			_departments.size(), _departments.hits(), _departments.misses(), _hospitals.size(),
+			_doctorsByDepartment.size(), _doctorsByDepartment.hits(), _doctorsByDepartment.misses(), notifications);
+	}
+
+	/**
+	 * @return the IDs as a PostgreSQL array literal, e.g. {1,2,3}, to bind to ?::int[]
+	 */
+	public static String arrayLiteral(int[] ids) {
+		StringBuilder sb = new StringBuilder("{");
+		for (int i = 0; i < ids.length; ++i) {
+			if (i > 0) sb.append(',');
+			sb.append(ids[i]);
+		}
+		return sb.append('}').toString();
+	}
+
+	private static int[] toArray(List<Integer> ids) {
+		int[] array = new int[ids.size()];
+		for (int i = 0; i < array.length; ++i)
+			array[i] = ids.get(i);
+		return array;
+	}
+
+	private static int parseInt(String s) {
+		return s == null ? -1 : Integer.parseInt(s.trim());
+	}
+}//end ReferenceCache
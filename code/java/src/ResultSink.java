@@ -0,0 +1,119 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class is the destination of a query result: the screen, a CSV file
+ * or a JSON-lines file.  A sink receives the column names once and then
+ * the rows one at a time, and writes them through a buffer, so a listing
+ * of any size costs a few large writes rather than one per cell.
+ *
+ * Values are Strings, Numbers, java.time dates or null.
+ *
+ */
+
+public abstract class ResultSink implements Closeable {
+	//size of the output buffer in characters
+	static final int BUFFER_SIZE = 1 << 16;
+
+	protected final Writer _out;
+	private final boolean _closeOut;
+	protected String[] _columns;
+	protected long _rows = 0;
+
+	protected ResultSink(Writer out, boolean closeOut) {
+		this._out = out;
+		this._closeOut = closeOut;
+	}
+
+	/**
+	 * Method to open a sink for a file name given by a user: blank for an
+	 * aligned table on standard out, *.csv for CSV and *.json or *.jsonl
+	 * for JSON lines.  Any other name gets an aligned table in that file.
+	 *
+	 * @param target the file name, or null or blank for the screen
+	 * @return the sink, to be closed once the result has been written
+	 * @throws java.io.IOException when the file could not be created
+	 */
+	public static ResultSink open(String target) throws IOException {
+		if (target == null || target.trim().isEmpty()) return toScreen();
+		String name = target.trim();
+		Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(name), StandardCharsets.UTF_8), BUFFER_SIZE);
+		String lower = name.toLowerCase();
+		if (lower.endsWith(".csv")) return new CsvSink(out, true);
+		if (lower.endsWith(".json") || lower.endsWith(".jsonl")) return new JsonLinesSink(out, true);
+		return new TableSink(out, true);
+	}//end open
+
+	/**
+	 * @return an aligned table on standard out, which closing only flushes
+	 */
+	public static ResultSink toScreen() {
+		return new TableSink(new BufferedWriter(new OutputStreamWriter(System.out), BUFFER_SIZE), false);
+	}
+
+	/**
+	 * @return a sink that only counts the rows, e.g. for benchmarks
+	 */
+	public static ResultSink discard() {
+		return new ResultSink(Writer.nullWriter(), false) {
+			public void row(Object[] values) {
+				++_rows;
+			}
+		};
+	}
+
+	/**
+	 * Method to start a result.
+	 *
+	 * @param columns the column names, in order
+	 */
+	public void begin(String[] columns) throws IOException {
+		this._columns = columns;
+	}
+
+	/**
+	 * Method to add one row.  The array may be reused by the caller once
+	 * the method returns.
+	 *
+	 * @param values one value per column
+	 */
+	public abstract void row(Object[] values) throws IOException;
+
+	/**
+	 * Method to finish a result and flush what is buffered.  A sink can
+	 * take another result after this.
+	 */
+	public void end() throws IOException {
+		_out.flush();
+	}
+
+	public long getRowCount() { return _rows; }
+
+	/**
+	 * @return the column names of the result begun, or null before the first one
+	 */
+	public String[] getColumns() { return _columns; }
+
+	public void close() throws IOException {
+		if (_closeOut) _out.close();
+		else _out.flush();
+	}
+}//end ResultSink
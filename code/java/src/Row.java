@@ -0,0 +1,84 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.time.LocalDate;
+
+/**
+ * This class gives typed access to the current row of a streamed query.
+ * One instance is reused for every row of a result, so a handler must copy
+ * out whatever it wants to keep before it returns.  Columns are numbered
+ * from 1, as in JDBC.
+ *
+ */
+
+public class Row {
+	private final ResultSet _rs;
+	private final ResultSetMetaData _meta;
+	private final int _columnCount;
+
+	Row(ResultSet rs) throws SQLException {
+		this._rs = rs;
+		this._meta = rs.getMetaData();
+		this._columnCount = _meta.getColumnCount();
+	}
+
+	public int getColumnCount() { return _columnCount; }
+
+	public String getColumnName(int column) throws SQLException {
+		return _meta.getColumnName(column);
+	}
+
+	/** @return the column names, in order */
+	public String[] getColumnNames() throws SQLException {
+		String[] names = new String[_columnCount];
+		for (int i = 0; i < _columnCount; ++i)
+			names[i] = _meta.getColumnName(i + 1);
+		return names;
+	}
+
+	/** @return the value as its natural Java type, with DATE as LocalDate, or null for SQL NULL */
+	public Object getValue(int column) throws SQLException {
+		Object value = _rs.getObject(column);
+		if (value instanceof java.sql.Date) return ((java.sql.Date) value).toLocalDate();
+		return value;
+	}
+
+	public boolean isNull(int column) throws SQLException {
+		return _rs.getObject(column) == null;
+	}
+
+	/** @return the value, or 0 for SQL NULL */
+	public int getInt(int column) throws SQLException { return _rs.getInt(column); }
+
+	/** @return the value, or 0 for SQL NULL */
+	public long getLong(int column) throws SQLException { return _rs.getLong(column); }
+
+	public String getString(int column) throws SQLException { return _rs.getString(column); }
+
+	public String getString(String column) throws SQLException { return _rs.getString(column); }
+
+	public int getInt(String column) throws SQLException { return _rs.getInt(column); }
+
+	/** @return the DATE value, or null for SQL NULL */
+	public LocalDate getDate(int column) throws SQLException {
+		return _rs.getObject(column, LocalDate.class);
+	}
+
+	/** @return the _STATUS value, or null for SQL NULL */
+	public AppointmentStatus getStatus(int column) throws SQLException {
+		return AppointmentStatus.parse(_rs.getString(column));
+	}
+}//end Row
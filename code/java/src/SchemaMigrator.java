@@ -0,0 +1,137 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class brings a database created by create.sql up to date with the
+ * versioned scripts of code/sql/migrations.  A script is named
+ * V<version>__<description>.sql; the scripts run in version order, each in
+ * its own transaction, and every script applied is recorded in the
+ * schema_version table with a checksum, so a script runs once per database
+ * and an edited script is reported instead of silently re-run.
+ *
+ */
+
+public class SchemaMigrator {
+	private static final Pattern SCRIPT = Pattern.compile("V(\\d+)__(\\w+)\\.sql");
+	//advisory lock key held while a script runs, so two processes never migrate at once
+	private static final long LOCK_KEY = 0x5c4e6d41L;
+
+	private final DBproject _db;
+	private final File _dir;
+
+	/**
+	 * @param db the database to migrate
+	 * @param dir the directory holding the scripts
+	 */
+	public SchemaMigrator(DBproject db, File dir) {
+		this._db = db;
+		this._dir = dir;
+	}
+
+	/**
+	 * Method to apply every script not yet recorded in schema_version.
+	 *
+	 * @return the number of scripts applied
+	 * @throws java.sql.SQLException when a script failed, it is rolled back and later scripts are not run
+	 */
+	public int migrate() throws SQLException {
+		_db.executeUpdate("CREATE TABLE IF NOT EXISTS schema_version ("
+			+ "version INTEGER NOT NULL, description VARCHAR(128) NOT NULL, checksum CHAR(64) NOT NULL, "
+			+ "applied_at TIMESTAMP NOT NULL DEFAULT now(), PRIMARY KEY (version))");
+		int applied = 0;
+		for (final File script : scripts().values()) {
+			Matcher m = SCRIPT.matcher(script.getName());
+			m.matches();
+			final int version = Integer.parseInt(m.group(1));
+			final String description = m.group(2).replace('_', ' ');
+			final String sql = read(script);
+			final String checksum = sha256(sql);
+			boolean ran = _db.executeTransaction(() -> {
+				_db.executeQueryAndReturnResult("SELECT pg_advisory_xact_lock(?)", LOCK_KEY);
+				List<List<String>> done = _db.executeQueryAndReturnResult("SELECT checksum FROM schema_version WHERE version = ?", version);
+				if (!done.isEmpty()) {
+					if (!done.get(0).get(0).equals(checksum))
+						System.err.println("Warning: " + script.getName() + " changed after it was applied");
+					return false;
+				}//end if
+				long start = System.nanoTime();
+				_db.executeWithConnection(c -> {
+					// a script holds several statements, which only a plain statement accepts
+					Statement stmt = c.createStatement();
+					try {
+						stmt.execute(sql);
+					} finally {
+						stmt.close();
+					}
+					return null;
+				});
+				_db.executeUpdate("INSERT INTO schema_version (version, description, checksum) VALUES (?, ?, ?)",
+					version, description, checksum);
+				System.out.println(String.format("Applied %s in %.2f s", script.getName(), (System.nanoTime() - start) / 1e9));
+				return true;
+			});
+			if (ran) ++applied;
+		}//end for
+		System.out.println(applied == 0 ? "Schema is up to date." : applied + " migration(s) applied.");
+		return applied;
+	}//end migrate
+
+	//scripts of the directory by version
+	private TreeMap<Integer, File> scripts() throws SQLException {
+		File[] files = _dir.listFiles();
+		if (files == null) throw new SQLException("Migration directory " + _dir + " not found");
+		TreeMap<Integer, File> scripts = new TreeMap<Integer, File>();
+		for (File file : files) {
+			Matcher m = SCRIPT.matcher(file.getName());
+			if (!m.matches()) continue;
+			File other = scripts.put(Integer.parseInt(m.group(1)), file);
+			if (other != null)
+				throw new SQLException("Migrations " + other.getName() + " and " + file.getName() + " have the same version");
+		}//end for
+		return scripts;
+	}//end scripts
+
+	private static String read(File script) throws SQLException {
+		try {
+			return new String(Files.readAllBytes(script.toPath()), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			throw new SQLException("Unable to read " + script + ": " + e.getMessage(), e);
+		}
+	}//end read
+
+	//checksum of a script, line endings aside
+	private static String sha256(String sql) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(sql.replace("\r\n", "\n").getBytes(StandardCharsets.UTF_8));
+			StringBuilder hex = new StringBuilder();
+			for (byte b : digest)
+				hex.append(String.format("%02x", b));
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}//end sha256
+}//end SchemaMigrator
@@ -0,0 +1,186 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class caches, per doctor and day, which opening hours are taken.
+ * Appointments start on the hour between 8:00 and 16:00 and end by 17:00,
+ * so a day fits in nine bits, bit h - 8 standing for the hour from h:00 to
+ * h+1:00.  Overlap checks and free-hour lookups are then bit operations.
+ *
+ * The cache only speeds things up: an entry is dropped after ttlMs, and
+ * inserts still check the table inside their transaction, so an entry that
+ * went stale because another process booked a slot cannot cause a double
+ * booking.
+ *
+ */
+
+public class SlotBitmapCache {
+	public static final int FIRST_HOUR = 8;
+	public static final int LAST_HOUR = 17;
+
+	private static final class Entry {
+		int taken;
+		final long loadedAt;
+		Entry(int taken, long loadedAt) {
+			this.taken = taken;
+			this.loadedAt = loadedAt;
+		}
+	}
+
+	private final DBproject _db;
+	private final long _ttlMs;
+	private final LinkedHashMap<Long, Entry> _days;
+
+	private long _hits = 0;
+	private long _misses = 0;
+
+	/**
+	 * @param db the database to load days from
+	 * @param capacity number of (doctor, day) entries kept
+	 * @param ttlMs how long an entry is trusted
+	 */
+	public SlotBitmapCache(DBproject db, final int capacity, long ttlMs) {
+		this._db = db;
+		this._ttlMs = ttlMs;
+		this._days = new LinkedHashMap<Long, Entry>(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Method to build the bit mask of a slot.
+	 *
+	 * @param start the first hour, FIRST_HOUR to LAST_HOUR - 1
+	 * @param end the hour the slot ends, start + 1 to LAST_HOUR
+	 * @return one bit per hour of the slot
+	 */
+	public static int mask(int start, int end) {
+		if (start < FIRST_HOUR || end > LAST_HOUR || end <= start)
+			throw new IllegalArgumentException("Invalid time slot " + start + ":00-" + end + ":00");
+		return ((1 << (end - start)) - 1) << (start - FIRST_HOUR);
+	}
+
+	/**
+	 * Method to write a slot the way the time_slot column stores it.
+	 *
+	 * @return e.g. 8:00-10:00 for 8 and 10
+	 */
+	public static String timeSlot(int start, int end) {
+		return start + ":00-" + end + ":00";
+	}
+
+	/**
+	 * Method to read a slot written on the hour, e.g. 8:00-10:00.
+	 *
+	 * @return the start and end hour
+	 * @throws IllegalArgumentException when the slot is malformed or not within the opening hours
+	 */
+	public static int[] hours(String timeSlot) {
+		String[] ends = timeSlot.trim().split("-");
+		if (ends.length != 2 || !ends[0].endsWith(":00") || !ends[1].endsWith(":00"))
+			throw new IllegalArgumentException("Invalid time slot " + timeSlot);
+		int[] hours = new int[2];
+		try {
+			hours[0] = Integer.parseInt(ends[0].substring(0, ends[0].length() - 3).trim());
+			hours[1] = Integer.parseInt(ends[1].substring(0, ends[1].length() - 3).trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid time slot " + timeSlot);
+		}
+		mask(hours[0], hours[1]);
+		return hours;
+	}
+
+	/**
+	 * Method to get the hours of a day that are taken.
+	 *
+	 * @return the bit mask of the taken hours
+	 * @throws java.sql.SQLException when the day had to be loaded and that failed
+	 */
+	public int taken(int doctorId, LocalDate day) throws SQLException {
+		long key = key(doctorId, day);
+		synchronized (this) {
+			Entry e = _days.get(key);
+			if (e != null && System.currentTimeMillis() - e.loadedAt < _ttlMs) {
+				++_hits;
+				return e.taken;
+			}//end if
+			++_misses;
+		}
+		final int[] taken = { 0 };
+		// an appointment ending at 10:30 takes the hour from 10:00 too
+		_db.executeQueryForEach("SELECT date_part('hour', lower(A.slot))::int, "
+			+ "ceil(date_part('epoch', upper(A.slot) - A.adate) / 3600)::int FROM Appointment A, has_appointment H "
+			+ "WHERE H.doctor_id = ? AND H.appt_id = A.appnt_ID AND A.adate = ? AND A.slot IS NOT NULL",
+			row -> taken[0] |= clippedMask(row.getInt(1), row.getInt(2)), doctorId, day);
+		synchronized (this) {
+			_days.put(key, new Entry(taken[0], System.currentTimeMillis()));
+		}
+		return taken[0];
+	}//end taken
+
+	/**
+	 * @return true if any hour of the slot is taken for the doctor that day
+	 */
+	public boolean overlaps(int doctorId, LocalDate day, int start, int end) throws SQLException {
+		return (taken(doctorId, day) & mask(start, end)) != 0;
+	}
+
+	/**
+	 * @return the start hours of the free one-hour slots of the doctor that day
+	 */
+	public List<Integer> freeHours(int doctorId, LocalDate day) throws SQLException {
+		int taken = taken(doctorId, day);
+		List<Integer> free = new ArrayList<Integer>();
+		for (int h = FIRST_HOUR; h < LAST_HOUR; ++h)
+			if ((taken & (1 << (h - FIRST_HOUR))) == 0) free.add(h);
+		return free;
+	}
+
+	/**
+	 * Method to record a slot that has just been inserted, if the day is cached.
+	 */
+	public synchronized void mark(int doctorId, LocalDate day, int start, int end) {
+		Entry e = _days.get(key(doctorId, day));
+		if (e != null) e.taken |= mask(start, end);
+	}
+
+	/**
+	 * Method to forget a day, e.g. after one of its appointments was removed.
+	 */
+	public synchronized void invalidate(int doctorId, LocalDate day) {
+		_days.remove(key(doctorId, day));
+	}
+
+	public synchronized long getHits() { return _hits; }
+	public synchronized long getMisses() { return _misses; }
+
+	private static long key(int doctorId, LocalDate day) {
+		return ((long) doctorId << 32) | (day.toEpochDay() & 0xffffffffL);
+	}
+
+	//mask of a stored slot, tolerating slots outside the opening hours
+	private static int clippedMask(int start, int end) {
+		start = Math.max(start, FIRST_HOUR);
+		end = Math.min(end, LAST_HOUR);
+		return end > start ? mask(start, end) : 0;
+	}
+}//end SlotBitmapCache
@@ -0,0 +1,104 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.postgresql.PGStatement;
+
+/**
+ * This class keeps a bounded, least-recently-used cache of prepared
+ * statements for one physical connection.  Statements are keyed by their
+ * SQL template (the text with '?' placeholders), so a template is parsed
+ * once per connection and switched to a named server-side statement after
+ * it has been executed prepareThreshold times.
+ *
+ */
+
+public class StatementCache {
+	private final Connection _connection;
+	private final int _capacity;
+	private final int _prepareThreshold;
+	private final LinkedHashMap<String, PreparedStatement> _statements;
+
+	private long _hits = 0;
+	private long _misses = 0;
+	private long _evictions = 0;
+
+	public StatementCache(Connection connection, int capacity, int prepareThreshold) {
+		this._connection = connection;
+		this._capacity = capacity;
+		this._prepareThreshold = prepareThreshold;
+		// access order, so the eldest entry is the least recently used one
+		this._statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+				if (size() <= _capacity) return false;
+				++_evictions;
+				closeQuietly(eldest.getValue());
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Method to fetch the prepared statement for a SQL template, preparing
+	 * and caching it on a miss.  Parameters of a cached statement are
+	 * cleared before it is handed out again.
+	 *
+	 * @param sql the SQL template
+	 * @return a prepared statement owned by this cache, callers must not close it
+	 * @throws java.sql.SQLException when the statement could not be prepared
+	 */
+	public synchronized PreparedStatement prepare(String sql) throws SQLException {
+		PreparedStatement stmt = this._statements.get(sql);
+		if (stmt != null && !stmt.isClosed()) {
+			++_hits;
+			stmt.clearParameters();
+			return stmt;
+		}//end if
+		++_misses;
+		stmt = this._connection.prepareStatement(sql);
+		stmt.unwrap(PGStatement.class).setPrepareThreshold(this._prepareThreshold);
+		this._statements.put(sql, stmt);
+		return stmt;
+	}//end prepare
+
+	/**
+	 * Method to close every cached statement.
+	 */
+	public synchronized void close() {
+		Iterator<PreparedStatement> it = this._statements.values().iterator();
+		while (it.hasNext()) {
+			closeQuietly(it.next());
+			it.remove();
+		}//end while
+	}//end close
+
+	public synchronized long getHits() { return _hits; }
+	public synchronized long getMisses() { return _misses; }
+	public synchronized long getEvictions() { return _evictions; }
+	public synchronized int size() { return _statements.size(); }
+	public int capacity() { return _capacity; }
+
+	private static void closeQuietly(PreparedStatement stmt) {
+		try {
+			stmt.close();
+		}catch (SQLException e) {
+			// ignored.
+		}
+	}
+}//end StatementCache
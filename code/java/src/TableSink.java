@@ -0,0 +1,92 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class writes a result as a table with aligned columns.  Rows are
+ * held back a page at a time to measure the columns; a column only ever
+ * grows, so later pages stay aligned with earlier ones as long as their
+ * values fit.
+ *
+ */
+
+public class TableSink extends ResultSink {
+	//rows measured before they are written
+	static final int PAGE_SIZE = 256;
+
+	private final List<String[]> _page = new ArrayList<String[]>();
+	private int[] _widths;
+	private boolean _headerWritten;
+
+	public TableSink(Writer out, boolean closeOut) {
+		super(out, closeOut);
+	}
+
+	public void begin(String[] columns) throws IOException {
+		super.begin(columns);
+		_widths = new int[columns.length];
+		for (int i = 0; i < columns.length; ++i)
+			_widths[i] = columns[i].length();
+		_headerWritten = false;
+	}
+
+	public void row(Object[] values) throws IOException {
+		String[] cells = new String[values.length];
+		for (int i = 0; i < values.length; ++i) {
+			cells[i] = String.valueOf(values[i]);
+			if (cells[i].length() > _widths[i]) _widths[i] = cells[i].length();
+		}//end for
+		_page.add(cells);
+		++_rows;
+		if (_page.size() == PAGE_SIZE) flushPage();
+	}
+
+	public void end() throws IOException {
+		flushPage();
+		if (_rows == 0) _out.write("(no rows)" + System.lineSeparator());
+		super.end();
+	}
+
+	private void flushPage() throws IOException {
+		if (_page.isEmpty()) return;
+		if (!_headerWritten) {
+			writeLine(_columns);
+			StringBuilder rule = new StringBuilder();
+			for (int i = 0; i < _widths.length; ++i) {
+				if (i > 0) rule.append("-+-");
+				for (int k = 0; k < _widths[i]; ++k) rule.append('-');
+			}//end for
+			_out.write(rule.append(System.lineSeparator()).toString());
+			_headerWritten = true;
+		}//end if
+		for (String[] cells : _page)
+			writeLine(cells);
+		_page.clear();
+	}//end flushPage
+
+	private void writeLine(String[] cells) throws IOException {
+		StringBuilder line = new StringBuilder();
+		for (int i = 0; i < cells.length; ++i) {
+			if (i > 0) line.append(" | ");
+			line.append(cells[i]);
+			// no padding after the last column
+			if (i < cells.length - 1)
+				for (int k = cells[i].length(); k < _widths[i]; ++k) line.append(' ');
+		}//end for
+		_out.write(line.append(System.lineSeparator()).toString());
+	}//end writeLine
+}//end TableSink
@@ -0,0 +1,230 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * This class mirrors, for the appointments asked about recently, the queue
+ * of patients waiting for each of them (the waitlist table of
+ * V004__appointment_waitlist.sql).  A queue is a heap ordered by the
+ * position the patient queued at, so its head is read in constant time and
+ * taken off in O(log n) when a cancellation promotes it.
+ *
+ * The table stays the authority: bookings and cancellations run in the
+ * DBMS and this class only applies their outcome to the queues it holds.
+ * A queue is dropped after ttlMs, so what other processes change shows up
+ * once it is loaded again.  A queue whose load overlapped a booking or
+ * cancellation of the appointment here is returned but not kept, since it
+ * may hold the rows from before it.  A patient's place in a queue is not
+ * read from the heap, which keeps no ranks and may be stale, but from the
+ * table, through the waitlist_queue index.
+ *
+ */
+
+public class WaitlistQueue {
+
+	/**
+	 * The outcome of a cancellation: the status the appointment is left in
+	 * and the patient booked in place of the one who cancelled.
+	 */
+	public static final class Cancellation {
+		public final String status;
+		public final int promoted;
+
+		Cancellation(String status, int promoted) {
+			this.status = status;
+			this.promoted = promoted;
+		}
+	}//end Cancellation
+
+	private static final class Waiter implements Comparable<Waiter> {
+		final int patientId;
+		final long position;
+		Waiter(int patientId, long position) {
+			this.patientId = patientId;
+			this.position = position;
+		}
+		public int compareTo(Waiter other) {
+			return Long.compare(position, other.position);
+		}
+	}
+
+	private static final class Queue {
+		final PriorityQueue<Waiter> waiters = new PriorityQueue<Waiter>();
+		final long loadedAt;
+		Queue(long loadedAt) {
+			this.loadedAt = loadedAt;
+		}
+	}
+
+	//the loads of one appointment's queue in flight and the version they must find to install what they read
+	private static final class Loading {
+		long version = 0;
+		int loads = 0;
+	}
+
+	//rank of a patient in a queue: the entries up to theirs, an index range read of waitlist_queue (appt_id, position)
+	static final String SQL_POSITION = "SELECT COUNT(*) FROM waitlist W WHERE W.appt_id = ? "
+		+ "AND W.position <= (SELECT P.position FROM waitlist P WHERE P.appt_id = ? AND P.pid = ?)";
+
+	private final DBproject _db;
+	private final long _ttlMs;
+	private final LinkedHashMap<Integer, Queue> _queues;
+	private final Map<Integer, Loading> _loading = new HashMap<Integer, Loading>();
+
+	private long _hits = 0;
+	private long _misses = 0;
+
+	/**
+	 * @param db the database to load queues from
+	 * @param capacity number of appointments whose queue is kept
+	 * @param ttlMs how long a queue is trusted
+	 */
+	public WaitlistQueue(DBproject db, final int capacity, long ttlMs) {
+		this._db = db;
+		this._ttlMs = ttlMs;
+		this._queues = new LinkedHashMap<Integer, Queue>(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<Integer, Queue> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Method to list the patients waiting for an appointment.
+	 *
+	 * @return their IDs, the next one to be booked first
+	 * @throws java.sql.SQLException when the queue had to be loaded and that failed
+	 */
+	public List<Integer> waiting(int apptId) throws SQLException {
+		Queue queue = queue(apptId);
+		PriorityQueue<Waiter> copy;
+		synchronized (this) {
+			copy = new PriorityQueue<Waiter>(queue.waiters);
+		}
+		List<Integer> ids = new ArrayList<Integer>(copy.size());
+		while (!copy.isEmpty())
+			ids.add(copy.poll().patientId);
+		return ids;
+	}//end waiting
+
+	/**
+	 * @return the patient who gets the appointment if it is cancelled, or -1 if nobody waits for it
+	 */
+	public int next(int apptId) throws SQLException {
+		Queue queue = queue(apptId);
+		synchronized (this) {
+			Waiter head = queue.waiters.peek();
+			return head == null ? -1 : head.patientId;
+		}
+	}
+
+	/**
+	 * Method to find where a patient stands in the queue of an appointment,
+	 * read from the table so it is never stale.  The patient's entry is
+	 * found through the primary key and the entries up to it are counted
+	 * over one range of waitlist_queue.
+	 *
+	 * @return 1 for the next patient to be booked, 0 if the patient does not wait for it
+	 * @throws java.sql.SQLException when the lookup failed
+	 */
+	public int position(int patientId, int apptId) throws SQLException {
+		return (int) _db.queryForLong(SQL_POSITION, apptId, apptId, patientId);
+	}
+
+	/**
+	 * Method to record a booking that left the patient waiting.  The
+	 * position they got is not known here, so the queue is loaded again.
+	 */
+	public synchronized void queued(int apptId) {
+		changed(apptId);
+		_queues.remove(apptId);
+	}
+
+	/**
+	 * Method to apply the outcome of cancel_appointment to the queue.
+	 * Inside a transaction, which may still roll back, the queue is only
+	 * dropped.
+	 *
+	 * @param patientId the patient who cancelled
+	 * @param status the status of the appointment afterwards, null when there was nothing to cancel
+	 * @param promoted the patient booked in their place, null when nobody was
+	 * @return the outcome
+	 */
+	public synchronized Cancellation cancelled(int apptId, final int patientId, String status, String promoted) {
+		Cancellation outcome = new Cancellation(status, promoted == null ? -1 : Integer.parseInt(promoted));
+		if (status == null) return outcome;
+		changed(apptId);
+		Queue queue = _queues.get(apptId);
+		if (queue == null) return outcome;
+		if (_db.inTransaction()) {
+			_queues.remove(apptId);
+			return outcome;
+		}//end if
+		if (outcome.promoted >= 0) {
+			Waiter head = queue.waiters.peek();
+			if (head != null && head.patientId == outcome.promoted) queue.waiters.poll();
+			else _queues.remove(apptId);
+		} else {
+			queue.waiters.removeIf(w -> w.patientId == patientId);
+		}
+		return outcome;
+	}//end cancelled
+
+	public synchronized String getStats() {
+		return String.format("Waitlist cache: %d queues, %d hits, %d misses", _queues.size(), _hits, _misses);
+	}
+
+	//makes the loads of the appointment's queue in flight, which may have read the rows from before the change, drop what they read
+	private void changed(int apptId) {
+		Loading loading = _loading.get(apptId);
+		if (loading != null) ++loading.version;
+	}
+
+	//the queue of an appointment, loaded when it is not held or has expired
+	private Queue queue(final int apptId) throws SQLException {
+		final Loading loading;
+		final long version;
+		synchronized (this) {
+			Queue queue = _queues.get(apptId);
+			if (queue != null && System.currentTimeMillis() - queue.loadedAt < _ttlMs) {
+				++_hits;
+				return queue;
+			}//end if
+			++_misses;
+			loading = _loading.computeIfAbsent(apptId, id -> new Loading());
+			++loading.loads;
+			version = loading.version;
+		}
+		final Queue loaded = new Queue(System.currentTimeMillis());
+		try {
+			_db.executeQueryForEach("SELECT pid, position FROM waitlist WHERE appt_id = ?",
+				row -> loaded.waiters.add(new Waiter(row.getInt(1), row.getLong(2))), apptId);
+			synchronized (this) {
+				// a booking or cancellation since the load started may not be in what it read
+				if (loading.version == version) _queues.put(apptId, loaded);
+			}
+		} finally {
+			synchronized (this) {
+				if (--loading.loads == 0) _loading.remove(apptId);
+			}
+		}
+		return loaded;
+	}
+}//end WaitlistQueue
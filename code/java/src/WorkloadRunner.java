@@ -0,0 +1,338 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class runs a workload file of menu operations without the menu, on
+ * a number of threads sharing the connection pool, and reports the
+ * throughput and latency of every kind of operation.
+ *
+ * A file holds one operation per line, as JSON (one object with an "op"
+ * field and named arguments) or as CSV (the operation followed by its
+ * arguments in the order of OPERATIONS); the file extension .json or
+ * .jsonl selects JSON.  Blank lines and lines starting with # are skipped.
+ * Dates are M/D/YYYY or YYYY-MM-DD.  For example:
+ *
+ *   {"op": "make-appointment", "patient": 12, "doctor": 3, "appointment": 40}
+ *   list-doctor,3,1/1/2020,12/31/2020
+ *
+ */
+
+public class WorkloadRunner {
+	//every operation and the names of its arguments, in CSV order
+	static final String[][] OPERATIONS = {
+		{ "add-doctor", "name", "specialty", "did" },
+		{ "add-patient", "name", "gender", "age", "address" },
+		{ "add-appointment", "doctor", "date", "start", "end" },
+		{ "make-appointment", "patient", "doctor", "appointment" },
+		{ "list-doctor", "doctor", "from", "to" },
+		{ "list-department", "department", "date" },
+		{ "report-status", },
+		{ "report-patients", "status" },
+		{ "free-hours", "doctor", "date" },
+		{ "cancel-appointment", "patient", "appointment" },
+		{ "waitlist-position", "patient", "appointment" },
+	};
+
+	private final DBproject _db;
+	private final int _threads;
+	private final Map<String, String[]> _operations = new HashMap<String, String[]>();
+	//latency and errors per operation, in the order first seen
+	private final Map<String, LatencyHistogram> _latency = new ConcurrentHashMap<String, LatencyHistogram>();
+	private final Map<String, AtomicLong> _errors = new ConcurrentHashMap<String, AtomicLong>();
+	private final Map<String, String> _firstError = new ConcurrentHashMap<String, String>();
+
+	/**
+	 * @param db the database
+	 * @param threads number of operations run at the same time
+	 */
+	public WorkloadRunner(DBproject db, int threads) {
+		this._db = db;
+		this._threads = threads;
+		for (String[] op : OPERATIONS)
+			_operations.put(op[0], op);
+	}
+
+	/**
+	 * Method to run every operation of a workload file and print a report.
+	 *
+	 * @param file the workload
+	 * @return the number of operations that failed
+	 * @throws java.io.IOException when the file could not be read
+	 */
+	public long run(File file) throws IOException {
+		boolean json = file.getName().toLowerCase().matches(".*\\.jsonl?");
+		// a full queue makes the reader run the operation itself, which holds the file back
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(_threads, _threads, 0, TimeUnit.MILLISECONDS,
+			new ArrayBlockingQueue<Runnable>(4 * _threads), new ThreadPoolExecutor.CallerRunsPolicy());
+		long start = System.nanoTime();
+		long lineNo = 0;
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8), 1 << 16)) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				++lineNo;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) continue;
+				final Map<String, String> args;
+				try {
+					args = json ? parseJson(line) : parseCsv(line);
+				} catch (IllegalArgumentException e) {
+					failed("invalid", "line " + lineNo + ": " + e.getMessage());
+					continue;
+				}
+				executor.execute(() -> timed(args));
+			}//end while
+		} finally {
+			executor.shutdown();
+			try {
+				executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		return report(seconds);
+	}//end run
+
+	//runs one operation and records how long it took
+	private void timed(Map<String, String> args) {
+		String op = args.get("op");
+		long start = System.nanoTime();
+		try {
+			execute(op, args);
+			histogram(op).record(System.nanoTime() - start);
+		} catch (SQLException | RuntimeException e) {
+			histogram(op).record(System.nanoTime() - start);
+			failed(op, e.getMessage());
+		}
+	}//end timed
+
+	private void execute(String op, Map<String, String> a) throws SQLException {
+		switch (op) {
+			case "add-doctor": _db.addDoctor(a.get("name"), a.get("specialty"), integer(a, "did")); break;
+			case "add-patient": _db.addPatient(a.get("name"), a.get("gender"), integer(a, "age"), a.get("address")); break;
+			case "add-appointment": _db.addAppointment(integer(a, "doctor"), date(a, "date"), integer(a, "start"), integer(a, "end")); break;
+			case "make-appointment": _db.bookAppointment(integer(a, "patient"), integer(a, "doctor"), integer(a, "appointment")); break;
+			case "list-doctor":
+				_db.listAppointmentsOfDoctor(integer(a, "doctor"), date(a, "from"), date(a, "to"), null, DBproject.LIST_PAGE_SIZE, ResultSink.discard());
+				break;
+			case "list-department":
+				_db.listAvailableAppointmentsOfDepartment(a.get("department"), date(a, "date"), null, DBproject.LIST_PAGE_SIZE, ResultSink.discard());
+				break;
+			case "report-status": _db.reportStatusPerDoctor(ResultSink.discard()); break;
+			case "report-patients": {
+				AppointmentStatus status = AppointmentStatus.parse(a.get("status"));
+				if (status == null) throw new IllegalArgumentException("Invalid status " + a.get("status"));
+				_db.reportPatientsWithStatus(status, ResultSink.discard());
+				break;
+			}
+			case "free-hours": _db.freeHours(integer(a, "doctor"), date(a, "date")); break;
+			case "cancel-appointment": _db.cancelAppointment(integer(a, "patient"), integer(a, "appointment")); break;
+			case "waitlist-position": _db.waitlistPosition(integer(a, "patient"), integer(a, "appointment")); break;
+			default: throw new IllegalArgumentException("Unknown operation " + op);
+		}
+	}//end execute
+
+	private long report(double seconds) {
+		long total = 0, errors = 0;
+		LatencyHistogram all = new LatencyHistogram();
+		System.out.println(String.format("%-18s %9s %7s %10s %10s %10s %10s %10s", "operation", "count", "errors", "ops/s", "mean ms", "p50 ms", "p99 ms", "max ms"));
+		for (Map.Entry<String, LatencyHistogram> e : new java.util.TreeMap<String, LatencyHistogram>(_latency).entrySet()) {
+			LatencyHistogram h = e.getValue();
+			long failed = _errors.containsKey(e.getKey()) ? _errors.get(e.getKey()).get() : 0;
+			System.out.println(line(e.getKey(), h, failed, seconds));
+			all.add(h);
+			total += h.getCount();
+			errors += failed;
+		}//end for
+		System.out.println(line("all", all, errors, seconds));
+		if (_errors.containsKey("invalid")) {
+			errors += _errors.get("invalid").get();
+			System.out.println(_errors.get("invalid").get() + " line(s) could not be read");
+		}//end if
+		for (Map.Entry<String, String> e : _firstError.entrySet())
+			System.out.println("first error of " + e.getKey() + ": " + e.getValue());
+		System.out.println(String.format("%d operations in %.2f s on %d thread(s)", total, seconds, _threads));
+		return errors;
+	}//end report
+
+	private static String line(String op, LatencyHistogram h, long errors, double seconds) {
+		return String.format("%-18s %9d %7d %10.1f %10.3f %10.3f %10.3f %10.3f", op, h.getCount(), errors, h.getCount() / seconds,
+			h.getMean() / 1e6, h.percentile(50) / 1e6, h.percentile(99) / 1e6, h.getMax() / 1e6);
+	}
+
+	private LatencyHistogram histogram(String op) {
+		return _latency.computeIfAbsent(op, k -> new LatencyHistogram());
+	}
+
+	private void failed(String op, String message) {
+		_errors.computeIfAbsent(op, k -> new AtomicLong()).incrementAndGet();
+		_firstError.putIfAbsent(op, String.valueOf(message));
+	}
+
+	private static int integer(Map<String, String> args, String name) {
+		String value = args.get(name);
+		if (value == null) throw new IllegalArgumentException("Missing " + name);
+		return Integer.parseInt(value.trim());
+	}
+
+	private static LocalDate date(Map<String, String> args, String name) {
+		String value = args.get(name);
+		if (value == null) throw new IllegalArgumentException("Missing " + name);
+		value = value.trim();
+		return value.indexOf('/') >= 0 ? LocalDate.parse(value, DBproject.DATE_FORMAT) : LocalDate.parse(value);
+	}
+
+	//a CSV line: the operation, then its arguments by position
+	private Map<String, String> parseCsv(String line) {
+		List<String> fields = new ArrayList<String>();
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); ++i) {
+			char c = line.charAt(i);
+			if (quoted) {
+				if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') { field.append('"'); ++i; }
+				else if (c == '"') quoted = false;
+				else field.append(c);
+			} else if (c == '"') {
+				quoted = true;
+			} else if (c == ',') {
+				fields.add(field.toString());
+				field.setLength(0);
+			} else {
+				field.append(c);
+			}
+		}//end for
+		fields.add(field.toString());
+
+		String[] op = _operations.get(fields.get(0).trim());
+		if (op == null) throw new IllegalArgumentException("Unknown operation " + fields.get(0));
+		if (fields.size() != op.length) throw new IllegalArgumentException(op[0] + " takes " + (op.length - 1) + " argument(s)");
+		Map<String, String> args = new LinkedHashMap<String, String>();
+		args.put("op", op[0]);
+		for (int i = 1; i < op.length; ++i)
+			args.put(op[i], fields.get(i));
+		return args;
+	}//end parseCsv
+
+	private static Map<String, String> parseJson(String line) {
+		Map<String, String> fields = parseJsonObject(line);
+		if (fields.get("op") == null) throw new IllegalArgumentException("No op");
+		return fields;
+	}
+
+	/**
+	 * Method to read a flat JSON object, the only JSON a workload or a
+	 * request body holds.  Values are returned as text; nested objects and
+	 * arrays are refused.
+	 *
+	 * @param line the object
+	 * @return its fields, null values left out
+	 * @throws IllegalArgumentException when the line is not a flat JSON object
+	 */
+	static Map<String, String> parseJsonObject(String line) {
+		Map<String, String> fields = new LinkedHashMap<String, String>();
+		int[] pos = { 0 };
+		skipSpace(line, pos);
+		expect(line, pos, '{');
+		skipSpace(line, pos);
+		if (peek(line, pos) == '}') {
+			++pos[0];
+		} else {
+			while (true) {
+				skipSpace(line, pos);
+				String key = jsonString(line, pos);
+				skipSpace(line, pos);
+				expect(line, pos, ':');
+				skipSpace(line, pos);
+				String value;
+				char c = peek(line, pos);
+				if (c == '"') {
+					value = jsonString(line, pos);
+				} else {
+					int start = pos[0];
+					while (pos[0] < line.length() && ",} \t".indexOf(line.charAt(pos[0])) < 0)
+						++pos[0];
+					value = line.substring(start, pos[0]);
+					if (value.isEmpty() || c == '{' || c == '[') throw new IllegalArgumentException("Unsupported value for " + key);
+					if (value.equals("null")) value = null;
+				}
+				if (value != null) fields.put(key, value);
+				skipSpace(line, pos);
+				if (peek(line, pos) == ',') { ++pos[0]; continue; }
+				expect(line, pos, '}');
+				break;
+			}//end while
+		}
+		return fields;
+	}//end parseJsonObject
+
+	private static String jsonString(String s, int[] pos) {
+		expect(s, pos, '"');
+		StringBuilder out = new StringBuilder();
+		while (true) {
+			if (pos[0] >= s.length()) throw new IllegalArgumentException("Unterminated string");
+			char c = s.charAt(pos[0]++);
+			if (c == '"') return out.toString();
+			if (c != '\\') { out.append(c); continue; }
+			if (pos[0] >= s.length()) throw new IllegalArgumentException("Unterminated string");
+			char e = s.charAt(pos[0]++);
+			switch (e) {
+				case 'n': out.append('\n'); break;
+				case 't': out.append('\t'); break;
+				case 'r': out.append('\r'); break;
+				case 'b': out.append('\b'); break;
+				case 'f': out.append('\f'); break;
+				case 'u':
+					if (pos[0] + 4 > s.length()) throw new IllegalArgumentException("Bad escape");
+					out.append((char) Integer.parseInt(s.substring(pos[0], pos[0] + 4), 16));
+					pos[0] += 4;
+					break;
+				default: out.append(e);
+			}
+		}//end while
+	}//end jsonString
+
+	private static void skipSpace(String s, int[] pos) {
+		while (pos[0] < s.length() && Character.isWhitespace(s.charAt(pos[0])))
+			++pos[0];
+	}
+
+	private static char peek(String s, int[] pos) {
+		if (pos[0] >= s.length()) throw new IllegalArgumentException("Unexpected end of line");
+		return s.charAt(pos[0]);
+	}
+
+	private static void expect(String s, int[] pos, char c) {
+		if (peek(s, pos) != c) throw new IllegalArgumentException("Expected " + c + " at " + pos[0]);
+		++pos[0];
+	}
+}//end WorkloadRunner
@@ -1,13 +1,23 @@
 DROP TABLE IF EXISTS Hospital CASCADE;--OK
 DROP TABLE IF EXISTS Patient CASCADE;--OK
 DROP TABLE IF EXISTS Department CASCADE;--OK
+-- also drops the archive and monthly partitions of V003
 DROP TABLE IF EXISTS Appointment CASCADE;--OK
+DROP TABLE IF EXISTS appointment_key CASCADE;--OK
 DROP TABLE IF EXISTS Doctor CASCADE;--OK
 DROP TABLE IF EXISTS Staff CASCADE;--OK
 DROP TABLE IF EXISTS has_appointment CASCADE;--OK
 DROP TABLE IF EXISTS request_maintenance CASCADE;--OK
 DROP TABLE IF EXISTS searches CASCADE;--OK
 DROP TABLE IF EXISTS schedules CASCADE;--OK
+DROP TABLE IF EXISTS doctor_status_count CASCADE;--OK
+DROP TABLE IF EXISTS waitlist CASCADE;--OK
+-- a fresh schema needs every migration of code/sql/migrations again
+DROP TABLE IF EXISTS schema_version CASCADE;--OK
+DROP SEQUENCE IF EXISTS doctor_id_seq;--OK
+DROP SEQUENCE IF EXISTS patient_id_seq;--OK
+DROP SEQUENCE IF EXISTS appointment_id_seq;--OK
+DROP SEQUENCE IF EXISTS waitlist_position_seq;--OK
 
 
 -------------
@@ -74,9 +84,19 @@ CREATE TABLE Appointment
 	adate DATE NOT NULL,
 	time_slot VARCHAR(11),
 	status _STATUS,
+	-- time_slot as a range, e.g. [2020-01-13 08:00, 2020-01-13 10:00), for overlap checks
+	slot TSRANGE GENERATED ALWAYS AS (CASE WHEN time_slot IS NULL THEN NULL ELSE tsrange(
+		adate + make_time(split_part(split_part(time_slot, '-', 1), ':', 1)::int, split_part(split_part(time_slot, '-', 1), ':', 2)::int, 0),
+		adate + make_time(split_part(split_part(time_slot, '-', 2), ':', 1)::int, split_part(split_part(time_slot, '-', 2), ':', 2)::int, 0)) END) STORED,
 	PRIMARY KEY (appnt_ID)
 );
 
+-- Overlapping slots are only a conflict for the same doctor, and doctors are
+-- linked through has_appointment, so no exclusion constraint fits; inserts
+-- check for overlaps under a lock on the doctor row (DBproject.addAppointment)
+-- and this index serves those checks.
+CREATE INDEX appointment_slot ON Appointment USING GIST (slot);
+
 
 
 ---------------
@@ -124,6 +144,14 @@ CREATE TABLE has_appointment
 	FOREIGN KEY (doctor_id) REFERENCES Doctor(doctor_ID)
 );
 
+---------------
+---SEQUENCES---
+---------------
+-- Keys are handed out in blocks of 50 (hi/lo), see KeyAllocator.java
+CREATE SEQUENCE doctor_id_seq INCREMENT BY 50 MINVALUE 0;
+CREATE SEQUENCE patient_id_seq INCREMENT BY 50 MINVALUE 0;
+CREATE SEQUENCE appointment_id_seq INCREMENT BY 50 MINVALUE 0;
+
 ----------------------------
 -- INSERT DATA STATEMENTS --
 ----------------------------
@@ -221,3 +249,108 @@ COPY has_appointment (
 FROM 'has_appointment.csv'
 WITH DELIMITER ',';
 
+-- Start the key sequences past the loaded data
+SELECT setval('doctor_id_seq', (SELECT COALESCE(MAX(doctor_ID) + 1, 0) FROM Doctor), false);
+SELECT setval('patient_id_seq', (SELECT COALESCE(MAX(patient_ID) + 1, 0) FROM Patient), false);
+SELECT setval('appointment_id_seq', (SELECT COALESCE(MAX(appnt_ID) + 1, 0) FROM Appointment), false);
+
+--------------------------
+---APPOINTMENT COUNTERS---
+--------------------------
+-- Number of has_appointment rows per doctor and appointment status, kept
+-- up to date by triggers so option 8 is a single indexed read.  A drift
+-- check and rebuild is available from the menu (DBproject.verifyStatusCounters).
+CREATE TABLE doctor_status_count
+(
+	status _STATUS NOT NULL,
+	doctor_id INTEGER NOT NULL,
+	cnt INTEGER NOT NULL,
+	PRIMARY KEY (status,doctor_id),
+	FOREIGN KEY (doctor_id) REFERENCES Doctor(doctor_ID)
+);
+
+CREATE OR REPLACE FUNCTION bump_doctor_status(p_doctor INTEGER, p_status VARCHAR, p_delta INTEGER)
+RETURNS void AS $$
+BEGIN
+	IF p_status IS NULL OR p_delta = 0 THEN
+		RETURN;
+	END IF;
+	INSERT INTO doctor_status_count AS C (status, doctor_id, cnt)
+	VALUES (p_status, p_doctor, p_delta)
+	ON CONFLICT (status, doctor_id) DO UPDATE SET cnt = C.cnt + EXCLUDED.cnt;
+END;
+$$ LANGUAGE plpgsql;
+
+-- a doctor gains or loses an appointment in its current status
+CREATE OR REPLACE FUNCTION has_appointment_counts()
+RETURNS trigger AS $$
+BEGIN
+	IF TG_OP IN ('UPDATE', 'DELETE') THEN
+		PERFORM bump_doctor_status(OLD.doctor_id, (SELECT status FROM Appointment WHERE appnt_ID = OLD.appt_id), -1);
+	END IF;
+	IF TG_OP IN ('INSERT', 'UPDATE') THEN
+		PERFORM bump_doctor_status(NEW.doctor_id, (SELECT status FROM Appointment WHERE appnt_ID = NEW.appt_id), 1);
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- an appointment moves every doctor linked to it from the old status to the new one
+CREATE OR REPLACE FUNCTION appointment_status_counts()
+RETURNS trigger AS $$
+BEGIN
+	PERFORM bump_doctor_status(H.doctor_id, OLD.status, -1), bump_doctor_status(H.doctor_id, NEW.status, 1)
+	FROM has_appointment H
+	WHERE H.appt_id = NEW.appnt_ID;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER has_appointment_counts
+AFTER INSERT OR UPDATE OR DELETE ON has_appointment
+FOR EACH ROW EXECUTE PROCEDURE has_appointment_counts();
+
+CREATE TRIGGER appointment_status_counts
+AFTER UPDATE OF status ON Appointment
+FOR EACH ROW WHEN (OLD.status IS DISTINCT FROM NEW.status)
+EXECUTE PROCEDURE appointment_status_counts();
+
+INSERT INTO doctor_status_count (status, doctor_id, cnt)
+SELECT A.status, H.doctor_id, COUNT(*)
+FROM has_appointment H, Appointment A
+WHERE H.appt_id = A.appnt_ID AND A.status IS NOT NULL
+GROUP BY A.status, H.doctor_id;
+
+-------------
+---BOOKING---
+-------------
+-- Books appointment p_appt for patient p_pid with doctor p_doctor in one
+-- transaction: AV becomes AC, AC becomes WL and WL stays WL.  The patient's
+-- number_of_appts goes up by one for every new search it records; a full
+-- recount is done by DBproject.reconcileAppointmentCounts.  The row lock
+-- makes concurrent bookings of one appointment wait for each other, so a
+-- slot is never handed out twice.  Returns the new status, or NULL when the
+-- appointment does not exist, has passed or is not one of p_doctor's.
+CREATE OR REPLACE FUNCTION make_appointment(p_pid INTEGER, p_doctor INTEGER, p_appt INTEGER)
+RETURNS VARCHAR AS $$
+DECLARE
+	v_status VARCHAR(2);
+	v_next VARCHAR(2);
+BEGIN
+	SELECT A.status INTO v_status FROM Appointment A JOIN has_appointment H ON H.appt_id = A.appnt_ID
+	WHERE A.appnt_ID = p_appt AND H.doctor_id = p_doctor FOR UPDATE;
+	IF v_status IS NULL OR v_status NOT IN ('AV', 'AC', 'WL') THEN
+		RETURN NULL;
+	END IF;
+	v_next := CASE v_status WHEN 'AV' THEN 'AC' ELSE 'WL' END;
+	IF v_next <> v_status THEN
+		UPDATE Appointment SET status = v_next WHERE appnt_ID = p_appt;
+	END IF;
+	INSERT INTO searches VALUES (0, p_pid, p_appt) ON CONFLICT DO NOTHING;
+	IF FOUND THEN
+		UPDATE Patient SET number_of_appts = COALESCE(number_of_appts, 0) + 1
+		WHERE patient_ID = p_pid;
+	END IF;
+	RETURN v_next;
+END;
+$$ LANGUAGE plpgsql;
@@ -0,0 +1,32 @@
+-- Indexes for the menu queries, which otherwise scan every table they touch.
+-- DBproject.explainCheck verifies that none of them falls back to a Seq Scan.
+
+-- options 3, 5, 6 and the counters: a doctor's appointments, appt_id included
+-- so the join to Appointment needs no heap visit of has_appointment
+CREATE INDEX IF NOT EXISTS has_appointment_doctor ON has_appointment (doctor_id, appt_id);
+
+-- option 5: appointments over a date range, by status
+CREATE INDEX IF NOT EXISTS appointment_date_status ON Appointment (adate, status);
+
+-- option 6: only available appointments are listed, a small part of the table
+CREATE INDEX IF NOT EXISTS appointment_available ON Appointment (adate) WHERE status = 'AV';
+
+-- option 6: department by name, then its doctors
+CREATE INDEX IF NOT EXISTS department_name ON Department (name);
+CREATE INDEX IF NOT EXISTS doctor_department ON Doctor (did);
+
+-- option 1: duplicate check on a new doctor
+CREATE INDEX IF NOT EXISTS doctor_name ON Doctor (name, specialty);
+
+-- options 2 and 4: patients by name
+CREATE INDEX IF NOT EXISTS patient_name ON Patient (name);
+
+-- a patient's searches, used when recounting number_of_appts
+CREATE INDEX IF NOT EXISTS searches_patient ON searches (pid);
+
+ANALYZE has_appointment;
+ANALYZE Appointment;
+ANALYZE Department;
+ANALYZE Doctor;
+ANALYZE Patient;
+ANALYZE searches;
@@ -0,0 +1,34 @@
+-- Announces every change to the reference tables on the reference_changed
+-- channel, so each process drops what its ReferenceCache holds of the row.
+-- The payload is table:id, e.g. doctor:12; the notification is only
+-- delivered if the transaction commits.
+
+CREATE OR REPLACE FUNCTION notify_reference_change() RETURNS trigger AS $$
+DECLARE
+	changed record;
+BEGIN
+	IF TG_OP = 'DELETE' THEN
+		changed := OLD;
+	ELSE
+		changed := NEW;
+	END IF;
+	PERFORM pg_notify('reference_changed', lower(TG_TABLE_NAME) || ':' || (to_jsonb(changed) ->> TG_ARGV[0]));
+	-- an update may have moved the row to another key
+	IF TG_OP = 'UPDATE' AND (to_jsonb(OLD) ->> TG_ARGV[0]) IS DISTINCT FROM (to_jsonb(NEW) ->> TG_ARGV[0]) THEN
+		PERFORM pg_notify('reference_changed', lower(TG_TABLE_NAME) || ':' || (to_jsonb(OLD) ->> TG_ARGV[0]));
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS doctor_reference_change ON Doctor;
+CREATE TRIGGER doctor_reference_change AFTER INSERT OR UPDATE OR DELETE ON Doctor
+	FOR EACH ROW EXECUTE PROCEDURE notify_reference_change('doctor_id');
+
+DROP TRIGGER IF EXISTS department_reference_change ON Department;
+CREATE TRIGGER department_reference_change AFTER INSERT OR UPDATE OR DELETE ON Department
+	FOR EACH ROW EXECUTE PROCEDURE notify_reference_change('dept_id');
+
+DROP TRIGGER IF EXISTS hospital_reference_change ON Hospital;
+CREATE TRIGGER hospital_reference_change AFTER INSERT OR UPDATE OR DELETE ON Hospital
+	FOR EACH ROW EXECUTE PROCEDURE notify_reference_change('hospital_id');
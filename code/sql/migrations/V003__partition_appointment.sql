@@ -0,0 +1,159 @@
+-- Splits Appointment by status and by date.  Past (PA) appointments go to
+-- one archive partition; every other appointment to the partition of the
+-- month of its adate.  Listings ask for AC or AV appointments over a date
+-- range, so they read the months in that range and never the archive, and
+-- the months they read stay small however much history builds up.
+--
+--   Appointment                  LIST (status)
+--     appointment_archive        'PA'
+--     appointment_current        'AV', 'AC', 'WL', NULL, then RANGE (adate)
+--       appointment_y2020m01     [2020-01-01, 2020-02-01)
+--       ...
+--
+-- Months are created by ensure_appointment_month, which DBproject calls
+-- before inserting into a month it has not seen.  archive_appointments
+-- moves every appointment before a day to the archive as PA and drops the
+-- months it emptied; see AppointmentPartitions.java.
+--
+-- A key unique across the partitions would have to include status and
+-- adate, so appnt_ID is indexed but not a primary key any more; keys come
+-- from appointment_id_seq through KeyAllocator and are never reused.  The
+-- foreign keys to Appointment need that key, so they become triggers that
+-- check new links; archiving moves rows between partitions, which a
+-- foreign key would not allow either.
+
+ALTER TABLE searches DROP CONSTRAINT searches_aid_fkey;
+ALTER TABLE schedules DROP CONSTRAINT schedules_appt_id_fkey;
+ALTER TABLE has_appointment DROP CONSTRAINT has_appointment_appt_id_fkey;
+
+ALTER TABLE Appointment RENAME TO appointment_unpartitioned;
+
+CREATE TABLE Appointment
+(
+	appnt_ID INTEGER NOT NULL,
+	adate DATE NOT NULL,
+	time_slot VARCHAR(11),
+	status _STATUS,
+	-- time_slot as a range, e.g. [2020-01-13 08:00, 2020-01-13 10:00), for overlap checks
+	slot TSRANGE GENERATED ALWAYS AS (CASE WHEN time_slot IS NULL THEN NULL ELSE tsrange(
+		adate + make_time(split_part(split_part(time_slot, '-', 1), ':', 1)::int, split_part(split_part(time_slot, '-', 1), ':', 2)::int, 0),
+		adate + make_time(split_part(split_part(time_slot, '-', 2), ':', 1)::int, split_part(split_part(time_slot, '-', 2), ':', 2)::int, 0)) END) STORED
+) PARTITION BY LIST (status);
+
+-- only ever appended to, so its pages can be packed full
+CREATE TABLE appointment_archive PARTITION OF Appointment FOR VALUES IN ('PA') WITH (fillfactor = 100);
+CREATE TABLE appointment_current PARTITION OF Appointment FOR VALUES IN ('AV', 'AC', 'WL', NULL) PARTITION BY RANGE (adate);
+
+-- Creates the partition of the month of p_day unless it exists, and
+-- returns its name.  Concurrent callers are serialized, so a month is
+-- created once.
+CREATE OR REPLACE FUNCTION ensure_appointment_month(p_day DATE)
+RETURNS TEXT AS $$
+DECLARE
+	v_first DATE := date_trunc('month', p_day)::date;
+	v_name TEXT := 'appointment_y' || to_char(v_first, 'YYYY') || 'm' || to_char(v_first, 'MM');
+BEGIN
+	IF to_regclass(v_name) IS NULL THEN
+		PERFORM pg_advisory_xact_lock(hashtext('ensure_appointment_month'));
+		IF to_regclass(v_name) IS NULL THEN
+			EXECUTE format('CREATE TABLE %I PARTITION OF appointment_current FOR VALUES FROM (%L) TO (%L)',
+				v_name, v_first, (v_first + interval '1 month')::date);
+		END IF;
+	END IF;
+	RETURN v_name;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Moves every appointment before p_before that is not PA yet to the
+-- archive, as PA, and moves the doctors' counters along with it.  Months
+-- that end by p_before are dropped once empty.  Returns the number of
+-- appointments moved.
+CREATE OR REPLACE FUNCTION archive_appointments(p_before DATE)
+RETURNS INTEGER AS $$
+DECLARE
+	v_moved INTEGER;
+	v_month RECORD;
+	v_left BOOLEAN;
+BEGIN
+	WITH moved AS (
+		DELETE FROM appointment_current WHERE adate < p_before
+		RETURNING appnt_ID, adate, time_slot, status
+	), archived AS (
+		INSERT INTO appointment_archive (appnt_ID, adate, time_slot, status)
+		SELECT appnt_ID, adate, time_slot, 'PA' FROM moved
+		RETURNING appnt_ID
+	), counted AS (
+		INSERT INTO doctor_status_count AS C (status, doctor_id, cnt)
+		SELECT D.status, D.doctor_id, SUM(D.delta) FROM (
+			SELECT M.status, H.doctor_id, -1 AS delta FROM moved M, has_appointment H
+			WHERE H.appt_id = M.appnt_ID AND M.status IS NOT NULL
+			UNION ALL
+			SELECT 'PA', H.doctor_id, 1 FROM moved M, has_appointment H
+			WHERE H.appt_id = M.appnt_ID
+		) D
+		GROUP BY D.status, D.doctor_id
+		ON CONFLICT (status, doctor_id) DO UPDATE SET cnt = C.cnt + EXCLUDED.cnt
+	)
+	SELECT count(*) INTO v_moved FROM archived;
+
+	FOR v_month IN
+		SELECT P.relname FROM pg_inherits I, pg_class P
+		WHERE I.inhparent = 'appointment_current'::regclass AND P.oid = I.inhrelid
+		AND P.relname ~ '^appointment_y[0-9]{4}m[0-9]{2}$'
+		AND to_date(substr(P.relname, 14, 4) || substr(P.relname, 19, 2), 'YYYYMM') + interval '1 month' <= p_before
+	LOOP
+		-- a row inserted into the month since the move keeps it for the next run
+		EXECUTE format('LOCK TABLE %I IN ACCESS EXCLUSIVE MODE', v_month.relname);
+		EXECUTE format('SELECT EXISTS (SELECT 1 FROM %I)', v_month.relname) INTO v_left;
+		IF NOT v_left THEN
+			EXECUTE format('DROP TABLE %I', v_month.relname);
+		END IF;
+	END LOOP;
+	RETURN v_moved;
+END;
+$$ LANGUAGE plpgsql;
+
+SELECT ensure_appointment_month(M.first)
+FROM (SELECT DISTINCT date_trunc('month', adate)::date AS first FROM appointment_unpartitioned
+	WHERE status IS DISTINCT FROM 'PA') M;
+SELECT ensure_appointment_month((date_trunc('month', CURRENT_DATE) + M.n * interval '1 month')::date)
+FROM generate_series(0, 2) AS M(n);
+
+INSERT INTO Appointment (appnt_ID, adate, time_slot, status)
+SELECT appnt_ID, adate, time_slot, status FROM appointment_unpartitioned;
+
+DROP TABLE appointment_unpartitioned;
+
+-- created on the parent, so every partition, present or future, has them
+CREATE INDEX appointment_id ON Appointment (appnt_ID);
+CREATE INDEX appointment_slot ON Appointment USING GIST (slot);
+CREATE INDEX appointment_date_status ON Appointment (adate, status);
+CREATE INDEX appointment_available ON Appointment (adate) WHERE status = 'AV';
+
+-- statuses only change within appointment_current; PA is set by archive_appointments
+CREATE TRIGGER appointment_status_counts
+AFTER UPDATE OF status ON Appointment
+FOR EACH ROW WHEN (OLD.status IS DISTINCT FROM NEW.status)
+EXECUTE PROCEDURE appointment_status_counts();
+
+-- the foreign keys to Appointment, checked when a link is made
+CREATE OR REPLACE FUNCTION check_appointment_reference()
+RETURNS trigger AS $$
+DECLARE
+	v_id INTEGER := (to_jsonb(NEW) ->> TG_ARGV[0])::int;
+BEGIN
+	IF NOT EXISTS (SELECT 1 FROM Appointment WHERE appnt_ID = v_id) THEN
+		RAISE foreign_key_violation USING MESSAGE = format('%s.%s = %s is not an appointment', TG_TABLE_NAME, TG_ARGV[0], v_id);
+	END IF;
+	RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER searches_appointment BEFORE INSERT OR UPDATE OF aid ON searches
+FOR EACH ROW EXECUTE PROCEDURE check_appointment_reference('aid');
+CREATE TRIGGER schedules_appointment BEFORE INSERT OR UPDATE OF appt_id ON schedules
+FOR EACH ROW EXECUTE PROCEDURE check_appointment_reference('appt_id');
+CREATE TRIGGER has_appointment_appointment BEFORE INSERT OR UPDATE OF appt_id ON has_appointment
+FOR EACH ROW EXECUTE PROCEDURE check_appointment_reference('appt_id');
+
+ANALYZE Appointment;
@@ -0,0 +1,123 @@
+-- A waitlist per appointment.  Booking an appointment that is taken (AC)
+-- or already has a queue (WL) queues the patient instead of linking them
+-- to it; cancelling the booking hands the appointment to the first patient
+-- in the queue, all in the transaction of the cancellation, so a freed
+-- appointment is never left available while someone is waiting for it.
+--
+-- The queue is first come, first served: position comes from a sequence,
+-- so it orders the patients of an appointment by the time they queued.
+-- waitlist_queue serves both the head of a queue and the rank of a patient
+-- in it without reading the rest of the table.
+--
+-- Appointments booked before this migration keep every patient linked to
+-- them in searches; their queues start empty.
+
+CREATE SEQUENCE waitlist_position_seq;
+
+CREATE TABLE waitlist
+(
+	appt_id INTEGER NOT NULL,
+	pid INTEGER NOT NULL,
+	position BIGINT NOT NULL DEFAULT nextval('waitlist_position_seq'),
+	queued_at TIMESTAMP NOT NULL DEFAULT now(),
+	PRIMARY KEY (appt_id, pid),
+	FOREIGN KEY (pid) REFERENCES Patient(patient_ID)
+);
+
+CREATE UNIQUE INDEX waitlist_queue ON waitlist (appt_id, position);
+-- a patient's queues, also read when a patient is deleted
+CREATE INDEX waitlist_patient ON waitlist (pid);
+
+-- Appointment has no primary key since V003, see check_appointment_reference
+CREATE TRIGGER waitlist_appointment BEFORE INSERT OR UPDATE OF appt_id ON waitlist
+FOR EACH ROW EXECUTE PROCEDURE check_appointment_reference('appt_id');
+
+-- an appointment that is archived or removed has nobody waiting for it
+CREATE OR REPLACE FUNCTION clear_waitlist()
+RETURNS trigger AS $$
+BEGIN
+	DELETE FROM waitlist WHERE appt_id = OLD.appnt_ID;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER appointment_clear_waitlist AFTER DELETE ON Appointment
+FOR EACH ROW EXECUTE PROCEDURE clear_waitlist();
+
+-- Books an appointment for a patient, or queues the patient when it is
+-- taken.  Returns the status of the appointment afterwards (AC or WL), or
+-- NULL when it does not exist or has passed.  A patient who already holds
+-- or waits for the appointment is left where they are.
+CREATE OR REPLACE FUNCTION make_appointment(p_pid INTEGER, p_doctor INTEGER, p_appt INTEGER)
+RETURNS VARCHAR AS $$
+DECLARE
+	v_status VARCHAR(2);
+BEGIN
+	SELECT status INTO v_status FROM Appointment WHERE appnt_ID = p_appt FOR UPDATE;
+	IF v_status IS NULL OR v_status NOT IN ('AV', 'AC', 'WL') THEN
+		RETURN NULL;
+	END IF;
+	INSERT INTO has_appointment VALUES (p_appt, p_doctor) ON CONFLICT DO NOTHING;
+	IF v_status = 'AV' THEN
+		UPDATE Appointment SET status = 'AC' WHERE appnt_ID = p_appt;
+		INSERT INTO searches VALUES (0, p_pid, p_appt) ON CONFLICT DO NOTHING;
+		IF FOUND THEN
+			UPDATE Patient SET number_of_appts = COALESCE(number_of_appts, 0) + 1
+			WHERE patient_ID = p_pid;
+		END IF;
+		RETURN 'AC';
+	END IF;
+	IF NOT EXISTS (SELECT 1 FROM searches WHERE aid = p_appt AND pid = p_pid) THEN
+		INSERT INTO waitlist (appt_id, pid) VALUES (p_appt, p_pid) ON CONFLICT DO NOTHING;
+		IF v_status = 'AC' THEN
+			UPDATE Appointment SET status = 'WL' WHERE appnt_ID = p_appt;
+			v_status := 'WL';
+		END IF;
+	END IF;
+	RETURN v_status;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Cancels a patient's booking of an appointment, or takes them off its
+-- queue.  When the booking is cancelled the first patient in the queue is
+-- booked in their place.  new_status is the status of the appointment
+-- afterwards and promoted the patient booked, NULL when nobody was; both
+-- are NULL when the patient neither held nor waited for the appointment.
+CREATE OR REPLACE FUNCTION cancel_appointment(p_pid INTEGER, p_appt INTEGER, OUT new_status VARCHAR, OUT promoted INTEGER)
+AS $$
+DECLARE
+	v_status VARCHAR(2);
+BEGIN
+	SELECT A.status INTO v_status FROM Appointment A WHERE A.appnt_ID = p_appt FOR UPDATE;
+	IF v_status IS NULL OR v_status NOT IN ('AC', 'WL') THEN
+		RETURN;
+	END IF;
+
+	DELETE FROM waitlist W WHERE W.appt_id = p_appt AND W.pid = p_pid;
+	IF NOT FOUND THEN
+		DELETE FROM searches S WHERE S.aid = p_appt AND S.pid = p_pid;
+		IF NOT FOUND THEN
+			RETURN;
+		END IF;
+		UPDATE Patient SET number_of_appts = GREATEST(COALESCE(number_of_appts, 1) - 1, 0)
+		WHERE patient_ID = p_pid;
+		-- the head of the queue, read through waitlist_queue
+		DELETE FROM waitlist W WHERE W.appt_id = p_appt
+			AND W.position = (SELECT Q.position FROM waitlist Q WHERE Q.appt_id = p_appt ORDER BY Q.position LIMIT 1)
+		RETURNING W.pid INTO promoted;
+		IF promoted IS NOT NULL THEN
+			INSERT INTO searches VALUES (0, promoted, p_appt) ON CONFLICT DO NOTHING;
+			UPDATE Patient SET number_of_appts = COALESCE(number_of_appts, 0) + 1
+			WHERE patient_ID = promoted;
+		END IF;
+	END IF;
+
+	new_status := CASE
+		WHEN EXISTS (SELECT 1 FROM waitlist W WHERE W.appt_id = p_appt) THEN 'WL'
+		WHEN EXISTS (SELECT 1 FROM searches S WHERE S.aid = p_appt) THEN 'AC'
+		ELSE 'AV' END;
+	IF new_status <> v_status THEN
+		UPDATE Appointment SET status = new_status WHERE appnt_ID = p_appt;
+	END IF;
+END;
+$$ LANGUAGE plpgsql;
@@ -0,0 +1,15 @@
+-- Indexes for the keyset pagination of options 5 and 6.  A page asks for
+-- the rows after the (adate, appnt_ID) of the last row of the page before,
+-- in that order, so an index on the pair lets every page start where the
+-- last one stopped and read only its own rows, page 1,000 as cheaply as
+-- page 1.
+
+-- option 5: active and available appointments by date, then ID
+CREATE INDEX IF NOT EXISTS appointment_listing ON Appointment (adate, appnt_ID) WHERE status IN ('AC', 'AV');
+
+-- option 6: available appointments of a day by ID; replaces the index on
+-- adate alone, which left every page to sort the day's appointments
+DROP INDEX IF EXISTS appointment_available;
+CREATE INDEX appointment_available ON Appointment (adate, appnt_ID) WHERE status = 'AV';
+
+ANALYZE Appointment;
@@ -0,0 +1,73 @@
+-- Splits archive_appointments of V003 into two explicit steps.
+--
+-- Appointment is partitioned by status, so PA appointments already live in
+-- appointment_archive.  archive_appointments went further and turned every
+-- appointment before a day into PA, unbooked AV slots included.  Now:
+--
+-- expire_appointments marks the booked appointments (AC, WL) before a day
+-- as past (PA), which moves them to the archive, and moves the doctors'
+-- counters along with them.  The patients waiting for a WL one are
+-- dropped from its waitlist.  AV slots nobody booked are left as they are.
+--
+-- drop_empty_appointment_months drops the months that end by a day and
+-- hold no appointment any more.  A month still holding an AV slot is kept.
+
+DROP FUNCTION IF EXISTS archive_appointments(DATE);
+
+-- Returns the number of appointments marked PA.
+CREATE OR REPLACE FUNCTION expire_appointments(p_before DATE)
+RETURNS INTEGER AS $$
+DECLARE
+	v_moved INTEGER;
+BEGIN
+	-- the status counter trigger fires on UPDATE, but a row changing
+	-- partition is deleted and inserted, so the move is done by hand
+	WITH moved AS (
+		DELETE FROM appointment_current WHERE adate < p_before AND status IN ('AC', 'WL')
+		RETURNING appnt_ID, adate, time_slot, status
+	), archived AS (
+		INSERT INTO appointment_archive (appnt_ID, adate, time_slot, status)
+		SELECT appnt_ID, adate, time_slot, 'PA' FROM moved
+		RETURNING appnt_ID
+	), counted AS (
+		INSERT INTO doctor_status_count AS C (status, doctor_id, cnt)
+		SELECT D.status, D.doctor_id, SUM(D.delta) FROM (
+			SELECT M.status, H.doctor_id, -1 AS delta FROM moved M, has_appointment H
+			WHERE H.appt_id = M.appnt_ID
+			UNION ALL
+			SELECT 'PA', H.doctor_id, 1 FROM moved M, has_appointment H
+			WHERE H.appt_id = M.appnt_ID
+		) D
+		GROUP BY D.status, D.doctor_id
+		ON CONFLICT (status, doctor_id) DO UPDATE SET cnt = C.cnt + EXCLUDED.cnt
+	)
+	SELECT count(*) INTO v_moved FROM archived;
+	RETURN v_moved;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Returns the number of months dropped.
+CREATE OR REPLACE FUNCTION drop_empty_appointment_months(p_before DATE)
+RETURNS INTEGER AS $$
+DECLARE
+	v_dropped INTEGER := 0;
+	v_month RECORD;
+	v_left BOOLEAN;
+BEGIN
+	FOR v_month IN
+		SELECT P.relname FROM pg_inherits I, pg_class P
+		WHERE I.inhparent = 'appointment_current'::regclass AND P.oid = I.inhrelid
+		AND P.relname ~ '^appointment_y[0-9]{4}m[0-9]{2}$'
+		AND to_date(substr(P.relname, 14, 4) || substr(P.relname, 19, 2), 'YYYYMM') + interval '1 month' <= p_before
+	LOOP
+		-- a row inserted into the month meanwhile keeps it
+		EXECUTE format('LOCK TABLE %I IN ACCESS EXCLUSIVE MODE', v_month.relname);
+		EXECUTE format('SELECT EXISTS (SELECT 1 FROM %I)', v_month.relname) INTO v_left;
+		IF NOT v_left THEN
+			EXECUTE format('DROP TABLE %I', v_month.relname);
+			v_dropped := v_dropped + 1;
+		END IF;
+	END LOOP;
+	RETURN v_dropped;
+END;
+$$ LANGUAGE plpgsql;
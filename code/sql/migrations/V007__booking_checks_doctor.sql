@@ -0,0 +1,40 @@
+-- make_appointment of V004 linked the appointment to whatever doctor the
+-- caller passed, so booking with the wrong doctor gave the appointment a
+-- second owner, counted for that doctor in doctor_status_count.  It now
+-- books an appointment only with the doctor it belongs to and never adds
+-- a link to has_appointment.
+
+-- Books an appointment for a patient, or queues the patient when it is
+-- taken.  Returns the status of the appointment afterwards (AC or WL), or
+-- NULL when it does not exist, has passed or is not one of p_doctor's.  A
+-- patient who already holds or waits for the appointment is left where
+-- they are.
+CREATE OR REPLACE FUNCTION make_appointment(p_pid INTEGER, p_doctor INTEGER, p_appt INTEGER)
+RETURNS VARCHAR AS $$
+DECLARE
+	v_status VARCHAR(2);
+BEGIN
+	SELECT A.status INTO v_status FROM Appointment A JOIN has_appointment H ON H.appt_id = A.appnt_ID
+	WHERE A.appnt_ID = p_appt AND H.doctor_id = p_doctor FOR UPDATE;
+	IF v_status IS NULL OR v_status NOT IN ('AV', 'AC', 'WL') THEN
+		RETURN NULL;
+	END IF;
+	IF v_status = 'AV' THEN
+		UPDATE Appointment SET status = 'AC' WHERE appnt_ID = p_appt;
+		INSERT INTO searches VALUES (0, p_pid, p_appt) ON CONFLICT DO NOTHING;
+		IF FOUND THEN
+			UPDATE Patient SET number_of_appts = COALESCE(number_of_appts, 0) + 1
+			WHERE patient_ID = p_pid;
+		END IF;
+		RETURN 'AC';
+	END IF;
+	IF NOT EXISTS (SELECT 1 FROM searches WHERE aid = p_appt AND pid = p_pid) THEN
+		INSERT INTO waitlist (appt_id, pid) VALUES (p_appt, p_pid) ON CONFLICT DO NOTHING;
+		IF v_status = 'AC' THEN
+			UPDATE Appointment SET status = 'WL' WHERE appnt_ID = p_appt;
+			v_status := 'WL';
+		END IF;
+	END IF;
+	RETURN v_status;
+END;
+$$ LANGUAGE plpgsql;
@@ -0,0 +1,64 @@
+-- Restores the integrity V003 gave up with Appointment's primary key.  A
+-- key unique across the partitions of Appointment would have to include
+-- status and adate, so the appointment IDs are kept in appointment_key, a
+-- plain table with appnt_ID as its primary key, in step with Appointment
+-- through a trigger:
+--
+-- - an appointment inserted with an ID already taken is rejected, however
+--   it is inserted;
+-- - the links to an appointment are real foreign keys to appointment_key
+--   again, so a link to a missing appointment is rejected and so is
+--   deleting an appointment that is still linked.
+--
+-- Moving an appointment between partitions (expire_appointments, or an
+-- UPDATE of its status to or from PA) deletes and inserts it, so its key
+-- is gone for a moment; the foreign keys are checked at commit for that.
+-- A load with user triggers disabled fills appointment_key itself, see
+-- BulkLoader.
+--
+-- The migration fails if the database already holds a duplicate ID or a
+-- link to a missing appointment; those have to be fixed by hand first.
+
+CREATE TABLE appointment_key
+(
+	appnt_ID INTEGER NOT NULL,
+	PRIMARY KEY (appnt_ID)
+);
+
+INSERT INTO appointment_key (appnt_ID) SELECT appnt_ID FROM Appointment;
+
+CREATE OR REPLACE FUNCTION appointment_key_sync()
+RETURNS trigger AS $$
+BEGIN
+	IF TG_OP IN ('DELETE', 'UPDATE') THEN
+		DELETE FROM appointment_key WHERE appnt_ID = OLD.appnt_ID;
+	END IF;
+	IF TG_OP IN ('INSERT', 'UPDATE') THEN
+		INSERT INTO appointment_key (appnt_ID) VALUES (NEW.appnt_ID);
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER appointment_key_sync AFTER INSERT OR DELETE ON Appointment
+FOR EACH ROW EXECUTE PROCEDURE appointment_key_sync();
+CREATE TRIGGER appointment_key_change AFTER UPDATE OF appnt_ID ON Appointment
+FOR EACH ROW WHEN (OLD.appnt_ID IS DISTINCT FROM NEW.appnt_ID)
+EXECUTE PROCEDURE appointment_key_sync();
+
+-- the foreign keys replace the triggers of V003 and V004, which only
+-- checked new links
+DROP TRIGGER IF EXISTS searches_appointment ON searches;
+DROP TRIGGER IF EXISTS schedules_appointment ON schedules;
+DROP TRIGGER IF EXISTS has_appointment_appointment ON has_appointment;
+DROP TRIGGER IF EXISTS waitlist_appointment ON waitlist;
+DROP FUNCTION IF EXISTS check_appointment_reference();
+
+ALTER TABLE searches ADD CONSTRAINT searches_aid_fkey
+	FOREIGN KEY (aid) REFERENCES appointment_key(appnt_ID) DEFERRABLE INITIALLY DEFERRED;
+ALTER TABLE schedules ADD CONSTRAINT schedules_appt_id_fkey
+	FOREIGN KEY (appt_id) REFERENCES appointment_key(appnt_ID) DEFERRABLE INITIALLY DEFERRED;
+ALTER TABLE has_appointment ADD CONSTRAINT has_appointment_appt_id_fkey
+	FOREIGN KEY (appt_id) REFERENCES appointment_key(appnt_ID) DEFERRABLE INITIALLY DEFERRED;
+ALTER TABLE waitlist ADD CONSTRAINT waitlist_appt_id_fkey
+	FOREIGN KEY (appt_id) REFERENCES appointment_key(appnt_ID) DEFERRABLE INITIALLY DEFERRED;